@@ -0,0 +1,16 @@
+package kata;
+
+import java.time.LocalDateTime;
+
+/**
+ * One run of the archival of the events that started before the cutoff. Rows are counted as moved once their
+ * batch is committed, the duration in nanoseconds covers all the batches.
+ */
+public class ArchivalRunDto {
+
+    public LocalDateTime cutoff;
+    public int batchCount;
+    public long archivedEvents;
+    public long archivedSubscriptions;
+    public long durationNanos;
+}
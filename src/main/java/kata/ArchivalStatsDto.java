@@ -0,0 +1,15 @@
+package kata;
+
+/**
+ * Runs made by a {@link MeetupEventArchivalJob} since it was created. A failed run is only counted as failed, the
+ * batches it committed before failing being left out of the rows moved. Latencies are in nanoseconds.
+ */
+public class ArchivalStatsDto {
+
+    public long runCount;
+    public long failedRunCount;
+    public long archivedEvents;
+    public long archivedSubscriptions;
+    public long totalRunNanos;
+    public long maxRunNanos;
+}
@@ -0,0 +1,228 @@
+package kata;
+
+import java.lang.reflect.InvocationTargetException;
+import java.time.LocalDateTime;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Supplier;
+
+/**
+ * Runs the operations of a {@link MeetupSubscribe} on an executor and returns futures of their results, so that
+ * the calling threads are not blocked on the database.
+ * <p>
+ * At most {@code maxInFlightPerEvent} changes of the same event run at a time, the others wait in a queue of the
+ * event, in submission order, instead of retrying against each other on the same rows. Reads and registrations
+ * are not limited.
+ */
+public class AsyncMeetupSubscribe implements AutoCloseable {
+
+    public static final int DEFAULT_MAX_IN_FLIGHT_PER_EVENT = 2;
+
+    private final MeetupSubscribe meetupSubscribe;
+    private final Executor executor;
+    private final ExecutorService ownedExecutor;
+    private final int maxInFlightPerEvent;
+    private final Map<Long, EventQueue> eventQueues = new ConcurrentHashMap<>();
+
+    /**
+     * Runs the operations on {@link #newDefaultExecutor()}, shut down on {@link #close()}.
+     */
+    public AsyncMeetupSubscribe(MeetupSubscribe meetupSubscribe) {
+        this(meetupSubscribe, newDefaultExecutor(), DEFAULT_MAX_IN_FLIGHT_PER_EVENT, true);
+    }
+
+    /**
+     * Runs the operations on the given executor, left running on {@link #close()}.
+     */
+    public AsyncMeetupSubscribe(MeetupSubscribe meetupSubscribe, Executor executor, int maxInFlightPerEvent) {
+        this(meetupSubscribe, executor, maxInFlightPerEvent, false);
+    }
+
+    private AsyncMeetupSubscribe(MeetupSubscribe meetupSubscribe, Executor executor, int maxInFlightPerEvent, boolean ownsExecutor) {
+        if (maxInFlightPerEvent < 1) {
+            throw new IllegalArgumentException("Max in flight operations per event must be at least 1, got " + maxInFlightPerEvent);
+        }
+        this.meetupSubscribe = meetupSubscribe;
+        this.executor = executor;
+        this.ownedExecutor = ownsExecutor ? (ExecutorService) executor : null;
+        this.maxInFlightPerEvent = maxInFlightPerEvent;
+    }
+
+    /**
+     * A virtual thread per task when the JVM has them, looked up at run time as the code is compiled for an older
+     * release, otherwise a pool of platform threads sized for blocking calls.
+     */
+    public static ExecutorService newDefaultExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (NoSuchMethodException | IllegalAccessException | InvocationTargetException e) {
+            return Executors.newFixedThreadPool(Math.max(4, 4 * Runtime.getRuntime().availableProcessors()), runnable -> {
+                Thread thread = new Thread(runnable, "meetup-subscribe-async");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    public CompletableFuture<Long> registerMeetupEvent(String eventName, Integer eventCapacity, LocalDateTime startTime) {
+        return CompletableFuture.supplyAsync(() -> meetupSubscribe.registerMeetupEvent(eventName, eventCapacity, startTime), executor);
+    }
+
+    public CompletableFuture<List<Long>> registerMeetupEvents(String eventName, Integer eventCapacity, List<LocalDateTime> startTimes) {
+        return CompletableFuture.supplyAsync(() -> meetupSubscribe.registerMeetupEvents(eventName, eventCapacity, startTimes), executor);
+    }
+
+    public CompletableFuture<Void> subscribeUserToMeetupEvent(String userId, Long meetupEventId) {
+        return submitChange(meetupEventId, () -> {
+            meetupSubscribe.subscribeUserToMeetupEvent(userId, meetupEventId);
+            return null;
+        });
+    }
+
+    public CompletableFuture<Map<String, SubscribeResult>> subscribeUsersToMeetupEvent(Collection<String> userIds, Long meetupEventId) {
+        return submitChange(meetupEventId, () -> meetupSubscribe.subscribeUsersToMeetupEvent(userIds, meetupEventId));
+    }
+
+    public CompletableFuture<Void> cancelUserSubscription(String userId, Long meetupEventId) {
+        return submitChange(meetupEventId, () -> {
+            meetupSubscribe.cancelUserSubscription(userId, meetupEventId);
+            return null;
+        });
+    }
+
+    public CompletableFuture<Map<String, CancelResult>> cancelUserSubscriptions(Collection<String> userIds, Long meetupEventId) {
+        return submitChange(meetupEventId, () -> meetupSubscribe.cancelUserSubscriptions(userIds, meetupEventId));
+    }
+
+    public CompletableFuture<Void> increaseCapacity(Long meetupEventId, int newCapacity) {
+        return submitChange(meetupEventId, () -> {
+            meetupSubscribe.increaseCapacity(meetupEventId, newCapacity);
+            return null;
+        });
+    }
+
+    public CompletableFuture<MeetupEventStatusDto> getMeetupEventStatus(Long meetupEventId) {
+        return CompletableFuture.supplyAsync(() -> meetupSubscribe.getMeetupEventStatus(meetupEventId), executor);
+    }
+
+    public CompletableFuture<Map<Long, MeetupEventStatusDto>> getMeetupEventStatuses(Collection<Long> meetupEventIds) {
+        return CompletableFuture.supplyAsync(() -> meetupSubscribe.getMeetupEventStatuses(meetupEventIds), executor);
+    }
+
+    public CompletableFuture<MeetupEventCountsDto> getMeetupEventCounts(Long meetupEventId) {
+        return CompletableFuture.supplyAsync(() -> meetupSubscribe.getMeetupEventCounts(meetupEventId), executor);
+    }
+
+    public CompletableFuture<UserSubscriptionStatusDto> getUserSubscriptionStatus(String userId, Long meetupEventId) {
+        return CompletableFuture.supplyAsync(() -> meetupSubscribe.getUserSubscriptionStatus(userId, meetupEventId), executor);
+    }
+
+    public CompletableFuture<SubscriptionPageDto> getParticipantsPage(Long meetupEventId, SubscriptionCursor after, int pageSize) {
+        return CompletableFuture.supplyAsync(() -> meetupSubscribe.getParticipantsPage(meetupEventId, after, pageSize), executor);
+    }
+
+    public CompletableFuture<SubscriptionPageDto> getWaitingListPage(Long meetupEventId, SubscriptionCursor after, int pageSize) {
+        return CompletableFuture.supplyAsync(() -> meetupSubscribe.getWaitingListPage(meetupEventId, after, pageSize), executor);
+    }
+
+    /**
+     * Runs the change now if the event has less than the maximum of changes in flight, otherwise queues it to run
+     * when one of them completes.
+     */
+    private <T> CompletableFuture<T> submitChange(Long meetupEventId, Supplier<T> change) {
+        Task<T> task = new Task<>(meetupEventId, change);
+        boolean[] runNow = new boolean[1];
+        eventQueues.compute(meetupEventId, (id, eventQueue) -> {
+            EventQueue queue = eventQueue == null ? new EventQueue() : eventQueue;
+            if (queue.inFlight < maxInFlightPerEvent) {
+                queue.inFlight++;
+                runNow[0] = true;
+            } else {
+                queue.waiting.add(task);
+            }
+            return queue;
+        });
+        if (runNow[0]) {
+            execute(task);
+        }
+        return task.future;
+    }
+
+    /**
+     * Hands the place of a completed change over to the next queued change of the event, if any.
+     */
+    private void completeChange(Long meetupEventId) {
+        Task<?>[] next = new Task<?>[1];
+        eventQueues.computeIfPresent(meetupEventId, (id, queue) -> {
+            next[0] = queue.waiting.poll();
+            if (next[0] == null) {
+                queue.inFlight--;
+                return queue.inFlight == 0 ? null : queue;
+            }
+            return queue;
+        });
+        if (next[0] != null) {
+            execute(next[0]);
+        }
+    }
+
+    private void execute(Task<?> task) {
+        try {
+            executor.execute(task);
+        } catch (RuntimeException e) {
+            task.future.completeExceptionally(e);
+            completeChange(task.meetupEventId);
+        }
+    }
+
+    @Override
+    public void close() {
+        if (ownedExecutor != null) {
+            ownedExecutor.shutdown();
+        }
+    }
+
+    private static class EventQueue {
+
+        private int inFlight;
+        private final Queue<Task<?>> waiting = new ArrayDeque<>();
+    }
+
+    private class Task<T> implements Runnable {
+
+        private final Long meetupEventId;
+        private final Supplier<T> change;
+        private final CompletableFuture<T> future = new CompletableFuture<>();
+
+        private Task(Long meetupEventId, Supplier<T> change) {
+            this.meetupEventId = meetupEventId;
+            this.change = change;
+        }
+
+        /**
+         * The next change of the event is started before completing the future, so that callbacks of the future
+         * waiting on it do not hold its place.
+         */
+        @Override
+        public void run() {
+            T result;
+            try {
+                result = change.get();
+            } catch (Throwable e) {
+                completeChange(meetupEventId);
+                future.completeExceptionally(e);
+                return;
+            }
+            completeChange(meetupEventId);
+            future.complete(result);
+        }
+    }
+}
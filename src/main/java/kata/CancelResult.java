@@ -0,0 +1,6 @@
+package kata;
+
+public enum CancelResult {
+    CANCELLED,
+    NOT_SUBSCRIBED
+}
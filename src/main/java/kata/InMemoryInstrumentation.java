@@ -0,0 +1,77 @@
+package kata;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Keeps a histogram of durations per operation and per statement in memory, to be read in process with
+ * {@link #snapshot()}. Recording takes no lock, so it can stay on in production.
+ */
+public class InMemoryInstrumentation implements Instrumentation {
+
+    private final Map<String, LatencyHistogram> operations = new ConcurrentHashMap<>();
+    private final Map<String, LatencyHistogram> statements = new ConcurrentHashMap<>();
+    private final Map<String, LongAdder> rowsTouched = new ConcurrentHashMap<>();
+    private final Map<String, LongAdder> retries = new ConcurrentHashMap<>();
+    private final LongAdder handlesOpened = new LongAdder();
+
+    @Override
+    public OperationTimer startOperation(String operation) {
+        long start = System.nanoTime();
+        return () -> histogramOf(operations, operation).record(System.nanoTime() - start);
+    }
+
+    @Override
+    public void statementExecuted(String sql, long nanos, long rowsTouched) {
+        histogramOf(statements, sql).record(nanos);
+        counterOf(this.rowsTouched, sql).add(rowsTouched);
+    }
+
+    @Override
+    public void handleOpened() {
+        handlesOpened.increment();
+    }
+
+    @Override
+    public void operationRetried(String operation) {
+        counterOf(retries, operation).increment();
+    }
+
+    /**
+     * A copy of the figures recorded so far, sorted by key. Figures recorded while the copy is made may be only
+     * partly included.
+     */
+    public InstrumentationSnapshotDto snapshot() {
+        InstrumentationSnapshotDto snapshotDto = new InstrumentationSnapshotDto();
+        snapshotDto.operations = new TreeMap<>();
+        operations.forEach((operation, histogram) -> snapshotDto.operations.put(operation, histogram.toTimingStats()));
+        snapshotDto.statements = new TreeMap<>();
+        statements.forEach((sql, histogram) -> snapshotDto.statements.put(sql, histogram.toTimingStats()));
+        snapshotDto.rowsTouched = new TreeMap<>();
+        rowsTouched.forEach((sql, counter) -> snapshotDto.rowsTouched.put(sql, counter.sum()));
+        snapshotDto.retries = new TreeMap<>();
+        retries.forEach((operation, counter) -> snapshotDto.retries.put(operation, counter.sum()));
+        snapshotDto.handlesOpened = handlesOpened.sum();
+        return snapshotDto;
+    }
+
+    public void reset() {
+        operations.clear();
+        statements.clear();
+        rowsTouched.clear();
+        retries.clear();
+        handlesOpened.reset();
+    }
+
+    private static LatencyHistogram histogramOf(Map<String, LatencyHistogram> histograms, String key) {
+        LatencyHistogram histogram = histograms.get(key);
+        return histogram != null ? histogram : histograms.computeIfAbsent(key, k -> new LatencyHistogram());
+    }
+
+    private static LongAdder counterOf(Map<String, LongAdder> counters, String key) {
+        LongAdder counter = counters.get(key);
+        return counter != null ? counter : counters.computeIfAbsent(key, k -> new LongAdder());
+    }
+}
@@ -0,0 +1,44 @@
+package kata;
+
+/**
+ * Receives the timings of the {@link MeetupSubscribe} operations and of the SQL statements run for them, the
+ * handles opened and the retries made after concurrent updates.
+ * <p>
+ * The methods are called on the hot path, from any thread, and must neither block nor throw. Every method does
+ * nothing by default, so that {@link #NOOP} costs no more than the calls the JIT compiler removes.
+ */
+public interface Instrumentation {
+
+    Instrumentation NOOP = new Instrumentation() {
+    };
+
+    /**
+     * Starts timing an operation, whose duration is recorded when the returned timer is stopped.
+     */
+    default OperationTimer startOperation(String operation) {
+        return OperationTimer.NOOP;
+    }
+
+    /**
+     * A statement completed, {@code rowsTouched} being the rows it inserted, updated or deleted, and 0 for a query.
+     */
+    default void statementExecuted(String sql, long nanos, long rowsTouched) {
+    }
+
+    default void handleOpened() {
+    }
+
+    /**
+     * The operation is replayed because its meetup event was modified concurrently.
+     */
+    default void operationRetried(String operation) {
+    }
+
+    interface OperationTimer {
+
+        OperationTimer NOOP = () -> {
+        };
+
+        void stop();
+    }
+}
@@ -0,0 +1,16 @@
+package kata;
+
+import java.util.Map;
+
+/**
+ * What an {@link InMemoryInstrumentation} recorded since it was created or reset. Operations are keyed by the
+ * name of the {@link MeetupSubscribe} method, statements by their SQL with whitespace collapsed.
+ */
+public class InstrumentationSnapshotDto {
+
+    public Map<String, TimingStatsDto> operations;
+    public Map<String, TimingStatsDto> statements;
+    public Map<String, Long> rowsTouched;
+    public Map<String, Long> retries;
+    public long handlesOpened;
+}
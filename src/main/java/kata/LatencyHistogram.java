@@ -0,0 +1,87 @@
+package kata;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock free histogram of durations in nanoseconds. Durations below 16 have a bucket each, larger ones share a
+ * bucket with the durations within an eighth of the power of two below them, so that percentiles are exact to
+ * 12.5% whatever the range, with a fixed footprint of about 4 KB.
+ */
+class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int LINEAR_BUCKETS = 16;
+    private static final int LINEAR_BITS = 4;
+    private static final int BUCKET_COUNT = LINEAR_BUCKETS + (63 - LINEAR_BITS) * SUB_BUCKETS;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder total = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    void record(long nanos) {
+        long value = Math.max(0, nanos);
+        buckets.incrementAndGet(bucketOf(value));
+        count.increment();
+        total.add(value);
+        max.accumulate(value);
+    }
+
+    TimingStatsDto toTimingStats() {
+        long[] counts = new long[BUCKET_COUNT];
+        long bucketTotal = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            counts[i] = buckets.get(i);
+            bucketTotal += counts[i];
+        }
+
+        TimingStatsDto timingStatsDto = new TimingStatsDto();
+        timingStatsDto.count = bucketTotal;
+        timingStatsDto.totalNanos = total.sum();
+        timingStatsDto.maxNanos = max.get();
+        timingStatsDto.p50Nanos = percentile(counts, bucketTotal, 0.5, timingStatsDto.maxNanos);
+        timingStatsDto.p99Nanos = percentile(counts, bucketTotal, 0.99, timingStatsDto.maxNanos);
+        timingStatsDto.p999Nanos = percentile(counts, bucketTotal, 0.999, timingStatsDto.maxNanos);
+        return timingStatsDto;
+    }
+
+    static int bucketOf(long value) {
+        if (value < LINEAR_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return LINEAR_BUCKETS + (exponent - LINEAR_BITS) * SUB_BUCKETS + subBucket;
+    }
+
+    /**
+     * The largest duration falling in the bucket, the percentile being reported conservatively.
+     */
+    static long highestValueOf(int bucket) {
+        if (bucket < LINEAR_BUCKETS) {
+            return bucket;
+        }
+        int exponent = (bucket - LINEAR_BUCKETS) / SUB_BUCKETS + LINEAR_BITS;
+        long subBucket = (bucket - LINEAR_BUCKETS) % SUB_BUCKETS;
+        long lowest = (SUB_BUCKETS + subBucket) << (exponent - SUB_BUCKET_BITS);
+        return lowest + (1L << (exponent - SUB_BUCKET_BITS)) - 1;
+    }
+
+    private static long percentile(long[] counts, long totalCount, double quantile, long max) {
+        if (totalCount == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(quantile * totalCount));
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return Math.min(highestValueOf(i), max);
+            }
+        }
+        return max;
+    }
+}
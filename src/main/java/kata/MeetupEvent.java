@@ -1,19 +1,155 @@
 package kata;
 
+import java.time.Instant;
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import static java.util.stream.Collectors.toList;
 
 public class MeetupEvent {
 
     private final Long id;
-    private final int capacity;
+    private int capacity;
     private final String eventName;
     private final LocalDateTime startTime;
 
+    /**
+     * Version of the persisted row this aggregate was loaded from, checked on save.
+     */
+    private final long version;
+
+    private int participantCount;
+    private int waitingListCount;
+
+    /**
+     * Subscriptions by user id, in registration order. Depending on how the aggregate was loaded this may be
+     * only part of the subscriptions of the event, the counts above always cover all of them.
+     */
+    private final SubscriptionSet subscriptions;
+
+    /**
+     * Users whose subscription was added or modified since the aggregate was loaded.
+     */
+    private final Set<String> changedUserIds = new LinkedHashSet<>();
+
+    /**
+     * Users whose subscription was removed since the aggregate was loaded.
+     */
+    private final Set<String> removedUserIds = new LinkedHashSet<>();
+
+    /**
+     * Number of subscriptions to move from the head of the waiting list to the participants when the waiting list
+     * is not loaded, applied after the other changes when saving.
+     */
+    private int waitingListPromotions;
+
+    /**
+     * Changes since the aggregate was loaded, in the order they were made. Promotions counted in
+     * {@link #waitingListPromotions} are not in there, as the promoted users are not known.
+     */
+    private final List<MeetupEventChange> changes = new ArrayList<>();
+
     public MeetupEvent(Long id, int capacity, String eventName, LocalDateTime startTime) {
+        this(id, capacity, eventName, startTime, 0, 0, 0, Collections.emptyList());
+    }
+
+    public MeetupEvent(Long id, int capacity, String eventName, LocalDateTime startTime, long version,
+                       int participantCount, int waitingListCount, List<Subscription> subscriptions) {
         this.id = id;
         this.capacity = capacity;
         this.eventName = eventName;
         this.startTime = startTime;
+        this.version = version;
+        this.participantCount = participantCount;
+        this.waitingListCount = waitingListCount;
+        this.subscriptions = new SubscriptionSet(subscriptions);
+    }
+
+    /**
+     * This event as saved with the given version, without any change to save. Promotions of subscriptions not
+     * loaded are made by the save only, so this is meant for events loaded with all their subscriptions.
+     */
+    public MeetupEvent savedAs(long newVersion) {
+        return new MeetupEvent(id, capacity, eventName, startTime, newVersion, participantCount, waitingListCount,
+                subscriptions.toList());
+    }
+
+    public Subscription subscribe(String userId, Instant registrationTime) {
+        if (subscriptions.contains(userId)) {
+            throw new IllegalStateException(String.format("User %s already has a subscription", userId));
+        }
+
+        boolean addToWaitingList = participantCount >= capacity;
+        Subscription subscription = new Subscription(userId, registrationTime, addToWaitingList);
+        putSubscription(subscription);
+        changes.add(MeetupEventChange.subscribed(subscription));
+        if (addToWaitingList) {
+            waitingListCount++;
+        } else {
+            participantCount++;
+        }
+        return subscription;
+    }
+
+    public boolean hasSubscription(String userId) {
+        return subscriptions.contains(userId);
+    }
+
+    public void cancelSubscription(String userId) {
+        Subscription subscription = subscriptions.remove(userId);
+        if (subscription == null) {
+            throw new IllegalStateException(String.format("User %s has no subscription", userId));
+        }
+        changedUserIds.remove(userId);
+        removedUserIds.add(userId);
+        changes.add(MeetupEventChange.cancelled(userId));
+
+        if (subscription.isInWaitingList()) {
+            waitingListCount--;
+        } else {
+            participantCount--;
+            promoteFromWaitingList(1);
+        }
+    }
+
+    public void increaseCapacity(int newCapacity) {
+        if (capacity < newCapacity) {
+            capacity = newCapacity;
+            changes.add(MeetupEventChange.capacityChanged(newCapacity));
+            promoteFromWaitingList(capacity - participantCount);
+        }
+    }
+
+    private void promoteFromWaitingList(int slots) {
+        int promotions = Math.min(slots, waitingListCount);
+        if (promotions <= 0) {
+            return;
+        }
+
+        List<String> waitingList = subscriptions.userIds(true);
+        if (waitingList.size() == waitingListCount) {
+            waitingList.stream()
+                    .limit(promotions)
+                    .forEach(userId -> {
+                        putSubscription(subscriptions.get(userId).toParticipant());
+                        changes.add(MeetupEventChange.promoted(userId));
+                    });
+        } else {
+            waitingListPromotions += promotions;
+        }
+        waitingListCount -= promotions;
+        participantCount += promotions;
+    }
+
+    private void putSubscription(Subscription subscription) {
+        subscriptions.put(subscription);
+        removedUserIds.remove(subscription.getUserId());
+        changedUserIds.add(subscription.getUserId());
     }
 
     public Long getId() {
@@ -31,4 +167,58 @@ public class MeetupEvent {
     public LocalDateTime getStartTime() {
         return startTime;
     }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public int getParticipantCount() {
+        return participantCount;
+    }
+
+    public int getWaitingListCount() {
+        return waitingListCount;
+    }
+
+    public List<Subscription> getSubscriptions() {
+        return subscriptions.toList();
+    }
+
+    public List<Subscription> getParticipants() {
+        return getSubscriptions().stream()
+                .filter(subscription -> !subscription.isInWaitingList())
+                .collect(toList());
+    }
+
+    public List<Subscription> getWaitingList() {
+        return getSubscriptions().stream()
+                .filter(Subscription::isInWaitingList)
+                .collect(toList());
+    }
+
+    public List<String> getParticipantIds() {
+        return subscriptions.userIds(false);
+    }
+
+    public List<String> getWaitingListIds() {
+        return subscriptions.userIds(true);
+    }
+
+    public Collection<Subscription> getChangedSubscriptions() {
+        return changedUserIds.stream()
+                .map(subscriptions::get)
+                .collect(toList());
+    }
+
+    public Set<String> getRemovedUserIds() {
+        return Collections.unmodifiableSet(removedUserIds);
+    }
+
+    public int getWaitingListPromotions() {
+        return waitingListPromotions;
+    }
+
+    public List<MeetupEventChange> getChanges() {
+        return Collections.unmodifiableList(changes);
+    }
 }
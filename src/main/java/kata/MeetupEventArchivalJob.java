@@ -0,0 +1,133 @@
+package kata;
+
+import kata.persistence.MeetupEventArchive;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Moves the events whose start time is older than the retention to the archive, with their subscriptions. A
+ * {@link MeetupSubscribe} given the same archive keeps reading them from there.
+ */
+public class MeetupEventArchivalJob implements AutoCloseable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(MeetupEventArchivalJob.class);
+
+    private final MeetupEventArchive archive;
+    private final Duration retention;
+    private final ArchivalStatsDto stats = new ArchivalStatsDto();
+
+    private ArchivalRunDto lastRun;
+    private ScheduledExecutorService scheduler;
+
+    /**
+     * Archives the events as soon as they started.
+     */
+    public MeetupEventArchivalJob(MeetupEventArchive archive) {
+        this(archive, Duration.ZERO);
+    }
+
+    public MeetupEventArchivalJob(MeetupEventArchive archive, Duration retention) {
+        if (retention.isNegative()) {
+            throw new IllegalArgumentException("Retention must not be negative, got " + retention);
+        }
+        this.archive = archive;
+        this.retention = retention;
+    }
+
+    /**
+     * Archives the events that started more than the retention ago, and returns the rows moved.
+     */
+    public synchronized ArchivalRunDto runOnce() {
+        ArchivalRunDto archivalRunDto;
+        try {
+            archivalRunDto = archive.archiveMeetupEventsStartedBefore(LocalDateTime.now().minus(retention));
+        } catch (RuntimeException e) {
+            synchronized (stats) {
+                stats.failedRunCount++;
+            }
+            throw e;
+        }
+        recordRun(archivalRunDto);
+        lastRun = archivalRunDto;
+        return archivalRunDto;
+    }
+
+    /**
+     * The last successful run, or null if none completed yet.
+     */
+    public synchronized ArchivalRunDto getLastRun() {
+        if (lastRun == null) {
+            return null;
+        }
+        ArchivalRunDto copy = new ArchivalRunDto();
+        copy.cutoff = lastRun.cutoff;
+        copy.batchCount = lastRun.batchCount;
+        copy.archivedEvents = lastRun.archivedEvents;
+        copy.archivedSubscriptions = lastRun.archivedSubscriptions;
+        copy.durationNanos = lastRun.durationNanos;
+        return copy;
+    }
+
+    public ArchivalStatsDto getArchivalStats() {
+        synchronized (stats) {
+            ArchivalStatsDto copy = new ArchivalStatsDto();
+            copy.runCount = stats.runCount;
+            copy.failedRunCount = stats.failedRunCount;
+            copy.archivedEvents = stats.archivedEvents;
+            copy.archivedSubscriptions = stats.archivedSubscriptions;
+            copy.totalRunNanos = stats.totalRunNanos;
+            copy.maxRunNanos = stats.maxRunNanos;
+            return copy;
+        }
+    }
+
+    private void recordRun(ArchivalRunDto archivalRunDto) {
+        synchronized (stats) {
+            stats.runCount++;
+            stats.archivedEvents += archivalRunDto.archivedEvents;
+            stats.archivedSubscriptions += archivalRunDto.archivedSubscriptions;
+            stats.totalRunNanos += archivalRunDto.durationNanos;
+            stats.maxRunNanos = Math.max(stats.maxRunNanos, archivalRunDto.durationNanos);
+        }
+    }
+
+    /**
+     * Runs the archival every interval in a background thread until closed. A failing run is logged and retried at
+     * the next interval, the batches it committed staying archived.
+     */
+    public synchronized void start(Duration interval) {
+        if (scheduler != null) {
+            throw new IllegalStateException("Archival job already started");
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "meetup-event-archival");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                runOnce();
+            } catch (RuntimeException e) {
+                LOGGER.warn("Archival run failed, archiving the remaining events at the next run", e);
+            }
+        }, 0, interval.toNanos(), TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public void close() {
+        ScheduledExecutorService runningScheduler;
+        synchronized (this) {
+            runningScheduler = scheduler;
+            scheduler = null;
+        }
+        if (runningScheduler != null) {
+            runningScheduler.shutdown();
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package kata;
+
+import java.time.Instant;
+
+/**
+ * One change made to a {@link MeetupEvent}, as recorded by the aggregate in the order the changes were made.
+ * Only the fields relevant to the type are set.
+ */
+public class MeetupEventChange {
+
+    public enum Type {
+        SUBSCRIBED,
+        CANCELLED,
+        PROMOTED,
+        CAPACITY_CHANGED
+    }
+
+    private final Type type;
+    private final String userId;
+    private final Instant registrationTime;
+    private final boolean inWaitingList;
+    private final int capacity;
+
+    private MeetupEventChange(Type type, String userId, Instant registrationTime, boolean inWaitingList, int capacity) {
+        this.type = type;
+        this.userId = userId;
+        this.registrationTime = registrationTime;
+        this.inWaitingList = inWaitingList;
+        this.capacity = capacity;
+    }
+
+    public static MeetupEventChange subscribed(Subscription subscription) {
+        return new MeetupEventChange(Type.SUBSCRIBED, subscription.getUserId(), subscription.getRegistrationTime(),
+                subscription.isInWaitingList(), 0);
+    }
+
+    public static MeetupEventChange cancelled(String userId) {
+        return new MeetupEventChange(Type.CANCELLED, userId, null, false, 0);
+    }
+
+    public static MeetupEventChange promoted(String userId) {
+        return new MeetupEventChange(Type.PROMOTED, userId, null, false, 0);
+    }
+
+    public static MeetupEventChange capacityChanged(int capacity) {
+        return new MeetupEventChange(Type.CAPACITY_CHANGED, null, null, false, capacity);
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public String getUserId() {
+        return userId;
+    }
+
+    public Instant getRegistrationTime() {
+        return registrationTime;
+    }
+
+    public boolean isInWaitingList() {
+        return inWaitingList;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+}
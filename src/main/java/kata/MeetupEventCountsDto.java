@@ -0,0 +1,11 @@
+package kata;
+
+public class MeetupEventCountsDto {
+
+    public Long meetupId;
+    public Integer eventCapacity;
+    public int participantCount;
+    public int waitingListCount;
+    public int remainingCapacity;
+
+}
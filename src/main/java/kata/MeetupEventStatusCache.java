@@ -0,0 +1,92 @@
+package kata;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+
+import java.time.Duration;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Bounded cache of meetup event statuses, evicting by size and by time since loading.
+ * <p>
+ * Concurrent misses on the same meetup event wait for a single load. Invalidating an entry waits for a load of
+ * the same entry in progress and discards its result, so a status read before a commit cannot outlive the
+ * invalidation done after it. Writes made by other application nodes are only seen once the entry expires.
+ */
+public class MeetupEventStatusCache {
+
+    public static final MeetupEventStatusCache DISABLED = new MeetupEventStatusCache(null);
+
+    private final Cache<Long, MeetupEventStatusDto> cache;
+
+    public MeetupEventStatusCache(long maximumSize, Duration expireAfterWrite) {
+        this(Caffeine.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfterWrite(expireAfterWrite)
+                .recordStats()
+                .build());
+    }
+
+    private MeetupEventStatusCache(Cache<Long, MeetupEventStatusDto> cache) {
+        this.cache = cache;
+    }
+
+    MeetupEventStatusDto get(Long meetupEventId, Function<Long, MeetupEventStatusDto> loader) {
+        if (cache == null) {
+            return loader.apply(meetupEventId);
+        }
+        MeetupEventStatusDto cached = cache.get(meetupEventId, id -> unmodifiable(loader.apply(id)));
+        return cached == null ? null : copyOf(cached);
+    }
+
+    /**
+     * The cached statuses of the given events, without loading the others. Statuses loaded in bulk are not put in
+     * the cache, as only loads of a single entry are guaranteed not to outlive an invalidation.
+     */
+    Map<Long, MeetupEventStatusDto> getAllPresent(Collection<Long> meetupEventIds) {
+        if (cache == null) {
+            return Collections.emptyMap();
+        }
+        Map<Long, MeetupEventStatusDto> present = new HashMap<>();
+        cache.getAllPresent(meetupEventIds).forEach((meetupEventId, cached) -> present.put(meetupEventId, copyOf(cached)));
+        return present;
+    }
+
+    void invalidate(Long meetupEventId) {
+        if (cache != null) {
+            cache.invalidate(meetupEventId);
+        }
+    }
+
+    public CacheStats stats() {
+        return cache == null ? CacheStats.empty() : cache.stats();
+    }
+
+    private static MeetupEventStatusDto unmodifiable(MeetupEventStatusDto meetupEventStatusDto) {
+        if (meetupEventStatusDto != null) {
+            meetupEventStatusDto.participants = Collections.unmodifiableList(meetupEventStatusDto.participants);
+            meetupEventStatusDto.waitingList = Collections.unmodifiableList(meetupEventStatusDto.waitingList);
+        }
+        return meetupEventStatusDto;
+    }
+
+    /**
+     * The DTO fields are public, so every caller gets its own instance. The lists are shared since they cannot be
+     * modified.
+     */
+    private static MeetupEventStatusDto copyOf(MeetupEventStatusDto cached) {
+        MeetupEventStatusDto meetupEventStatusDto = new MeetupEventStatusDto();
+        meetupEventStatusDto.meetupId = cached.meetupId;
+        meetupEventStatusDto.eventName = cached.eventName;
+        meetupEventStatusDto.eventCapacity = cached.eventCapacity;
+        meetupEventStatusDto.startTime = cached.startTime;
+        meetupEventStatusDto.participants = cached.participants;
+        meetupEventStatusDto.waitingList = cached.waitingList;
+        return meetupEventStatusDto;
+    }
+}
@@ -1,82 +1,529 @@
 package kata;
 
+import kata.persistence.MeetupEventArchive;
 import kata.persistence.MeetupEventDao;
+import kata.persistence.MeetupEventRepository;
 import kata.persistence.MeetupSubscriptionDao;
+import kata.persistence.ShardRouter;
+import kata.persistence.UnitOfWork;
+import org.jdbi.v3.core.Jdbi;
 
 import java.time.Instant;
 import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
 
 import static java.util.stream.Collectors.toList;
 
-public class MeetupSubscribe {
+/**
+ * Created with the DAOs and repository it runs on, or with a {@link #builder} to set the retry policy, the status
+ * cache, the instrumentation or the archive. Closing it closes the router it created for a read instance, if any.
+ */
+public class MeetupSubscribe implements AutoCloseable {
 
     private final MeetupSubscriptionDao meetupSubscriptionDao;
     private final MeetupEventDao meetupEventDao;
+    private final MeetupEventRepository meetupEventRepository;
+    private final MeetupEventRepository meetupEventReader;
+    private final RetryPolicy retryPolicy;
+    private final MeetupEventStatusCache statusCache;
+    private final Instrumentation instrumentation;
+    private final MeetupEventArchive archive;
+    private final ShardRouter ownedShardRouter;
 
-    public MeetupSubscribe(MeetupSubscriptionDao meetupSubscriptionDao, MeetupEventDao meetupEventDao) {
-        this.meetupSubscriptionDao = meetupSubscriptionDao;
-        this.meetupEventDao = meetupEventDao;
+    public MeetupSubscribe(MeetupSubscriptionDao meetupSubscriptionDao, MeetupEventDao meetupEventDao,
+                           MeetupEventRepository meetupEventRepository) {
+        this(builder(meetupSubscriptionDao, meetupEventDao, meetupEventRepository));
+    }
+
+    protected MeetupSubscribe(Builder builder) {
+        this.meetupSubscriptionDao = builder.meetupSubscriptionDao;
+        this.meetupEventDao = builder.meetupEventDao;
+        this.meetupEventRepository = builder.meetupEventRepository;
+        this.meetupEventReader = builder.meetupEventRepository.readOnly();
+        this.retryPolicy = builder.retryPolicy;
+        this.statusCache = builder.statusCache;
+        this.instrumentation = builder.instrumentation;
+        this.archive = builder.archive;
+        this.ownedShardRouter = builder.ownedShardRouter;
+    }
+
+    public static Builder builder(MeetupSubscriptionDao meetupSubscriptionDao, MeetupEventDao meetupEventDao,
+                                  MeetupEventRepository meetupEventRepository) {
+        return new Builder(meetupSubscriptionDao, meetupEventDao, meetupEventRepository, null);
+    }
+
+    /**
+     * Writes to the write instance and reads the statuses, subscriptions and counts from the read instance, except
+     * for the events written through this instance less than {@link ShardRouter#DEFAULT_PRIMARY_PIN} ago, read from
+     * the write instance so that a caller sees its own writes. The router between the two instances is closed with
+     * the built instance.
+     */
+    public static Builder builder(Jdbi writeJdbi, Jdbi readJdbi) {
+        ShardRouter shardRouter = ShardRouter.withReadReplica(writeJdbi, readJdbi);
+        return new Builder(new MeetupSubscriptionDao(shardRouter), new MeetupEventDao(shardRouter),
+                new MeetupEventRepository(shardRouter), shardRouter);
     }
 
     public Long registerMeetupEvent(String eventName, Integer eventCapacity, LocalDateTime startTime) {
-        long id = meetupEventDao.generateId();
-        MeetupEvent meetupEvent = new MeetupEvent(id, eventCapacity, eventName, startTime);
-        meetupEventDao.create(meetupEvent);
-        return id;
+        return runOperation("registerMeetupEvent", () -> {
+            long id = meetupEventDao.generateId();
+            MeetupEvent meetupEvent = new MeetupEvent(id, eventCapacity, eventName, startTime);
+            meetupEventDao.create(meetupEvent);
+            return id;
+        });
+    }
+
+    /**
+     * Registers a series of events sharing the same name and capacity, one per start time, with a single insert
+     * statement. The ids are returned in the order of the start times.
+     */
+    public List<Long> registerMeetupEvents(String eventName, Integer eventCapacity, List<LocalDateTime> startTimes) {
+        if (startTimes.isEmpty()) {
+            return Collections.emptyList();
+        }
+
+        return runOperation("registerMeetupEvents", () -> {
+            List<Long> ids = meetupEventDao.generateIds(startTimes.size());
+            List<MeetupEvent> meetupEvents = new ArrayList<>(startTimes.size());
+            for (int i = 0; i < startTimes.size(); i++) {
+                meetupEvents.add(new MeetupEvent(ids.get(i), eventCapacity, eventName, startTimes.get(i)));
+            }
+            meetupEventDao.createAll(meetupEvents);
+            return ids;
+        });
     }
 
     public void subscribeUserToMeetupEvent(String userId, Long meetupEventId) {
-        if (meetupSubscriptionDao.findById(userId, meetupEventId) != null) {
-            throw new RuntimeException(String.format("User %s already has a subscription", userId));
+        updateMeetupEvent("subscribeUserToMeetupEvent", meetupEventId,
+                () -> meetupEventRepository.findByIdForUser(meetupEventId, userId),
+                meetupEvent -> meetupEvent.subscribe(userId, Instant.now()));
+    }
+
+    /**
+     * Subscribes the users in the given order, as if {@link #subscribeUserToMeetupEvent(String, Long)} was called
+     * for each of them, but with one load and one save of the event.
+     */
+    public Map<String, SubscribeResult> subscribeUsersToMeetupEvent(Collection<String> userIds, Long meetupEventId) {
+        if (userIds.isEmpty()) {
+            return Collections.emptyMap();
         }
 
-        List<Subscription> participants = meetupSubscriptionDao.findSubscriptionsParticipants(meetupEventId);
-        MeetupEvent meetupEvent = meetupEventDao.findById(meetupEventId);
-        boolean addToWaitingList = participants.size() == meetupEvent.getCapacity();
-        Subscription subscription = new Subscription(userId, Instant.now(), addToWaitingList);
-        meetupSubscriptionDao.addToSubscriptions(subscription, meetupEventId);
+        return applyToMeetupEvent("subscribeUsersToMeetupEvent", meetupEventId,
+                () -> meetupEventRepository.findByIdForUsers(meetupEventId, userIds),
+                meetupEvent -> {
+                    Map<String, SubscribeResult> results = new LinkedHashMap<>();
+                    Instant registrationTime = null;
+                    for (String userId : userIds) {
+                        if (meetupEvent.hasSubscription(userId)) {
+                            results.putIfAbsent(userId, SubscribeResult.ALREADY_SUBSCRIBED);
+                            continue;
+                        }
+                        registrationTime = nextRegistrationTime(registrationTime);
+                        Subscription subscription = meetupEvent.subscribe(userId, registrationTime);
+                        results.put(userId, subscription.isInWaitingList() ? SubscribeResult.WAITING_LIST : SubscribeResult.PARTICIPANT);
+                    }
+                    return results;
+                });
+    }
+
+    /**
+     * Registration times must be distinct for the waiting list order to be the subscription order.
+     */
+    static Instant nextRegistrationTime(Instant previous) {
+        Instant now = Instant.now();
+        if (previous == null || now.isAfter(previous)) {
+            return now;
+        }
+        return previous.plus(1, ChronoUnit.MICROS);
     }
 
     public void cancelUserSubscription(String userId, Long meetupEventId) {
-        Boolean inWaitingList = meetupSubscriptionDao.isUserSubscriptionInWaitingList(userId, meetupEventId);
-        meetupSubscriptionDao.deleteSubscription(userId, meetupEventId);
-
-        if (!inWaitingList) {
-            List<Subscription> waitingList = meetupSubscriptionDao.findSubscriptionsInWaitingList(meetupEventId);
-            if (!waitingList.isEmpty()) {
-                Subscription firstInWaitingList = waitingList.get(0);
-                meetupSubscriptionDao.changeFromWaitingListToParticipants(firstInWaitingList.getUserId(), meetupEventId);
-            }
+        updateMeetupEvent("cancelUserSubscription", meetupEventId,
+                () -> meetupEventRepository.findByIdForUser(meetupEventId, userId),
+                meetupEvent -> meetupEvent.cancelSubscription(userId));
+    }
+
+    /**
+     * Cancels the subscriptions in the given order, as if {@link #cancelUserSubscription(String, Long)} was called
+     * for each of them, but with one load and one save of the event.
+     */
+    public Map<String, CancelResult> cancelUserSubscriptions(Collection<String> userIds, Long meetupEventId) {
+        if (userIds.isEmpty()) {
+            return Collections.emptyMap();
         }
+
+        return applyToMeetupEvent("cancelUserSubscriptions", meetupEventId,
+                () -> meetupEventRepository.findByIdForUsers(meetupEventId, userIds),
+                meetupEvent -> {
+                    Map<String, CancelResult> results = new LinkedHashMap<>();
+                    for (String userId : userIds) {
+                        if (!meetupEvent.hasSubscription(userId)) {
+                            results.putIfAbsent(userId, CancelResult.NOT_SUBSCRIBED);
+                            continue;
+                        }
+                        meetupEvent.cancelSubscription(userId);
+                        results.put(userId, CancelResult.CANCELLED);
+                    }
+                    return results;
+                });
     }
 
     public void increaseCapacity(Long meetupEventId, int newCapacity) {
-        MeetupEvent meetupEvent = meetupEventDao.findById(meetupEventId);
-        int oldCapacity = meetupEvent.getCapacity();
+        updateMeetupEvent("increaseCapacity", meetupEventId,
+                () -> meetupEventRepository.findByIdWithoutSubscriptions(meetupEventId),
+                meetupEvent -> meetupEvent.increaseCapacity(newCapacity));
+    }
+
+    /**
+     * Applies the command to the event loaded with the subscriptions of the given users only, as the commands of
+     * this class do.
+     */
+    <T> T applyToMeetupEventForUsers(Long meetupEventId, Collection<String> userIds, Function<MeetupEvent, T> command) {
+        return applyToMeetupEvent("applyToMeetupEventForUsers", meetupEventId,
+                () -> userIds.isEmpty()
+                        ? meetupEventRepository.findByIdWithoutSubscriptions(meetupEventId)
+                        : meetupEventRepository.findByIdForUsers(meetupEventId, userIds),
+                command);
+    }
+
+    private void updateMeetupEvent(String operation, Long meetupEventId, Supplier<MeetupEvent> loader, Consumer<MeetupEvent> command) {
+        applyToMeetupEvent(operation, meetupEventId, loader, meetupEvent -> {
+            command.accept(meetupEvent);
+            return null;
+        });
+    }
 
-        if (oldCapacity < newCapacity) {
-            meetupEventDao.updateCapacity(meetupEventId, newCapacity);
-            int newSlots = newCapacity - oldCapacity;
-            List<Subscription> waitingList = meetupSubscriptionDao.findSubscriptionsInWaitingList(meetupEventId);
-            waitingList.stream()
-                    .limit(newSlots)
-                    .forEach(subscription -> meetupSubscriptionDao.changeFromWaitingListToParticipants(subscription.getUserId(), meetupEventId));
+    /**
+     * Loads the event, applies the command and saves the event, again from the load if the event was modified
+     * concurrently. Each attempt runs in its own unit of work, so that no connection is held while waiting to
+     * retry. The cached status is dropped once the save is committed.
+     */
+    private <T> T applyToMeetupEvent(String operation, Long meetupEventId, Supplier<MeetupEvent> loader, Function<MeetupEvent, T> command) {
+        return timeOperation(operation, () -> {
+            T result = retryPolicy.execute(() -> UnitOfWork.run(() -> {
+                MeetupEvent meetupEvent = loader.get();
+                T commandResult = command.apply(meetupEvent);
+                meetupEventRepository.save(meetupEvent);
+                return commandResult;
+            }), () -> instrumentation.operationRetried(operation));
+            statusCache.invalidate(meetupEventId);
+            return result;
+        });
+    }
+
+    /**
+     * Times the operation and runs it in a unit of work, so that all its statements run on the same handle.
+     */
+    private <T> T runOperation(String operation, Supplier<T> action) {
+        return timeOperation(operation, () -> UnitOfWork.run(action));
+    }
+
+    private <T> T timeOperation(String operation, Supplier<T> action) {
+        Instrumentation.OperationTimer timer = instrumentation.startOperation(operation);
+        try {
+            return action.get();
+        } finally {
+            timer.stop();
         }
     }
 
     public MeetupEventStatusDto getMeetupEventStatus(Long meetupEventId) {
-        MeetupEvent meetupEvent = meetupEventDao.findById(meetupEventId);
-        List<Subscription> participants = meetupSubscriptionDao.findSubscriptionsParticipants(meetupEventId);
-        List<Subscription> waitingList = meetupSubscriptionDao.findSubscriptionsInWaitingList(meetupEventId);
+        return runOperation("getMeetupEventStatus", () -> statusCache.get(meetupEventId, this::loadMeetupEventStatus));
+    }
+
+    /**
+     * Statuses of several events, by event id in the order of the ids, unknown ids being left out. The events not
+     * in the status cache are loaded together, with two queries per chunk of ids instead of a load per event, then
+     * those still missing from the archive the same way.
+     */
+    public Map<Long, MeetupEventStatusDto> getMeetupEventStatuses(Collection<Long> meetupEventIds) {
+        if (meetupEventIds.isEmpty()) {
+            return Collections.emptyMap();
+        }
+
+        return runOperation("getMeetupEventStatuses", () -> {
+            Map<Long, MeetupEventStatusDto> cached = statusCache.getAllPresent(meetupEventIds);
+            List<Long> missingIds = meetupEventIds.stream()
+                    .filter(meetupEventId -> !cached.containsKey(meetupEventId))
+                    .collect(toList());
+            Map<Long, MeetupEvent> loaded = missingIds.isEmpty()
+                    ? Collections.emptyMap()
+                    : meetupEventReader.findAllById(missingIds);
+            Map<Long, MeetupEvent> archived = archive.findAllById(missingIds.stream()
+                    .filter(meetupEventId -> !loaded.containsKey(meetupEventId))
+                    .collect(toList()));
+
+            Map<Long, MeetupEventStatusDto> statuses = new LinkedHashMap<>();
+            for (Long meetupEventId : meetupEventIds) {
+                MeetupEventStatusDto meetupEventStatusDto = cached.get(meetupEventId);
+                if (meetupEventStatusDto == null && loaded.containsKey(meetupEventId)) {
+                    meetupEventStatusDto = toMeetupEventStatus(loaded.get(meetupEventId));
+                } else if (meetupEventStatusDto == null && archived.containsKey(meetupEventId)) {
+                    meetupEventStatusDto = toMeetupEventStatus(archived.get(meetupEventId));
+                }
+                if (meetupEventStatusDto != null) {
+                    statuses.put(meetupEventId, meetupEventStatusDto);
+                }
+            }
+            return statuses;
+        });
+    }
+
+    /**
+     * Reads the status through the repository, so that it is right whatever the way the repository stores events.
+     */
+    private MeetupEventStatusDto loadMeetupEventStatus(Long meetupEventId) {
+        MeetupEvent meetupEvent = meetupEventReader.findById(meetupEventId);
+        return toMeetupEventStatus(meetupEvent == null ? archive.findById(meetupEventId) : meetupEvent);
+    }
 
+    private static MeetupEventStatusDto toMeetupEventStatus(MeetupEvent meetupEvent) {
         MeetupEventStatusDto meetupEventStatusDto = new MeetupEventStatusDto();
         meetupEventStatusDto.meetupId = meetupEvent.getId();
         meetupEventStatusDto.eventCapacity = meetupEvent.getCapacity();
         meetupEventStatusDto.startTime = meetupEvent.getStartTime();
         meetupEventStatusDto.eventName = meetupEvent.getEventName();
-        meetupEventStatusDto.waitingList = waitingList.stream().map(Subscription::getUserId).collect(toList());
-        meetupEventStatusDto.participants = participants.stream().map(Subscription::getUserId).collect(toList());
+        meetupEventStatusDto.waitingList = meetupEvent.getWaitingListIds();
+        meetupEventStatusDto.participants = meetupEvent.getParticipantIds();
         return meetupEventStatusDto;
     }
+
+    /**
+     * Capacity and subscription counts of the event, read from its row without any subscription, or null for an
+     * unknown event. An archived event is read from its archived row the same way.
+     */
+    public MeetupEventCountsDto getMeetupEventCounts(Long meetupEventId) {
+        return runOperation("getMeetupEventCounts", () -> {
+            MeetupEvent meetupEvent = meetupEventReader.findByIdWithoutSubscriptions(meetupEventId);
+            if (meetupEvent == null) {
+                meetupEvent = archive.findByIdWithoutSubscriptions(meetupEventId);
+            }
+            if (meetupEvent == null) {
+                return null;
+            }
+
+            MeetupEventCountsDto meetupEventCountsDto = new MeetupEventCountsDto();
+            meetupEventCountsDto.meetupId = meetupEvent.getId();
+            meetupEventCountsDto.eventCapacity = meetupEvent.getCapacity();
+            meetupEventCountsDto.participantCount = meetupEvent.getParticipantCount();
+            meetupEventCountsDto.waitingListCount = meetupEvent.getWaitingListCount();
+            meetupEventCountsDto.remainingCapacity = Math.max(0, meetupEvent.getCapacity() - meetupEvent.getParticipantCount());
+            return meetupEventCountsDto;
+        });
+    }
+
+    /**
+     * Whether the user is a participant, in the waiting list and at which position, or not subscribed, with a
+     * lookup of the subscription then, for the waiting list only, a count of the subscriptions ahead of it. A user
+     * not found in an event without a live row is looked up the same way in the archive. The events of a repository
+     * not storing subscription rows are loaded whole instead.
+     */
+    public UserSubscriptionStatusDto getUserSubscriptionStatus(String userId, Long meetupEventId) {
+        return runOperation("getUserSubscriptionStatus", () -> {
+            UserSubscriptionStatusDto userSubscriptionStatusDto = new UserSubscriptionStatusDto();
+            userSubscriptionStatusDto.meetupId = meetupEventId;
+            userSubscriptionStatusDto.userId = userId;
+
+            MeetupEvent loadedMeetupEvent = loadUnlessSubscriptionRowsStored(meetupEventId);
+            if (loadedMeetupEvent != null) {
+                setUserSubscriptionStatus(userSubscriptionStatusDto, loadedMeetupEvent);
+                return userSubscriptionStatusDto;
+            }
+
+            Subscription subscription = meetupSubscriptionDao.findById(userId, meetupEventId);
+            boolean archived = subscription == null && isArchived(meetupEventId);
+            if (archived) {
+                subscription = archive.findSubscription(userId, meetupEventId);
+            }
+            if (subscription == null) {
+                userSubscriptionStatusDto.status = UserSubscriptionStatus.NOT_SUBSCRIBED;
+            } else if (subscription.isInWaitingList()) {
+                userSubscriptionStatusDto.status = UserSubscriptionStatus.WAITING_LIST;
+                userSubscriptionStatusDto.waitingListPosition = archived
+                        ? archive.findWaitingListPosition(subscription, meetupEventId)
+                        : meetupSubscriptionDao.findWaitingListPosition(subscription, meetupEventId);
+            } else {
+                userSubscriptionStatusDto.status = UserSubscriptionStatus.PARTICIPANT;
+            }
+            return userSubscriptionStatusDto;
+        });
+    }
+
+    private static void setUserSubscriptionStatus(UserSubscriptionStatusDto userSubscriptionStatusDto, MeetupEvent meetupEvent) {
+        List<String> waitingList = sortedSubscriptions(meetupEvent, true).stream()
+                .map(Subscription::getUserId)
+                .collect(toList());
+        int waitingListIndex = waitingList.indexOf(userSubscriptionStatusDto.userId);
+        if (waitingListIndex >= 0) {
+            userSubscriptionStatusDto.status = UserSubscriptionStatus.WAITING_LIST;
+            userSubscriptionStatusDto.waitingListPosition = waitingListIndex + 1;
+        } else if (meetupEvent.hasSubscription(userSubscriptionStatusDto.userId)) {
+            userSubscriptionStatusDto.status = UserSubscriptionStatus.PARTICIPANT;
+        } else {
+            userSubscriptionStatusDto.status = UserSubscriptionStatus.NOT_SUBSCRIBED;
+        }
+    }
+
+    /**
+     * The event loaded with all its subscriptions when the repository does not store them in USER_SUBSCRIPTION,
+     * where the subscription reads look for them, else null without any query.
+     */
+    private MeetupEvent loadUnlessSubscriptionRowsStored(Long meetupEventId) {
+        return meetupEventRepository.storesSubscriptionRows() ? null : meetupEventReader.findById(meetupEventId);
+    }
+
+    /**
+     * The participants or the waiting list of a loaded event, in the order of the subscription reads.
+     */
+    private static List<Subscription> sortedSubscriptions(MeetupEvent meetupEvent, boolean waitingList) {
+        List<Subscription> subscriptions = waitingList ? meetupEvent.getWaitingList() : meetupEvent.getParticipants();
+        subscriptions.sort(Comparator.comparing(Subscription::getRegistrationTime).thenComparing(Subscription::getUserId));
+        return subscriptions;
+    }
+
+    private static boolean isAfter(Subscription subscription, SubscriptionCursor cursor) {
+        int byRegistrationTime = subscription.getRegistrationTime().compareTo(cursor.getRegistrationTime());
+        return byRegistrationTime > 0 || (byRegistrationTime == 0 && subscription.getUserId().compareTo(cursor.getUserId()) > 0);
+    }
+
+    /**
+     * Whether the reads of the event go to the archive: only when there is one and the event has no live row, so
+     * that the reads of a live event never query the archive.
+     */
+    private boolean isArchived(Long meetupEventId) {
+        return archive != MeetupEventArchive.NONE && meetupEventDao.findById(meetupEventId) == null;
+    }
+
+    public SubscriptionPageDto getParticipantsPage(Long meetupEventId, SubscriptionCursor after, int pageSize) {
+        return runOperation("getParticipantsPage", () -> getSubscriptionsPage(meetupEventId, false, after, pageSize));
+    }
+
+    public SubscriptionPageDto getWaitingListPage(Long meetupEventId, SubscriptionCursor after, int pageSize) {
+        return runOperation("getWaitingListPage", () -> getSubscriptionsPage(meetupEventId, true, after, pageSize));
+    }
+
+    /**
+     * Reads one more row than the page size to know whether there is a next page without another query. The page of
+     * an archived event is read from the archive the same way.
+     */
+    private SubscriptionPageDto getSubscriptionsPage(Long meetupEventId, boolean waitingList, SubscriptionCursor after, int pageSize) {
+        if (pageSize < 1) {
+            throw new IllegalArgumentException("Page size must be at least 1");
+        }
+        List<Subscription> subscriptions = findSubscriptionsPage(meetupEventId, waitingList, after, pageSize + 1);
+        boolean hasNextPage = subscriptions.size() > pageSize;
+        List<Subscription> page = hasNextPage ? subscriptions.subList(0, pageSize) : subscriptions;
+
+        SubscriptionPageDto subscriptionPageDto = new SubscriptionPageDto();
+        subscriptionPageDto.userIds = page.stream().map(Subscription::getUserId).collect(toList());
+        subscriptionPageDto.nextCursor = hasNextPage ? SubscriptionCursor.after(page.get(pageSize - 1)) : null;
+        return subscriptionPageDto;
+    }
+
+    private List<Subscription> findSubscriptionsPage(Long meetupEventId, boolean waitingList, SubscriptionCursor after, int limit) {
+        MeetupEvent loadedMeetupEvent = loadUnlessSubscriptionRowsStored(meetupEventId);
+        if (loadedMeetupEvent != null) {
+            return sortedSubscriptions(loadedMeetupEvent, waitingList).stream()
+                    .filter(subscription -> after == null || isAfter(subscription, after))
+                    .limit(limit)
+                    .collect(toList());
+        }
+        return isArchived(meetupEventId)
+                ? archive.findSubscriptionsPage(meetupEventId, waitingList, after, limit)
+                : meetupSubscriptionDao.findSubscriptionsPage(meetupEventId, waitingList, after, limit);
+    }
+
+    /**
+     * The stream of an archived event is read from the archive the same way. The events of a repository not storing
+     * subscription rows are loaded whole instead.
+     */
+    public void useParticipantsStream(Long meetupEventId, Consumer<Stream<String>> consumer) {
+        useSubscriptionsStream(meetupEventId, false, consumer);
+    }
+
+    public void useWaitingListStream(Long meetupEventId, Consumer<Stream<String>> consumer) {
+        useSubscriptionsStream(meetupEventId, true, consumer);
+    }
+
+    private void useSubscriptionsStream(Long meetupEventId, boolean waitingList, Consumer<Stream<String>> consumer) {
+        Consumer<Stream<Subscription>> subscriptionsConsumer = stream -> consumer.accept(stream.map(Subscription::getUserId));
+        MeetupEvent loadedMeetupEvent = loadUnlessSubscriptionRowsStored(meetupEventId);
+        if (loadedMeetupEvent != null) {
+            subscriptionsConsumer.accept(sortedSubscriptions(loadedMeetupEvent, waitingList).stream());
+        } else if (isArchived(meetupEventId)) {
+            archive.useSubscriptionsStream(meetupEventId, waitingList, subscriptionsConsumer);
+        } else {
+            meetupSubscriptionDao.useSubscriptionsStream(meetupEventId, waitingList, subscriptionsConsumer);
+        }
+    }
+
+    @Override
+    public void close() {
+        if (ownedShardRouter != null) {
+            ownedShardRouter.close();
+        }
+    }
+
+    public static class Builder {
+
+        private final MeetupSubscriptionDao meetupSubscriptionDao;
+        private final MeetupEventDao meetupEventDao;
+        private final MeetupEventRepository meetupEventRepository;
+        private final ShardRouter ownedShardRouter;
+        private RetryPolicy retryPolicy = RetryPolicy.DEFAULT;
+        private MeetupEventStatusCache statusCache = MeetupEventStatusCache.DISABLED;
+        private Instrumentation instrumentation = Instrumentation.NOOP;
+        private MeetupEventArchive archive = MeetupEventArchive.NONE;
+
+        private Builder(MeetupSubscriptionDao meetupSubscriptionDao, MeetupEventDao meetupEventDao,
+                        MeetupEventRepository meetupEventRepository, ShardRouter ownedShardRouter) {
+            this.meetupSubscriptionDao = meetupSubscriptionDao;
+            this.meetupEventDao = meetupEventDao;
+            this.meetupEventRepository = meetupEventRepository;
+            this.ownedShardRouter = ownedShardRouter;
+        }
+
+        public Builder retryPolicy(RetryPolicy retryPolicy) {
+            this.retryPolicy = retryPolicy;
+            return this;
+        }
+
+        public Builder statusCache(MeetupEventStatusCache statusCache) {
+            this.statusCache = statusCache;
+            return this;
+        }
+
+        /**
+         * The instrumentation times the operations and counts their retries. To also time their statements,
+         * install an {@link kata.persistence.InstrumentationPlugin} on the Jdbi of the DAOs.
+         */
+        public Builder instrumentation(Instrumentation instrumentation) {
+            this.instrumentation = instrumentation;
+            return this;
+        }
+
+        /**
+         * The reads of the events not found in the repository fall through to the archive, where a
+         * {@link MeetupEventArchivalJob} moves the events once they started.
+         */
+        public Builder archive(MeetupEventArchive archive) {
+            this.archive = archive;
+            return this;
+        }
+
+        public MeetupSubscribe build() {
+            return new MeetupSubscribe(this);
+        }
+    }
 }
@@ -0,0 +1,74 @@
+package kata;
+
+import kata.persistence.ConcurrentMeetupEventUpdateException;
+
+import java.time.Duration;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * How many times a command is replayed when its meetup event was modified concurrently, and how long to wait
+ * between attempts. The wait is randomized between one and two times the backoff so that competing writers
+ * do not retry in lockstep.
+ */
+public class RetryPolicy {
+
+    public static final RetryPolicy NO_RETRY = new RetryPolicy(1, Duration.ZERO);
+
+    public static final RetryPolicy DEFAULT = new RetryPolicy(10, Duration.ofMillis(2));
+
+    private final int maxAttempts;
+    private final Duration backoff;
+
+    public RetryPolicy(int maxAttempts, Duration backoff) {
+        if (maxAttempts < 1) {
+            throw new IllegalArgumentException("maxAttempts must be at least 1");
+        }
+        this.maxAttempts = maxAttempts;
+        this.backoff = backoff;
+    }
+
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    public Duration getBackoff() {
+        return backoff;
+    }
+
+    <T> T execute(Supplier<T> command) {
+        return execute(command, () -> {
+        });
+    }
+
+    /**
+     * Runs {@code onRetry} before each replay of the command.
+     */
+    <T> T execute(Supplier<T> command, Runnable onRetry) {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                return command.get();
+            } catch (ConcurrentMeetupEventUpdateException e) {
+                if (attempt >= maxAttempts) {
+                    throw e;
+                }
+                sleepBeforeRetry();
+                onRetry.run();
+            }
+        }
+    }
+
+    private void sleepBeforeRetry() {
+        long backoffNanos = backoff.toNanos();
+        if (backoffNanos == 0) {
+            return;
+        }
+        try {
+            TimeUnit.NANOSECONDS.sleep(backoffNanos + ThreadLocalRandom.current().nextLong(backoffNanos));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting to retry", e);
+        }
+    }
+}
@@ -0,0 +1,204 @@
+package kata;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingDeque;
+
+/**
+ * Runs the changes of the events on a fixed number of lanes, the lane of an event being chosen by the hash of its
+ * id. Each lane has a single writer thread taking its changes in submission order, so that changes of the same
+ * event never race on its rows while changes of events in different lanes run in parallel.
+ * <p>
+ * Consecutive changes of the same event waiting in a lane are applied together, with one load and one save of the
+ * event. Each change still succeeds or fails on its own.
+ */
+public class StripedMeetupSubscribe implements AutoCloseable {
+
+    public static final int DEFAULT_MAX_GROUP_SIZE = 64;
+
+    private static final Change<Void> STOP = new Change<>(0L, null, null);
+
+    private final MeetupSubscribe meetupSubscribe;
+    private final int maxGroupSize;
+    private final Lane[] lanes;
+    private volatile boolean closed;
+
+    public StripedMeetupSubscribe(MeetupSubscribe meetupSubscribe) {
+        this(meetupSubscribe, Runtime.getRuntime().availableProcessors(), DEFAULT_MAX_GROUP_SIZE);
+    }
+
+    public StripedMeetupSubscribe(MeetupSubscribe meetupSubscribe, int laneCount, int maxGroupSize) {
+        if (laneCount < 1 || maxGroupSize < 1) {
+            throw new IllegalArgumentException("Lane count and max group size must be at least 1");
+        }
+        this.meetupSubscribe = meetupSubscribe;
+        this.maxGroupSize = maxGroupSize;
+        this.lanes = new Lane[laneCount];
+        for (int i = 0; i < laneCount; i++) {
+            lanes[i] = new Lane(i);
+            lanes[i].thread.start();
+        }
+    }
+
+    public CompletableFuture<SubscribeResult> subscribeUserToMeetupEvent(String userId, Long meetupEventId) {
+        return submit(new Change<>(meetupEventId, userId, (meetupEvent, registrationTime) -> {
+            Subscription subscription = meetupEvent.subscribe(userId, registrationTime);
+            return subscription.isInWaitingList() ? SubscribeResult.WAITING_LIST : SubscribeResult.PARTICIPANT;
+        }));
+    }
+
+    public CompletableFuture<Void> cancelUserSubscription(String userId, Long meetupEventId) {
+        return submit(new Change<>(meetupEventId, userId, (meetupEvent, registrationTime) -> {
+            meetupEvent.cancelSubscription(userId);
+            return null;
+        }));
+    }
+
+    public CompletableFuture<Void> increaseCapacity(Long meetupEventId, int newCapacity) {
+        return submit(new Change<>(meetupEventId, null, (meetupEvent, registrationTime) -> {
+            meetupEvent.increaseCapacity(newCapacity);
+            return null;
+        }));
+    }
+
+    private <T> CompletableFuture<T> submit(Change<T> change) {
+        if (closed) {
+            change.future.completeExceptionally(new IllegalStateException("Striped meetup subscribe is closed"));
+            return change.future;
+        }
+        lanes[Math.floorMod(change.meetupEventId.hashCode(), lanes.length)].queue.add(change);
+        return change.future;
+    }
+
+    /**
+     * Stops the lanes once the changes already submitted are applied.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        for (Lane lane : lanes) {
+            lane.queue.add(STOP);
+        }
+        for (Lane lane : lanes) {
+            try {
+                lane.thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            Change<?> change;
+            while ((change = lane.queue.poll()) != null && change != STOP) {
+                change.future.completeExceptionally(new IllegalStateException("Striped meetup subscribe is closed"));
+            }
+        }
+    }
+
+    private class Lane implements Runnable {
+
+        private final BlockingDeque<Change<?>> queue = new LinkedBlockingDeque<>();
+        private final Thread thread;
+
+        private Lane(int index) {
+            thread = new Thread(this, "meetup-subscribe-lane-" + index);
+            thread.setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                Change<?> first;
+                try {
+                    first = queue.take();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                if (first == STOP) {
+                    return;
+                }
+                List<Change<?>> group = new ArrayList<>();
+                group.add(first);
+                while (group.size() < maxGroupSize) {
+                    Change<?> next = queue.peek();
+                    if (next == null || next == STOP || !next.meetupEventId.equals(first.meetupEventId)) {
+                        break;
+                    }
+                    group.add(queue.poll());
+                }
+                applyGroup(first.meetupEventId, group);
+            }
+        }
+
+        /**
+         * Applies the changes to the event, each one catching its own failure, then completes their futures once
+         * the event is saved. A failed save fails all of them, as does an error, which leaves the lane running for
+         * the changes behind them.
+         */
+        private void applyGroup(Long meetupEventId, List<Change<?>> group) {
+            Set<String> userIds = new LinkedHashSet<>();
+            group.stream()
+                    .filter(change -> change.userId != null)
+                    .forEach(change -> userIds.add(change.userId));
+            try {
+                List<Object> outcomes = meetupSubscribe.applyToMeetupEventForUsers(meetupEventId, userIds, meetupEvent -> {
+                    List<Object> results = new ArrayList<>(group.size());
+                    Instant registrationTime = null;
+                    for (Change<?> change : group) {
+                        registrationTime = MeetupSubscribe.nextRegistrationTime(registrationTime);
+                        try {
+                            results.add(change.command.apply(meetupEvent, registrationTime));
+                        } catch (RuntimeException e) {
+                            results.add(new Failure(e));
+                        }
+                    }
+                    return results;
+                });
+                for (int i = 0; i < group.size(); i++) {
+                    group.get(i).complete(outcomes.get(i));
+                }
+            } catch (Throwable e) {
+                group.forEach(change -> change.future.completeExceptionally(e));
+            }
+        }
+    }
+
+    private interface Command<T> {
+
+        T apply(MeetupEvent meetupEvent, Instant registrationTime);
+    }
+
+    private static class Change<T> {
+
+        private final Long meetupEventId;
+        private final String userId;
+        private final Command<T> command;
+        private final CompletableFuture<T> future = new CompletableFuture<>();
+
+        private Change(Long meetupEventId, String userId, Command<T> command) {
+            this.meetupEventId = meetupEventId;
+            this.userId = userId;
+            this.command = command;
+        }
+
+        @SuppressWarnings("unchecked")
+        private void complete(Object outcome) {
+            if (outcome instanceof Failure) {
+                future.completeExceptionally(((Failure) outcome).exception);
+            } else {
+                future.complete((T) outcome);
+            }
+        }
+    }
+
+    private static class Failure {
+
+        private final RuntimeException exception;
+
+        private Failure(RuntimeException exception) {
+            this.exception = exception;
+        }
+    }
+}
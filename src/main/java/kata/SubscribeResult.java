@@ -0,0 +1,7 @@
+package kata;
+
+public enum SubscribeResult {
+    PARTICIPANT,
+    WAITING_LIST,
+    ALREADY_SUBSCRIBED
+}
@@ -4,11 +4,11 @@ import java.time.Instant;
 
 public class Subscription {
 
-    private String userId;
+    private final String userId;
 
-    private Instant registrationTime;
+    private final Instant registrationTime;
 
-    private boolean isInWaitingList;
+    private final boolean isInWaitingList;
 
     public Subscription(String userId, Instant registrationTime, boolean isInWaitingList) {
         this.userId = userId;
@@ -27,4 +27,8 @@ public class Subscription {
     public boolean isInWaitingList() {
         return isInWaitingList;
     }
+
+    public Subscription toParticipant() {
+        return new Subscription(userId, registrationTime, false);
+    }
 }
@@ -0,0 +1,45 @@
+package kata;
+
+import java.time.Instant;
+
+/**
+ * Position after the last subscription of a page, in the (registration time, user id) order of the pages.
+ * {@link #toToken()} gives an opaque string form for callers that pass the cursor back through an API.
+ */
+public class SubscriptionCursor {
+
+    private final Instant registrationTime;
+    private final String userId;
+
+    public SubscriptionCursor(Instant registrationTime, String userId) {
+        this.registrationTime = registrationTime;
+        this.userId = userId;
+    }
+
+    public static SubscriptionCursor after(Subscription subscription) {
+        return new SubscriptionCursor(subscription.getRegistrationTime(), subscription.getUserId());
+    }
+
+    public static SubscriptionCursor fromToken(String token) {
+        int separator = token.indexOf(':');
+        int dot = token.indexOf('.');
+        if (separator < 0 || dot < 0 || dot > separator) {
+            throw new IllegalArgumentException("Invalid subscription cursor " + token);
+        }
+        long epochSecond = Long.parseLong(token.substring(0, dot));
+        long nanos = Long.parseLong(token.substring(dot + 1, separator));
+        return new SubscriptionCursor(Instant.ofEpochSecond(epochSecond, nanos), token.substring(separator + 1));
+    }
+
+    public String toToken() {
+        return registrationTime.getEpochSecond() + "." + registrationTime.getNano() + ":" + userId;
+    }
+
+    public Instant getRegistrationTime() {
+        return registrationTime;
+    }
+
+    public String getUserId() {
+        return userId;
+    }
+}
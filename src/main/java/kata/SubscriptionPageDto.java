@@ -0,0 +1,10 @@
+package kata;
+
+import java.util.List;
+
+public class SubscriptionPageDto {
+
+    public List<String> userIds;
+    public SubscriptionCursor nextCursor;
+
+}
@@ -0,0 +1,269 @@
+package kata;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Subscriptions of an event, kept in registration order in parallel arrays rather than as one object per
+ * subscription: user ids in a {@code String[]}, registration times as epoch microseconds in a {@code long[]} and
+ * waiting list membership in a {@link BitSet}. Lookups by user id go through an open addressing index of slot
+ * numbers, so the whole set costs a few dozen bytes per subscription on top of the user id strings.
+ * <p>
+ * Removed subscriptions only leave a hole in the arrays, which are compacted once holes make half of them.
+ * Registration times are truncated to the microsecond.
+ */
+public class SubscriptionSet implements Iterable<Subscription> {
+
+    private static final int INITIAL_CAPACITY = 8;
+
+    private String[] userIds;
+    private long[] registrationTimes;
+    private BitSet inWaitingList = new BitSet();
+    private BitSet removed = new BitSet();
+
+    /**
+     * Number of used slots, including removed ones.
+     */
+    private int slots;
+    private int removedSlots;
+
+    /**
+     * Slot number plus one for each user id put in the set, 0 for empty positions. Its length is a power of two
+     * kept at least twice the number of entries.
+     */
+    private int[] index;
+    private int indexEntries;
+
+    public SubscriptionSet() {
+        this(INITIAL_CAPACITY);
+    }
+
+    public SubscriptionSet(Collection<Subscription> subscriptions) {
+        this(subscriptions.size());
+        subscriptions.forEach(this::put);
+    }
+
+    private SubscriptionSet(int capacity) {
+        int arrayCapacity = Math.max(INITIAL_CAPACITY, capacity);
+        userIds = new String[arrayCapacity];
+        registrationTimes = new long[arrayCapacity];
+        index = new int[indexCapacityFor(arrayCapacity)];
+    }
+
+    public int size() {
+        return slots - removedSlots;
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    public boolean contains(String userId) {
+        return findSlot(userId) >= 0;
+    }
+
+    public Subscription get(String userId) {
+        int slot = findSlot(userId);
+        return slot < 0 ? null : subscriptionAt(slot);
+    }
+
+    /**
+     * Adds the subscription, or replaces the subscription of the same user. A replaced subscription keeps its
+     * place when its registration time does not change.
+     */
+    public void put(Subscription subscription) {
+        String userId = subscription.getUserId();
+        long registrationTime = toEpochMicros(subscription.getRegistrationTime());
+        int position = indexPositionOf(userId);
+        int existingSlot = index[position] - 1;
+
+        if (existingSlot >= 0 && !removed.get(existingSlot)) {
+            if (registrationTimes[existingSlot] == registrationTime) {
+                inWaitingList.set(existingSlot, subscription.isInWaitingList());
+                return;
+            }
+            removeSlot(existingSlot);
+        }
+
+        int slot = appendSlot(userId, registrationTime, subscription.isInWaitingList());
+        if (existingSlot < 0) {
+            indexEntries++;
+        }
+        index[position] = slot + 1;
+
+        if (slot > 0 && registrationTimes[slot - 1] > registrationTime) {
+            rebuild(true);
+        } else if (indexEntries * 2 > index.length) {
+            rebuild(false);
+        }
+    }
+
+    public Subscription remove(String userId) {
+        int slot = findSlot(userId);
+        if (slot < 0) {
+            return null;
+        }
+        Subscription subscription = subscriptionAt(slot);
+        removeSlot(slot);
+        if (removedSlots * 2 > slots && removedSlots > INITIAL_CAPACITY) {
+            rebuild(false);
+        }
+        return subscription;
+    }
+
+    public List<Subscription> toList() {
+        List<Subscription> subscriptions = new ArrayList<>(size());
+        forEach(subscriptions::add);
+        return subscriptions;
+    }
+
+    /**
+     * User ids of the participants or of the waiting list, in registration order, without creating any
+     * {@link Subscription}.
+     */
+    public List<String> userIds(boolean waitingList) {
+        List<String> result = new ArrayList<>();
+        for (int slot = nextLiveSlot(0); slot < slots; slot = nextLiveSlot(slot + 1)) {
+            if (inWaitingList.get(slot) == waitingList) {
+                result.add(userIds[slot]);
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public Iterator<Subscription> iterator() {
+        return new Iterator<Subscription>() {
+
+            private int slot = nextLiveSlot(0);
+
+            @Override
+            public boolean hasNext() {
+                return slot < slots;
+            }
+
+            @Override
+            public Subscription next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                Subscription subscription = subscriptionAt(slot);
+                slot = nextLiveSlot(slot + 1);
+                return subscription;
+            }
+        };
+    }
+
+    private int nextLiveSlot(int fromSlot) {
+        int slot = removed.nextClearBit(fromSlot);
+        return Math.min(slot, slots);
+    }
+
+    private Subscription subscriptionAt(int slot) {
+        return new Subscription(userIds[slot], toInstant(registrationTimes[slot]), inWaitingList.get(slot));
+    }
+
+    private int findSlot(String userId) {
+        int slot = index[indexPositionOf(userId)] - 1;
+        return slot >= 0 && !removed.get(slot) ? slot : -1;
+    }
+
+    /**
+     * Position of the user id in the index, or of the empty position where it would go.
+     */
+    private int indexPositionOf(String userId) {
+        int mask = index.length - 1;
+        int position = spread(userId.hashCode()) & mask;
+        while (index[position] != 0 && !userIds[index[position] - 1].equals(userId)) {
+            position = (position + 1) & mask;
+        }
+        return position;
+    }
+
+    private int appendSlot(String userId, long registrationTime, boolean waitingList) {
+        if (slots == userIds.length) {
+            int newCapacity = userIds.length * 2;
+            String[] newUserIds = new String[newCapacity];
+            long[] newRegistrationTimes = new long[newCapacity];
+            System.arraycopy(userIds, 0, newUserIds, 0, slots);
+            System.arraycopy(registrationTimes, 0, newRegistrationTimes, 0, slots);
+            userIds = newUserIds;
+            registrationTimes = newRegistrationTimes;
+        }
+        int slot = slots++;
+        userIds[slot] = userId;
+        registrationTimes[slot] = registrationTime;
+        inWaitingList.set(slot, waitingList);
+        return slot;
+    }
+
+    private void removeSlot(int slot) {
+        removed.set(slot);
+        removedSlots++;
+    }
+
+    /**
+     * Drops removed slots and rebuilds the index, sorting the slots by registration time if asked to. The sort
+     * is stable, so subscriptions registered at the same time keep the order they were put in.
+     */
+    private void rebuild(boolean sortByRegistrationTime) {
+        int size = size();
+        Integer[] liveSlots = new Integer[size];
+        for (int i = 0, slot = nextLiveSlot(0); slot < slots; slot = nextLiveSlot(slot + 1)) {
+            liveSlots[i++] = slot;
+        }
+        if (sortByRegistrationTime) {
+            Arrays.sort(liveSlots, (a, b) -> Long.compare(registrationTimes[a], registrationTimes[b]));
+        }
+
+        int capacity = Math.max(INITIAL_CAPACITY, size * 2);
+        String[] newUserIds = new String[capacity];
+        long[] newRegistrationTimes = new long[capacity];
+        BitSet newInWaitingList = new BitSet(capacity);
+        int[] newIndex = new int[indexCapacityFor(capacity)];
+        int mask = newIndex.length - 1;
+        for (int newSlot = 0; newSlot < size; newSlot++) {
+            int slot = liveSlots[newSlot];
+            newUserIds[newSlot] = userIds[slot];
+            newRegistrationTimes[newSlot] = registrationTimes[slot];
+            newInWaitingList.set(newSlot, inWaitingList.get(slot));
+
+            int position = spread(userIds[slot].hashCode()) & mask;
+            while (newIndex[position] != 0) {
+                position = (position + 1) & mask;
+            }
+            newIndex[position] = newSlot + 1;
+        }
+
+        userIds = newUserIds;
+        registrationTimes = newRegistrationTimes;
+        inWaitingList = newInWaitingList;
+        removed = new BitSet();
+        slots = size;
+        removedSlots = 0;
+        index = newIndex;
+        indexEntries = size;
+    }
+
+    private static int indexCapacityFor(int entries) {
+        return Integer.highestOneBit(Math.max(INITIAL_CAPACITY, entries) * 2 - 1) << 1;
+    }
+
+    private static int spread(int hashCode) {
+        return hashCode ^ (hashCode >>> 16);
+    }
+
+    private static long toEpochMicros(Instant instant) {
+        return Math.addExact(Math.multiplyExact(instant.getEpochSecond(), 1_000_000L), instant.getNano() / 1_000);
+    }
+
+    private static Instant toInstant(long epochMicros) {
+        return Instant.ofEpochSecond(Math.floorDiv(epochMicros, 1_000_000L), Math.floorMod(epochMicros, 1_000_000L) * 1_000);
+    }
+}
@@ -0,0 +1,15 @@
+package kata;
+
+/**
+ * Durations recorded by an {@link InMemoryInstrumentation}, in nanoseconds. Percentiles are the upper bound of
+ * the histogram bucket they fall in, so at most 12.5% above the exact value.
+ */
+public class TimingStatsDto {
+
+    public long count;
+    public long totalNanos;
+    public long maxNanos;
+    public long p50Nanos;
+    public long p99Nanos;
+    public long p999Nanos;
+}
@@ -0,0 +1,7 @@
+package kata;
+
+public enum UserSubscriptionStatus {
+    PARTICIPANT,
+    WAITING_LIST,
+    NOT_SUBSCRIBED
+}
@@ -0,0 +1,13 @@
+package kata;
+
+public class UserSubscriptionStatusDto {
+
+    public Long meetupId;
+    public String userId;
+    public UserSubscriptionStatus status;
+    /**
+     * Position in the waiting list starting from 1, null when the user is not in the waiting list.
+     */
+    public Integer waitingListPosition;
+
+}
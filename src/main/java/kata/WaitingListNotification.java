@@ -0,0 +1,49 @@
+package kata;
+
+import java.time.Instant;
+
+/**
+ * A move of a user between the waiting list and the participants of an event, as written to the notification
+ * outbox in the transaction making the move. Positions increase in commit order, give or take the transactions
+ * running at the same time.
+ */
+public class WaitingListNotification {
+
+    public enum Type {
+        PROMOTED
+    }
+
+    private final long position;
+    private final Long meetupEventId;
+    private final String userId;
+    private final Type type;
+    private final Instant createdAt;
+
+    public WaitingListNotification(long position, Long meetupEventId, String userId, Type type, Instant createdAt) {
+        this.position = position;
+        this.meetupEventId = meetupEventId;
+        this.userId = userId;
+        this.type = type;
+        this.createdAt = createdAt;
+    }
+
+    public long getPosition() {
+        return position;
+    }
+
+    public Long getMeetupEventId() {
+        return meetupEventId;
+    }
+
+    public String getUserId() {
+        return userId;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public Instant getCreatedAt() {
+        return createdAt;
+    }
+}
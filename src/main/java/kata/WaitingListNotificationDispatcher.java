@@ -0,0 +1,154 @@
+package kata;
+
+import kata.persistence.NotificationOutbox;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Drains the notification outbox in batches to a listener, acknowledging the position of each batch under the
+ * name of the consumer once the listener returns. Delivery is at least once: a batch is delivered again if the
+ * listener throws or the application stops before the acknowledgment.
+ * <p>
+ * Positions are allocated when the notifications are written, so a transaction committing after another one may
+ * leave a position missing for a while. The dispatcher stops at such a gap until it is filled, or until it has been
+ * there for the gap timeout, after which it is taken for a rolled back transaction and skipped.
+ */
+public class WaitingListNotificationDispatcher implements AutoCloseable {
+
+    public static final int DEFAULT_BATCH_SIZE = 100;
+    public static final Duration DEFAULT_GAP_TIMEOUT = Duration.ofSeconds(10);
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(WaitingListNotificationDispatcher.class);
+
+    private final NotificationOutbox outbox;
+    private final String consumerName;
+    private final int batchSize;
+    private final Duration gapTimeout;
+    private final WaitingListNotificationListener listener;
+    private final AtomicLong failedPollCount = new AtomicLong();
+
+    private long gapPosition = -1;
+    private long gapSeenAtNanos;
+    private ScheduledExecutorService scheduler;
+
+    public WaitingListNotificationDispatcher(NotificationOutbox outbox, String consumerName,
+                                             WaitingListNotificationListener listener) {
+        this(outbox, consumerName, DEFAULT_BATCH_SIZE, DEFAULT_GAP_TIMEOUT, listener);
+    }
+
+    public WaitingListNotificationDispatcher(NotificationOutbox outbox, String consumerName, int batchSize,
+                                             Duration gapTimeout, WaitingListNotificationListener listener) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("Batch size must be at least 1, got " + batchSize);
+        }
+        this.outbox = outbox;
+        this.consumerName = consumerName;
+        this.batchSize = batchSize;
+        this.gapTimeout = gapTimeout;
+        this.listener = listener;
+    }
+
+    /**
+     * Delivers the notifications written since the last acknowledged position, one batch after the other, and
+     * returns how many were delivered. A failure is counted in {@link #getFailedPollCount()} and rethrown.
+     */
+    public synchronized int dispatchPending() {
+        try {
+            return dispatchBatches();
+        } catch (RuntimeException e) {
+            failedPollCount.incrementAndGet();
+            throw e;
+        }
+    }
+
+    /**
+     * Number of calls to {@link #dispatchPending()}, scheduled or not, that failed since this dispatcher was created.
+     */
+    public long getFailedPollCount() {
+        return failedPollCount.get();
+    }
+
+    private int dispatchBatches() {
+        long acknowledgedPosition = outbox.getAcknowledgedPosition(consumerName);
+        int dispatched = 0;
+        while (true) {
+            List<WaitingListNotification> notifications = outbox.findAfter(acknowledgedPosition, batchSize);
+            List<WaitingListNotification> batch = notifications.subList(0, countUntilGap(acknowledgedPosition, notifications));
+            if (batch.isEmpty()) {
+                return dispatched;
+            }
+
+            listener.onNotifications(batch);
+            acknowledgedPosition = batch.get(batch.size() - 1).getPosition();
+            outbox.acknowledge(consumerName, acknowledgedPosition);
+            dispatched += batch.size();
+
+            if (batch.size() < batchSize) {
+                return dispatched;
+            }
+        }
+    }
+
+    private int countUntilGap(long acknowledgedPosition, List<WaitingListNotification> notifications) {
+        long expectedPosition = acknowledgedPosition + 1;
+        int count = 0;
+        for (WaitingListNotification notification : notifications) {
+            if (notification.getPosition() != expectedPosition && !isGapTimedOut(expectedPosition)) {
+                break;
+            }
+            expectedPosition = notification.getPosition() + 1;
+            count++;
+        }
+        return count;
+    }
+
+    private boolean isGapTimedOut(long missingPosition) {
+        long now = System.nanoTime();
+        if (gapPosition != missingPosition) {
+            gapPosition = missingPosition;
+            gapSeenAtNanos = now;
+        }
+        return now - gapSeenAtNanos >= gapTimeout.toNanos();
+    }
+
+    /**
+     * Dispatches the pending notifications every poll interval in a background thread until closed. A failing
+     * batch is logged and retried at the next poll.
+     */
+    public synchronized void start(Duration pollInterval) {
+        if (scheduler != null) {
+            throw new IllegalStateException("Dispatcher already started");
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "notification-dispatcher-" + consumerName);
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                dispatchPending();
+            } catch (RuntimeException e) {
+                LOGGER.warn("Dispatching notifications to {} failed, delivering them again at the next poll", consumerName, e);
+            }
+        }, 0, pollInterval.toNanos(), TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public void close() {
+        ScheduledExecutorService runningScheduler;
+        synchronized (this) {
+            runningScheduler = scheduler;
+            scheduler = null;
+        }
+        if (runningScheduler != null) {
+            runningScheduler.shutdown();
+        }
+    }
+}
@@ -0,0 +1,13 @@
+package kata;
+
+import java.util.List;
+
+/**
+ * Receives the notifications of the outbox, in position order, from a {@link WaitingListNotificationDispatcher}.
+ * A batch is acknowledged once this method returns. If it throws, the same notifications are delivered again,
+ * so handling them must be idempotent.
+ */
+public interface WaitingListNotificationListener {
+
+    void onNotifications(List<WaitingListNotification> notifications);
+}
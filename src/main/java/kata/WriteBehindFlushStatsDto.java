@@ -0,0 +1,15 @@
+package kata;
+
+/**
+ * Flushes made by a {@link WriteBehindMeetupSubscribe} since it was created. Sizes are in changes, latencies in
+ * nanoseconds and cover the save of the event including its retries.
+ */
+public class WriteBehindFlushStatsDto {
+
+    public long flushCount;
+    public long flushedChanges;
+    public int maxFlushSize;
+    public long totalFlushNanos;
+    public long maxFlushNanos;
+    public long conflictCount;
+}
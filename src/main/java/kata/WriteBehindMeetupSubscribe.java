@@ -0,0 +1,383 @@
+package kata;
+
+import kata.persistence.ConcurrentMeetupEventUpdateException;
+import kata.persistence.MeetupEventRepository;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Applies the changes of the events to aggregates kept in memory, and saves each event with all the changes made
+ * to it every flush interval, or as soon as it has {@code maxPendingChanges} changes to save. A user subscribing
+ * then cancelling between two flushes costs no statement at all.
+ * <p>
+ * A change is checked against the event in memory when submitted, and fails right away if the event rejects it.
+ * Otherwise its future completes once the flush saving it is committed. If the event was modified elsewhere in the
+ * meantime, the flush reloads the event and applies the pending changes again, which may then fail some of them.
+ * <p>
+ * The events are loaded with all their subscriptions, and kept in memory until a flush interval goes by without
+ * any change to them.
+ * <p>
+ * A flush holds the lock of its event only to take the pending changes and to install the saved event. The save
+ * and its retries run outside of it, on a copy of the event as last saved, so that changes keep being submitted
+ * meanwhile without waiting on the database.
+ */
+public class WriteBehindMeetupSubscribe implements AutoCloseable {
+
+    public static final Duration DEFAULT_FLUSH_INTERVAL = Duration.ofMillis(50);
+    public static final int DEFAULT_MAX_PENDING_CHANGES = 500;
+
+    private final MeetupEventRepository meetupEventRepository;
+    private final MeetupEventStatusCache statusCache;
+    private final RetryPolicy retryPolicy;
+    private final int maxPendingChanges;
+    private final Map<Long, PendingEvent> pendingEvents = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService flusher;
+    private final WriteBehindFlushStatsDto stats = new WriteBehindFlushStatsDto();
+
+    public WriteBehindMeetupSubscribe(MeetupEventRepository meetupEventRepository) {
+        this(meetupEventRepository, MeetupEventStatusCache.DISABLED, RetryPolicy.DEFAULT, DEFAULT_FLUSH_INTERVAL,
+                DEFAULT_MAX_PENDING_CHANGES);
+    }
+
+    public WriteBehindMeetupSubscribe(MeetupEventRepository meetupEventRepository, MeetupEventStatusCache statusCache,
+                                      RetryPolicy retryPolicy, Duration flushInterval, int maxPendingChanges) {
+        if (maxPendingChanges < 1) {
+            throw new IllegalArgumentException("Max pending changes must be at least 1, got " + maxPendingChanges);
+        }
+        this.meetupEventRepository = meetupEventRepository;
+        this.statusCache = statusCache;
+        this.retryPolicy = retryPolicy;
+        this.maxPendingChanges = maxPendingChanges;
+        this.flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "meetup-subscribe-write-behind");
+            thread.setDaemon(true);
+            return thread;
+        });
+        flusher.scheduleWithFixedDelay(this::flushOrEvictIdleEvents, flushInterval.toNanos(), flushInterval.toNanos(), TimeUnit.NANOSECONDS);
+    }
+
+    public CompletableFuture<SubscribeResult> subscribeUserToMeetupEvent(String userId, Long meetupEventId) {
+        return submit(meetupEventId, (meetupEvent, registrationTime) -> {
+            Subscription subscription = meetupEvent.subscribe(userId, registrationTime);
+            return subscription.isInWaitingList() ? SubscribeResult.WAITING_LIST : SubscribeResult.PARTICIPANT;
+        });
+    }
+
+    public CompletableFuture<Void> cancelUserSubscription(String userId, Long meetupEventId) {
+        return submit(meetupEventId, (meetupEvent, registrationTime) -> {
+            meetupEvent.cancelSubscription(userId);
+            return null;
+        });
+    }
+
+    public CompletableFuture<Void> increaseCapacity(Long meetupEventId, int newCapacity) {
+        return submit(meetupEventId, (meetupEvent, registrationTime) -> {
+            meetupEvent.increaseCapacity(newCapacity);
+            return null;
+        });
+    }
+
+    /**
+     * Saves the pending changes of all the events now.
+     */
+    public void flush() {
+        pendingEvents.values().forEach(PendingEvent::flush);
+    }
+
+    public WriteBehindFlushStatsDto getFlushStats() {
+        synchronized (stats) {
+            WriteBehindFlushStatsDto copy = new WriteBehindFlushStatsDto();
+            copy.flushCount = stats.flushCount;
+            copy.flushedChanges = stats.flushedChanges;
+            copy.maxFlushSize = stats.maxFlushSize;
+            copy.totalFlushNanos = stats.totalFlushNanos;
+            copy.maxFlushNanos = stats.maxFlushNanos;
+            copy.conflictCount = stats.conflictCount;
+            return copy;
+        }
+    }
+
+    /**
+     * Stops the periodic flush and saves the pending changes.
+     */
+    @Override
+    public void close() {
+        flusher.shutdown();
+        try {
+            flusher.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flush();
+    }
+
+    private <T> CompletableFuture<T> submit(Long meetupEventId, Command<T> command) {
+        while (true) {
+            PendingEvent pendingEvent = pendingEvents.computeIfAbsent(meetupEventId, PendingEvent::new);
+            CompletableFuture<T> future = pendingEvent.apply(command);
+            if (future != null) {
+                return future;
+            }
+        }
+    }
+
+    /**
+     * Flushes the event on the flusher, or on the calling thread once the flusher is shut down.
+     */
+    private void requestFlush(PendingEvent pendingEvent) {
+        try {
+            flusher.execute(pendingEvent::flush);
+        } catch (RejectedExecutionException e) {
+            pendingEvent.flush();
+        }
+    }
+
+    private void flushOrEvictIdleEvents() {
+        pendingEvents.values().forEach(pendingEvent -> {
+            if (!pendingEvent.flushOrEvictIfIdle()) {
+                pendingEvents.remove(pendingEvent.meetupEventId, pendingEvent);
+            }
+        });
+    }
+
+    private void recordFlush(int size, long nanos, int conflicts) {
+        synchronized (stats) {
+            stats.flushCount++;
+            stats.flushedChanges += size;
+            stats.maxFlushSize = Math.max(stats.maxFlushSize, size);
+            stats.totalFlushNanos += nanos;
+            stats.maxFlushNanos = Math.max(stats.maxFlushNanos, nanos);
+            stats.conflictCount += conflicts;
+        }
+    }
+
+    /**
+     * Conflicts of a flush that saved nothing, all its changes being rejected by the reloaded event.
+     */
+    private void recordConflicts(int conflicts) {
+        synchronized (stats) {
+            stats.conflictCount += conflicts;
+        }
+    }
+
+    private interface Command<T> {
+
+        T apply(MeetupEvent meetupEvent, Instant registrationTime);
+    }
+
+    private static class PendingChange<T> {
+
+        private final Command<T> command;
+        private final Instant registrationTime;
+        private final CompletableFuture<T> future = new CompletableFuture<>();
+        private T result;
+
+        private PendingChange(Command<T> command, Instant registrationTime) {
+            this.command = command;
+            this.registrationTime = registrationTime;
+        }
+
+        private void applyTo(MeetupEvent meetupEvent) {
+            result = command.apply(meetupEvent, registrationTime);
+        }
+
+        private void complete() {
+            future.complete(result);
+        }
+    }
+
+    /**
+     * Keeps the event as last saved, which is never modified, and the event in memory checking the submitted
+     * changes: the saved one with the changes being flushed and the pending changes applied.
+     */
+    private class PendingEvent {
+
+        private final Long meetupEventId;
+        private MeetupEvent savedMeetupEvent;
+        private MeetupEvent meetupEvent;
+        private List<PendingChange<?>> changes = new ArrayList<>();
+        private Instant lastRegistrationTime;
+        private boolean touched;
+        private boolean evicted;
+        private boolean flushing;
+
+        private PendingEvent(Long meetupEventId) {
+            this.meetupEventId = meetupEventId;
+        }
+
+        /**
+         * Applies the change to the event in memory, or returns null if this event was evicted and the change must
+         * go to a new one. The flush is requested once the lock is released, when the change is the one reaching
+         * the maximum of pending changes.
+         */
+        private <T> CompletableFuture<T> apply(Command<T> command) {
+            PendingChange<T> change;
+            boolean flushDue;
+            synchronized (this) {
+                if (evicted) {
+                    return null;
+                }
+                touched = true;
+                change = new PendingChange<>(command, MeetupSubscribe.nextRegistrationTime(lastRegistrationTime));
+                try {
+                    change.applyTo(loadedMeetupEvent());
+                } catch (RuntimeException e) {
+                    change.future.completeExceptionally(e);
+                    return change.future;
+                }
+                lastRegistrationTime = change.registrationTime;
+                changes.add(change);
+                flushDue = changes.size() == maxPendingChanges;
+            }
+            if (flushDue) {
+                requestFlush(this);
+            }
+            return change.future;
+        }
+
+        /**
+         * Loads the event if it is not in memory, which happens before any change is flushed, or after a failed
+         * flush, with the pending changes applied again.
+         */
+        private MeetupEvent loadedMeetupEvent() {
+            if (meetupEvent == null) {
+                savedMeetupEvent = loadMeetupEvent();
+                meetupEvent = replay(savedMeetupEvent, changes);
+            }
+            return meetupEvent;
+        }
+
+        private MeetupEvent loadMeetupEvent() {
+            MeetupEvent loaded = meetupEventRepository.findById(meetupEventId);
+            if (loaded == null) {
+                throw new IllegalArgumentException("Unknown meetup event " + meetupEventId);
+            }
+            return loaded;
+        }
+
+        /**
+         * Flushes the pending changes, then returns false once the event is evicted because nothing changed since
+         * the previous call.
+         */
+        private boolean flushOrEvictIfIdle() {
+            synchronized (this) {
+                if (!touched && changes.isEmpty() && !flushing) {
+                    evicted = true;
+                    return false;
+                }
+                touched = false;
+            }
+            flush();
+            return true;
+        }
+
+        /**
+         * Saves the pending changes, after the flush of the event in progress on another thread if any.
+         */
+        private void flush() {
+            List<PendingChange<?>> flushedChanges;
+            MeetupEvent[] flushedFrom = new MeetupEvent[1];
+            synchronized (this) {
+                while (flushing) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
+                }
+                if (changes.isEmpty()) {
+                    return;
+                }
+                try {
+                    loadedMeetupEvent();
+                } catch (RuntimeException e) {
+                    changes.forEach(change -> change.future.completeExceptionally(e));
+                    changes = new ArrayList<>();
+                    return;
+                }
+                flushing = true;
+                flushedChanges = changes;
+                changes = new ArrayList<>();
+                flushedFrom[0] = savedMeetupEvent;
+            }
+
+            MeetupEvent[] flushed = new MeetupEvent[1];
+            int[] conflicts = new int[1];
+            long start = System.nanoTime();
+            try {
+                long newVersion = retryPolicy.execute(() -> {
+                    if (flushedFrom[0] == null) {
+                        flushedFrom[0] = loadMeetupEvent();
+                    }
+                    flushed[0] = replay(flushedFrom[0], flushedChanges);
+                    if (flushedChanges.isEmpty()) {
+                        return flushed[0].getVersion();
+                    }
+                    try {
+                        return meetupEventRepository.save(flushed[0]);
+                    } catch (ConcurrentMeetupEventUpdateException e) {
+                        conflicts[0]++;
+                        flushedFrom[0] = null;
+                        throw e;
+                    }
+                });
+                completeFlush(flushed[0].savedAs(newVersion), conflicts[0] > 0);
+            } catch (RuntimeException e) {
+                completeFlush(null, true);
+                flushedChanges.forEach(change -> change.future.completeExceptionally(e));
+                return;
+            }
+            if (flushedChanges.isEmpty()) {
+                recordConflicts(conflicts[0]);
+                return;
+            }
+            statusCache.invalidate(meetupEventId);
+            recordFlush(flushedChanges.size(), System.nanoTime() - start, conflicts[0]);
+            flushedChanges.forEach(PendingChange::complete);
+        }
+
+        /**
+         * Installs the saved event, or drops it if the flush failed. If the flush reloaded the event, the changes
+         * submitted meanwhile are applied again to it, which may fail some of them.
+         */
+        private synchronized void completeFlush(MeetupEvent saved, boolean reloaded) {
+            savedMeetupEvent = saved;
+            if (saved == null) {
+                meetupEvent = null;
+            } else if (reloaded) {
+                meetupEvent = replay(saved, changes);
+            }
+            flushing = false;
+            notifyAll();
+        }
+
+        /**
+         * A copy of the event with the changes applied in order. The changes the event rejects, possible only after
+         * it was reloaded, fail and are dropped.
+         */
+        private MeetupEvent replay(MeetupEvent from, List<PendingChange<?>> replayedChanges) {
+            MeetupEvent replayed = from.savedAs(from.getVersion());
+            replayedChanges.removeIf(change -> {
+                try {
+                    change.applyTo(replayed);
+                    return false;
+                } catch (RuntimeException e) {
+                    change.future.completeExceptionally(e);
+                    return true;
+                }
+            });
+            return replayed;
+        }
+    }
+}
@@ -0,0 +1,13 @@
+package kata.persistence;
+
+/**
+ * Thrown when a meetup event is saved while another transaction already saved a newer version of it.
+ */
+public class ConcurrentMeetupEventUpdateException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    public ConcurrentMeetupEventUpdateException(Long meetupEventId, long expectedVersion) {
+        super(String.format("Meetup event %d was modified concurrently (expected version %d)", meetupEventId, expectedVersion));
+    }
+}
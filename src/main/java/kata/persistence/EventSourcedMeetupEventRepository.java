@@ -0,0 +1,330 @@
+package kata.persistence;
+
+import kata.MeetupEvent;
+import kata.MeetupEventChange;
+import kata.Subscription;
+import kata.SubscriptionSet;
+import org.jdbi.v3.core.HandleCallback;
+import org.jdbi.v3.core.HandleConsumer;
+import org.jdbi.v3.core.Jdbi;
+import org.jdbi.v3.core.statement.PreparedBatch;
+import org.jdbi.v3.core.statement.UnableToExecuteStatementException;
+
+import java.sql.SQLException;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static kata.persistence.JdbiMapperHelper.mapTo;
+
+/**
+ * Stores the changes made to the events in the append only MEETUP_EVENT_LOG table instead of updating
+ * USER_SUBSCRIPTION and the counts of MEETUP_EVENT. The sequence number of the last change is the version of the
+ * event, and two saves from the same version collide on the primary key of the log.
+ * <p>
+ * Loading rebuilds the event from its latest snapshot and the changes logged after it. A snapshot of the whole
+ * event is written each time the log crosses a multiple of the snapshot interval, replacing the previous one. The
+ * log itself is never rewritten, it is the history of the event.
+ * <p>
+ * Every load rebuilds the whole event, the narrower loads of {@link MeetupEventRepository} return it all too.
+ * USER_SUBSCRIPTION is left empty, so the reads of {@link MeetupSubscriptionDao} find nothing for these events,
+ * which {@link #storesSubscriptionRows()} tells.
+ */
+public class EventSourcedMeetupEventRepository extends MeetupEventRepository {
+
+    public static final int DEFAULT_SNAPSHOT_INTERVAL = 100;
+
+    private static final String DUPLICATE_KEY_SQL_STATE = "23505";
+
+    private final ShardRouter shardRouter;
+    private final int snapshotInterval;
+
+    public EventSourcedMeetupEventRepository(Jdbi jdbi) {
+        this(jdbi, DEFAULT_SNAPSHOT_INTERVAL);
+    }
+
+    /**
+     * @param snapshotInterval number of logged changes between two snapshots, 0 to never write snapshots
+     */
+    public EventSourcedMeetupEventRepository(Jdbi jdbi, int snapshotInterval) {
+        this(ShardRouter.single(jdbi), snapshotInterval);
+    }
+
+    public EventSourcedMeetupEventRepository(ShardRouter shardRouter, int snapshotInterval) {
+        this(shardRouter, snapshotInterval, false);
+    }
+
+    private EventSourcedMeetupEventRepository(ShardRouter shardRouter, int snapshotInterval, boolean readOnly) {
+        super(shardRouter, readOnly);
+        if (snapshotInterval < 0) {
+            throw new IllegalArgumentException("Snapshot interval must not be negative, got " + snapshotInterval);
+        }
+        this.shardRouter = shardRouter;
+        this.snapshotInterval = snapshotInterval;
+    }
+
+    @Override
+    public MeetupEventRepository readOnly() {
+        return new EventSourcedMeetupEventRepository(shardRouter, snapshotInterval, true);
+    }
+
+    @Override
+    public boolean storesSubscriptionRows() {
+        return false;
+    }
+
+    @Override
+    public MeetupEvent findById(Long meetupEventId) {
+        return UnitOfWork.withHandle(loadShardOf(meetupEventId), handle -> {
+            EventState state = selectLatestSnapshot(meetupEventId).withHandle(handle);
+            if (state == null) {
+                return null;
+            }
+            selectChangesAfter(state).useHandle(handle);
+            return state.toMeetupEvent();
+        });
+    }
+
+    @Override
+    public MeetupEvent findByIdForUser(Long meetupEventId, String userId) {
+        return findById(meetupEventId);
+    }
+
+    @Override
+    public MeetupEvent findByIdForUsers(Long meetupEventId, Collection<String> userIds) {
+        return findById(meetupEventId);
+    }
+
+    @Override
+    public MeetupEvent findByIdWithoutSubscriptions(Long meetupEventId) {
+        return findById(meetupEventId);
+    }
+
+    /**
+     * Rebuilds the events one at a time, on the same handle.
+     */
+    @Override
+    public Map<Long, MeetupEvent> findAllById(Collection<Long> meetupEventIds) {
+        return UnitOfWork.run(() -> {
+            Map<Long, MeetupEvent> meetupEvents = new LinkedHashMap<>();
+            for (Long meetupEventId : meetupEventIds) {
+                if (!meetupEvents.containsKey(meetupEventId)) {
+                    MeetupEvent meetupEvent = findById(meetupEventId);
+                    if (meetupEvent != null) {
+                        meetupEvents.put(meetupEventId, meetupEvent);
+                    }
+                }
+            }
+            return meetupEvents;
+        });
+    }
+
+    @Override
+    public long save(MeetupEvent meetupEvent) {
+        checkWritable();
+        if (meetupEvent.getWaitingListPromotions() > 0) {
+            throw new IllegalStateException("Promotions of users not loaded cannot be logged");
+        }
+        List<MeetupEventChange> changes = meetupEvent.getChanges();
+        if (changes.isEmpty()) {
+            return meetupEvent.getVersion();
+        }
+
+        long version = meetupEvent.getVersion();
+        long newVersion = version + changes.size();
+        UnitOfWork.useTransaction(shardRouter.writeShardOf(meetupEvent.getId()), handle -> {
+            appendChanges(meetupEvent.getId(), version, changes).useHandle(handle);
+            List<String> promotedUserIds = promotedUserIds(meetupEvent);
+            if (!promotedUserIds.isEmpty()) {
+                NotificationOutbox.insertPromotions(meetupEvent.getId(), promotedUserIds).useHandle(handle);
+            }
+            if (snapshotInterval > 0 && version / snapshotInterval != newVersion / snapshotInterval) {
+                replaceSnapshot(meetupEvent, newVersion).useHandle(handle);
+            }
+        });
+        return newVersion;
+    }
+
+    private HandleCallback<EventState, RuntimeException> selectLatestSnapshot(Long meetupEventId) {
+        String sql = "" +
+                "SELECT e.id, e.event_name, e.start_time, e.capacity, " +
+                "sn.sequence_number, sn.capacity AS snapshot_capacity, " +
+                "ss.user_id, ss.registration_time, ss.waiting_list " +
+                "FROM MEETUP_EVENT e " +
+                "LEFT JOIN MEETUP_EVENT_SNAPSHOT sn ON sn.meetup_event_id = e.id " +
+                "AND sn.sequence_number = (" +
+                "SELECT MAX(sequence_number) FROM MEETUP_EVENT_SNAPSHOT WHERE meetup_event_id = e.id) " +
+                "LEFT JOIN MEETUP_EVENT_SNAPSHOT_SUBSCRIPTION ss ON ss.meetup_event_id = sn.meetup_event_id " +
+                "AND ss.sequence_number = sn.sequence_number " +
+                "WHERE e.id = :id " +
+                "ORDER BY ss.registration_time ASC, ss.user_id ASC";
+
+        return handle -> handle.createQuery(sql)
+                .bind("id", meetupEventId)
+                .reduceResultSet((EventState) null, (state, rs, ctx) -> {
+                    if (state == null) {
+                        state = new EventState();
+                        state.id = rs.getLong("id");
+                        state.eventName = rs.getString("event_name");
+                        state.startTime = mapTo(rs, "start_time", LocalDateTime.class, ctx);
+                        state.version = rs.getLong("sequence_number");
+                        state.capacity = rs.wasNull() ? rs.getInt("capacity") : rs.getInt("snapshot_capacity");
+                    }
+                    if (rs.getString("user_id") != null) {
+                        state.subscriptions.put(new Subscription(
+                                rs.getString("user_id"),
+                                mapTo(rs, "registration_time", Instant.class, ctx),
+                                rs.getBoolean("waiting_list")));
+                    }
+                    return state;
+                });
+    }
+
+    private HandleConsumer<RuntimeException> selectChangesAfter(EventState state) {
+        String sql = "" +
+                "SELECT sequence_number, change_type, user_id, registration_time, waiting_list, capacity " +
+                "FROM MEETUP_EVENT_LOG " +
+                "WHERE meetup_event_id = :meetupEventId " +
+                "AND sequence_number > :sequenceNumber " +
+                "ORDER BY sequence_number ASC";
+
+        return handle -> handle.createQuery(sql)
+                .bind("meetupEventId", state.id)
+                .bind("sequenceNumber", state.version)
+                .reduceResultSet(state, (current, rs, ctx) -> {
+                    current.apply(MeetupEventChange.Type.valueOf(rs.getString("change_type")),
+                            rs.getString("user_id"),
+                            mapTo(rs, "registration_time", Instant.class, ctx),
+                            rs.getBoolean("waiting_list"),
+                            rs.getInt("capacity"));
+                    current.version = rs.getLong("sequence_number");
+                    return current;
+                });
+    }
+
+    private HandleConsumer<RuntimeException> appendChanges(long meetupEventId, long version, List<MeetupEventChange> changes) {
+        String sql = "" +
+                "INSERT INTO MEETUP_EVENT_LOG (meetup_event_id, sequence_number, change_type, user_id, registration_time, waiting_list, capacity) " +
+                "VALUES (:meetupEventId, :sequenceNumber, :changeType, :userId, :registrationTime, :waitingList, :capacity)";
+
+        return handle -> {
+            try (PreparedBatch preparedBatch = handle.prepareBatch(sql)) {
+                long sequenceNumber = version;
+                for (MeetupEventChange change : changes) {
+                    boolean capacityChange = change.getType() == MeetupEventChange.Type.CAPACITY_CHANGED;
+                    preparedBatch
+                            .bind("meetupEventId", meetupEventId)
+                            .bind("sequenceNumber", ++sequenceNumber)
+                            .bind("changeType", change.getType().name())
+                            .bind("userId", change.getUserId())
+                            .bind("registrationTime", change.getRegistrationTime())
+                            .bind("waitingList", change.getType() == MeetupEventChange.Type.SUBSCRIBED ? change.isInWaitingList() : null)
+                            .bind("capacity", capacityChange ? change.getCapacity() : null)
+                            .add();
+                }
+                try {
+                    preparedBatch.execute();
+                } catch (UnableToExecuteStatementException e) {
+                    if (isDuplicateKey(e)) {
+                        throw new ConcurrentMeetupEventUpdateException(meetupEventId, version);
+                    }
+                    throw e;
+                }
+            }
+        };
+    }
+
+    private static boolean isDuplicateKey(Throwable exception) {
+        for (Throwable cause = exception; cause != null; cause = cause.getCause()) {
+            if (cause instanceof SQLException && DUPLICATE_KEY_SQL_STATE.equals(((SQLException) cause).getSQLState())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Writes the snapshot of the event at the given version and deletes the older snapshots of the event, with
+     * their subscriptions.
+     */
+    private HandleConsumer<RuntimeException> replaceSnapshot(MeetupEvent meetupEvent, long sequenceNumber) {
+        String insertSnapshotSql = "" +
+                "INSERT INTO MEETUP_EVENT_SNAPSHOT (meetup_event_id, sequence_number, capacity) " +
+                "VALUES (:meetupEventId, :sequenceNumber, :capacity)";
+        String insertSubscriptionSql = "" +
+                "INSERT INTO MEETUP_EVENT_SNAPSHOT_SUBSCRIPTION (meetup_event_id, sequence_number, user_id, registration_time, waiting_list) " +
+                "VALUES (:meetupEventId, :sequenceNumber, :userId, :registrationTime, :waitingList)";
+        String deleteOlderSnapshotsSql = "" +
+                "DELETE FROM MEETUP_EVENT_SNAPSHOT " +
+                "WHERE meetup_event_id = :meetupEventId " +
+                "AND sequence_number < :sequenceNumber";
+
+        return handle -> {
+            handle.createUpdate(insertSnapshotSql)
+                    .bind("meetupEventId", meetupEvent.getId())
+                    .bind("sequenceNumber", sequenceNumber)
+                    .bind("capacity", meetupEvent.getCapacity())
+                    .execute();
+
+            List<Subscription> subscriptions = meetupEvent.getSubscriptions();
+            if (!subscriptions.isEmpty()) {
+                try (PreparedBatch preparedBatch = handle.prepareBatch(insertSubscriptionSql)) {
+                    subscriptions.forEach(subscription -> preparedBatch
+                            .bind("meetupEventId", meetupEvent.getId())
+                            .bind("sequenceNumber", sequenceNumber)
+                            .bind("userId", subscription.getUserId())
+                            .bind("registrationTime", subscription.getRegistrationTime())
+                            .bind("waitingList", subscription.isInWaitingList())
+                            .add());
+                    preparedBatch.execute();
+                }
+            }
+
+            handle.createUpdate(deleteOlderSnapshotsSql)
+                    .bind("meetupEventId", meetupEvent.getId())
+                    .bind("sequenceNumber", sequenceNumber)
+                    .execute();
+        };
+    }
+
+    /**
+     * The event as of its snapshot, moved forward by each logged change.
+     */
+    private static class EventState {
+
+        private Long id;
+        private String eventName;
+        private LocalDateTime startTime;
+        private int capacity;
+        private long version;
+        private final SubscriptionSet subscriptions = new SubscriptionSet();
+
+        private void apply(MeetupEventChange.Type type, String userId, Instant registrationTime, boolean waitingList, int newCapacity) {
+            switch (type) {
+                case SUBSCRIBED:
+                    subscriptions.put(new Subscription(userId, registrationTime, waitingList));
+                    break;
+                case CANCELLED:
+                    subscriptions.remove(userId);
+                    break;
+                case PROMOTED:
+                    subscriptions.put(subscriptions.get(userId).toParticipant());
+                    break;
+                case CAPACITY_CHANGED:
+                    capacity = newCapacity;
+                    break;
+                default:
+                    throw new IllegalStateException("Unknown change type " + type);
+            }
+        }
+
+        private MeetupEvent toMeetupEvent() {
+            List<String> waitingList = subscriptions.userIds(true);
+            return new MeetupEvent(id, capacity, eventName, startTime, version,
+                    subscriptions.size() - waitingList.size(), waitingList.size(), subscriptions.toList());
+        }
+    }
+}
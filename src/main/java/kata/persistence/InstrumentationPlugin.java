@@ -0,0 +1,114 @@
+package kata.persistence;
+
+import kata.Instrumentation;
+import org.jdbi.v3.core.Handle;
+import org.jdbi.v3.core.Jdbi;
+import org.jdbi.v3.core.spi.JdbiPlugin;
+import org.jdbi.v3.core.statement.StatementContext;
+import org.jdbi.v3.core.statement.StatementCustomizer;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Reports to an {@link Instrumentation} every handle opened and every statement run through the Jdbi it is
+ * installed on, hence those of all the DAOs and repositories sharing it:
+ * <pre>
+ *     jdbi.installPlugin(new InstrumentationPlugin(instrumentation));
+ * </pre>
+ * A statement is timed from its execution until its results are available, without the mapping of its rows.
+ * Statements failing are not reported, the retries they cause are. The Jdbi is left as is without the plugin,
+ * hence with no overhead at all.
+ * <p>
+ * JDBC only gives the rows touched by each part of a batch to the caller of {@code executeBatch}, so the plugin
+ * wraps the connections to read them there.
+ */
+public class InstrumentationPlugin implements JdbiPlugin {
+
+    private final Instrumentation instrumentation;
+    private final ThreadLocal<Execution> execution = ThreadLocal.withInitial(Execution::new);
+    private final Map<String, String> statementKeys = new ConcurrentHashMap<>();
+
+    public InstrumentationPlugin(Instrumentation instrumentation) {
+        this.instrumentation = instrumentation;
+    }
+
+    @Override
+    public void customizeJdbi(Jdbi jdbi) {
+        jdbi.addCustomizer(new StatementCustomizer() {
+            @Override
+            public void beforeExecution(PreparedStatement stmt, StatementContext ctx) {
+                Execution current = execution.get();
+                current.batchRows = -1;
+                current.start = System.nanoTime();
+            }
+
+            @Override
+            public void afterExecution(PreparedStatement stmt, StatementContext ctx) throws SQLException {
+                Execution current = execution.get();
+                long nanos = System.nanoTime() - current.start;
+                long rowsTouched = current.batchRows >= 0 ? current.batchRows : Math.max(0, stmt.getUpdateCount());
+                instrumentation.statementExecuted(statementKey(ctx.getRawSql()), nanos, rowsTouched);
+            }
+        });
+    }
+
+    @Override
+    public Connection customizeConnection(Connection connection) {
+        return wrap(Connection.class, connection, (method, result) -> {
+            if (result instanceof PreparedStatement && method.getReturnType().isInterface()) {
+                return wrap(method.getReturnType(), result, (statementMethod, statementResult) -> {
+                    if (statementMethod.getName().equals("executeBatch")) {
+                        execution.get().batchRows = Arrays.stream((int[]) statementResult).filter(rows -> rows > 0).asLongStream().sum();
+                    }
+                    return statementResult;
+                });
+            }
+            return result;
+        });
+    }
+
+    @Override
+    public Handle customizeHandle(Handle handle) {
+        instrumentation.handleOpened();
+        return handle;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T wrap(Class<T> type, Object target, ResultHandler resultHandler) {
+        return (T) Proxy.newProxyInstance(InstrumentationPlugin.class.getClassLoader(), new Class<?>[]{type}, (proxy, method, args) -> {
+            try {
+                return resultHandler.handle(method, method.invoke(target, args));
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        });
+    }
+
+    /**
+     * The raw SQL, before list parameters are expanded, so that a statement has the same key whatever the number
+     * of values bound.
+     */
+    private String statementKey(String rawSql) {
+        String key = statementKeys.get(rawSql);
+        return key != null ? key : statementKeys.computeIfAbsent(rawSql, sql -> sql.trim().replaceAll("\\s+", " "));
+    }
+
+    private interface ResultHandler {
+
+        Object handle(Method method, Object result);
+    }
+
+    private static class Execution {
+
+        private long start;
+        private long batchRows;
+    }
+}
@@ -0,0 +1,230 @@
+package kata.persistence;
+
+import kata.ArchivalRunDto;
+import kata.MeetupEvent;
+import kata.Subscription;
+import kata.SubscriptionCursor;
+import org.jdbi.v3.core.HandleCallback;
+import org.jdbi.v3.core.Jdbi;
+
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+import static java.util.Collections.singletonList;
+
+/**
+ * The MEETUP_EVENT_ARCHIVE and USER_SUBSCRIPTION_ARCHIVE tables, where the events that already started are moved
+ * with their subscriptions to keep the tables written by the subscriptions small.
+ * <p>
+ * Events are moved a batch at a time, each batch in its own short transaction, so that the rows of an event are
+ * only locked for the time it takes to move its batch. The events stored in the event log keep their history where
+ * it is and are never archived. {@link #NONE} archives nothing and finds nothing, for callers without an archive.
+ * <p>
+ * With several shards, each shard archives its own events in its own archive tables.
+ */
+public class MeetupEventArchive {
+
+    public static final int DEFAULT_BATCH_SIZE = 100;
+
+    public static final MeetupEventArchive NONE = new MeetupEventArchive((ShardRouter) null, DEFAULT_BATCH_SIZE);
+
+    private final ShardRouter shardRouter;
+    private final int batchSize;
+
+    public MeetupEventArchive(Jdbi jdbi) {
+        this(jdbi, DEFAULT_BATCH_SIZE);
+    }
+
+    public MeetupEventArchive(Jdbi jdbi, int batchSize) {
+        this(ShardRouter.single(jdbi), batchSize);
+    }
+
+    /**
+     * The batch size is the number of events moved per transaction, along with all their subscriptions.
+     */
+    public MeetupEventArchive(ShardRouter shardRouter, int batchSize) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("Batch size must be at least 1, got " + batchSize);
+        }
+        this.shardRouter = shardRouter;
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Moves the events that started before the cutoff, oldest first, one batch after the other until none is left,
+     * one shard after the other.
+     */
+    public ArchivalRunDto archiveMeetupEventsStartedBefore(LocalDateTime cutoff) {
+        ArchivalRunDto archivalRunDto = new ArchivalRunDto();
+        archivalRunDto.cutoff = cutoff;
+        if (shardRouter == null) {
+            return archivalRunDto;
+        }
+
+        long start = System.nanoTime();
+        for (Jdbi shard : shardRouter.getShards()) {
+            archiveMeetupEventsStartedBefore(shard, cutoff, archivalRunDto);
+        }
+        archivalRunDto.durationNanos = System.nanoTime() - start;
+        return archivalRunDto;
+    }
+
+    private void archiveMeetupEventsStartedBefore(Jdbi jdbi, LocalDateTime cutoff, ArchivalRunDto archivalRunDto) {
+        while (true) {
+            List<Long> meetupEventIds = UnitOfWork.withHandle(jdbi, selectMeetupEventIdsStartedBefore(cutoff));
+            if (meetupEventIds.isEmpty()) {
+                break;
+            }
+            int[] movedRows = UnitOfWork.inTransaction(jdbi, moveMeetupEvents(meetupEventIds));
+            archivalRunDto.batchCount++;
+            archivalRunDto.archivedEvents += movedRows[0];
+            archivalRunDto.archivedSubscriptions += movedRows[1];
+            if (meetupEventIds.size() < batchSize) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * The archived event with all its subscriptions, or null if it is not archived.
+     */
+    public MeetupEvent findById(Long meetupEventId) {
+        return findAllById(singletonList(meetupEventId)).get(meetupEventId);
+    }
+
+    /**
+     * The archived event with its counts but without any subscription, or null if it is not archived.
+     */
+    public MeetupEvent findByIdWithoutSubscriptions(Long meetupEventId) {
+        if (shardRouter == null) {
+            return null;
+        }
+        return UnitOfWork.withHandle(shardRouter.readShardOf(meetupEventId),
+                MeetupEventRepository.selectMeetupEventWithoutSubscriptions("MEETUP_EVENT_ARCHIVE", meetupEventId));
+    }
+
+    /**
+     * The archived subscription of the user, looked up by its primary key, or null if there is none.
+     */
+    public Subscription findSubscription(String userId, Long meetupEventId) {
+        if (shardRouter == null) {
+            return null;
+        }
+        return UnitOfWork.withHandle(shardRouter.readShardOf(meetupEventId),
+                MeetupSubscriptionDao.selectSubscription("USER_SUBSCRIPTION_ARCHIVE", userId, meetupEventId));
+    }
+
+    /**
+     * Same as {@link MeetupSubscriptionDao#findWaitingListPosition(Subscription, Long)} for an archived subscription,
+     * 0 if nothing is archived.
+     */
+    public int findWaitingListPosition(Subscription subscription, Long meetupEventId) {
+        if (shardRouter == null) {
+            return 0;
+        }
+        return UnitOfWork.withHandle(shardRouter.readShardOf(meetupEventId),
+                MeetupSubscriptionDao.countWaitingListUpTo("USER_SUBSCRIPTION_ARCHIVE", subscription, meetupEventId));
+    }
+
+    /**
+     * Same as {@link MeetupSubscriptionDao#findSubscriptionsPage(Long, boolean, SubscriptionCursor, int)} for an
+     * archived event.
+     */
+    public List<Subscription> findSubscriptionsPage(Long meetupEventId, boolean waitingList, SubscriptionCursor after, int limit) {
+        if (shardRouter == null) {
+            return Collections.emptyList();
+        }
+        return UnitOfWork.withHandle(shardRouter.readShardOf(meetupEventId),
+                MeetupSubscriptionDao.selectSubscriptionsPage("USER_SUBSCRIPTION_ARCHIVE", meetupEventId, waitingList, after, limit));
+    }
+
+    /**
+     * Same as {@link MeetupSubscriptionDao#useSubscriptionsStream(Long, boolean, Consumer)} for an archived event.
+     */
+    public void useSubscriptionsStream(Long meetupEventId, boolean waitingList, Consumer<Stream<Subscription>> consumer) {
+        if (shardRouter == null) {
+            consumer.accept(Stream.empty());
+            return;
+        }
+        UnitOfWork.useHandle(shardRouter.readShardOf(meetupEventId),
+                MeetupSubscriptionDao.streamSubscriptions("USER_SUBSCRIPTION_ARCHIVE", meetupEventId, waitingList, consumer));
+    }
+
+    /**
+     * Same as {@link MeetupEventRepository#findAllById(Collection)} in the archive tables.
+     */
+    public Map<Long, MeetupEvent> findAllById(Collection<Long> meetupEventIds) {
+        if (shardRouter == null || meetupEventIds.isEmpty()) {
+            return Collections.emptyMap();
+        }
+        return MeetupEventRepository.findAllInShards(shardRouter, shardRouter::readShardOf, "MEETUP_EVENT_ARCHIVE", "USER_SUBSCRIPTION_ARCHIVE", meetupEventIds);
+    }
+
+    private HandleCallback<List<Long>, RuntimeException> selectMeetupEventIdsStartedBefore(LocalDateTime cutoff) {
+        String sql = "" +
+                "SELECT e.id FROM MEETUP_EVENT e " +
+                "WHERE e.start_time < :cutoff " +
+                "AND NOT EXISTS (SELECT 1 FROM MEETUP_EVENT_LOG l WHERE l.meetup_event_id = e.id) " +
+                "ORDER BY e.start_time ASC " +
+                "LIMIT :limit";
+
+        return handle -> handle.createQuery(sql)
+                .bind("cutoff", cutoff)
+                .bind("limit", batchSize)
+                .mapTo(Long.class)
+                .list();
+    }
+
+    /**
+     * Copies the events and their subscriptions to the archive, then deletes them, and returns the number of events
+     * and of subscriptions moved. The rows of the events are locked first by bumping their version, as a save does,
+     * so that a concurrent save either commits before the copy or fails on its version and finds the event gone.
+     */
+    private static HandleCallback<int[], RuntimeException> moveMeetupEvents(List<Long> meetupEventIds) {
+        String lockSql = "" +
+                "UPDATE MEETUP_EVENT " +
+                "SET version = version + 1 " +
+                "WHERE id IN (<ids>)";
+        String copyEventsSql = "" +
+                "INSERT INTO MEETUP_EVENT_ARCHIVE (id, event_name, start_time, capacity, participant_count, waiting_list_count, version, archived_at) " +
+                "SELECT id, event_name, start_time, capacity, participant_count, waiting_list_count, version, :archivedAt " +
+                "FROM MEETUP_EVENT " +
+                "WHERE id IN (<ids>)";
+        String copySubscriptionsSql = "" +
+                "INSERT INTO USER_SUBSCRIPTION_ARCHIVE (user_id, meetup_event_id, registration_time, waiting_list) " +
+                "SELECT user_id, meetup_event_id, registration_time, waiting_list " +
+                "FROM USER_SUBSCRIPTION " +
+                "WHERE meetup_event_id IN (<ids>)";
+        String deleteSubscriptionsSql = "" +
+                "DELETE FROM USER_SUBSCRIPTION " +
+                "WHERE meetup_event_id IN (<ids>)";
+        String deleteEventsSql = "" +
+                "DELETE FROM MEETUP_EVENT " +
+                "WHERE id IN (<ids>)";
+
+        return handle -> {
+            handle.createUpdate(lockSql)
+                    .bindList("ids", meetupEventIds)
+                    .execute();
+            int archivedEvents = handle.createUpdate(copyEventsSql)
+                    .bindList("ids", meetupEventIds)
+                    .bind("archivedAt", LocalDateTime.now())
+                    .execute();
+            int archivedSubscriptions = handle.createUpdate(copySubscriptionsSql)
+                    .bindList("ids", meetupEventIds)
+                    .execute();
+            handle.createUpdate(deleteSubscriptionsSql)
+                    .bindList("ids", meetupEventIds)
+                    .execute();
+            handle.createUpdate(deleteEventsSql)
+                    .bindList("ids", meetupEventIds)
+                    .execute();
+            return new int[]{archivedEvents, archivedSubscriptions};
+        };
+    }
+}
@@ -3,17 +3,40 @@ package kata.persistence;
 import kata.MeetupEvent;
 import org.jdbi.v3.core.Jdbi;
 import org.jdbi.v3.core.mapper.RowMapper;
+import org.jdbi.v3.core.statement.PreparedBatch;
 
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
 import static kata.persistence.JdbiMapperHelper.mapTo;
 
 public class MeetupEventDao {
 
-    private final Jdbi jdbi;
+    /**
+     * Ids reserved per value of MEETUP_EVENT_ID_SEQ, the same for every node sharing the sequence.
+     */
+    static final int ID_BLOCK_SIZE = 50;
+
+    private final ShardRouter shardRouter;
+    private final List<PooledIdGenerator> idGenerators = new ArrayList<>();
 
     public MeetupEventDao(Jdbi jdbi) {
-        this.jdbi = jdbi;
+        this(ShardRouter.single(jdbi));
+    }
+
+    /**
+     * Each shard has its own sequence, whose values are encoded with the index of the shard into the ids. The
+     * queries read the replica of the shard of the event, the writes and the sequences its primary.
+     */
+    public MeetupEventDao(ShardRouter shardRouter) {
+        this.shardRouter = shardRouter;
+        for (Jdbi shard : shardRouter.getShards()) {
+            idGenerators.add(new PooledIdGenerator(shard, "MEETUP_EVENT_ID_SEQ", ID_BLOCK_SIZE));
+        }
     }
 
     private static final RowMapper<MeetupEvent> MEETUP_EVENT_ROW_MAPPER = (rs, ctx) ->
@@ -29,7 +52,7 @@ public class MeetupEventDao {
                 "INSERT INTO MEETUP_EVENT (id, event_name, start_time, capacity) " +
                 "VALUES (:id, :event_name, :start_time, :capacity)";
 
-        jdbi.withHandle(handle -> handle.createUpdate(sql)
+        UnitOfWork.withHandle(shardRouter.writeShardOf(meetupEvent.getId()), handle -> handle.createUpdate(sql)
                 .bind("id", meetupEvent.getId())
                 .bind("event_name", meetupEvent.getEventName())
                 .bind("start_time", meetupEvent.getStartTime())
@@ -37,32 +60,61 @@ public class MeetupEventDao {
                 .execute());
     }
 
-    public void updateCapacity(Long meetupEventId, int newCapacity) {
+    /**
+     * Inserts all the events with one batched statement per shard.
+     */
+    public void createAll(Collection<MeetupEvent> meetupEvents) {
+        Map<Jdbi, List<MeetupEvent>> meetupEventsByShard = new LinkedHashMap<>();
+        meetupEvents.forEach(meetupEvent -> meetupEventsByShard
+                .computeIfAbsent(shardRouter.writeShardOf(meetupEvent.getId()), shard -> new ArrayList<>())
+                .add(meetupEvent));
+        meetupEventsByShard.forEach(this::createAll);
+    }
+
+    private void createAll(Jdbi shard, List<MeetupEvent> meetupEvents) {
         String sql = "" +
-                "UPDATE MEETUP_EVENT " +
-                "SET capacity = :newCapacity " +
-                "WHERE id = :id";
+                "INSERT INTO MEETUP_EVENT (id, event_name, start_time, capacity) " +
+                "VALUES (:id, :event_name, :start_time, :capacity)";
 
-        jdbi.useHandle(handle -> handle.createUpdate(sql)
-                .bind("newCapacity", newCapacity)
-                .bind("id", meetupEventId)
-                .execute());
+        UnitOfWork.useHandle(shard, handle -> {
+            try (PreparedBatch preparedBatch = handle.prepareBatch(sql)) {
+                meetupEvents.forEach(meetupEvent -> preparedBatch
+                        .bind("id", meetupEvent.getId())
+                        .bind("event_name", meetupEvent.getEventName())
+                        .bind("start_time", meetupEvent.getStartTime())
+                        .bind("capacity", meetupEvent.getCapacity())
+                        .add());
+                preparedBatch.execute();
+            }
+        });
     }
 
     public MeetupEvent findById(Long meetupEventId) {
         String sql = "SELECT * FROM MEETUP_EVENT WHERE id = :id";
-        return jdbi.withHandle(handle -> handle.createQuery(sql)
+        return UnitOfWork.withHandle(shardRouter.readShardOf(meetupEventId), handle -> handle.createQuery(sql)
                 .bind("id", meetupEventId)
                 .map(MEETUP_EVENT_ROW_MAPPER)
                 .findOne()
                 .orElse(null));
     }
 
+    /**
+     * An id of the next shard in turn.
+     */
     public long generateId() {
-        return jdbi.withHandle(handle -> handle
-                .createQuery("SELECT NEXTVAL('MEETUP_EVENT_ID_SEQ')")
-                .mapTo(Long.class)
-                .one()
-        );
+        int shardIndex = shardRouter.nextShardIndex();
+        return shardRouter.encodeId(idGenerators.get(shardIndex).nextId(), shardIndex);
+    }
+
+    /**
+     * Ids all of the same shard, so that a series of events created together is stored together.
+     */
+    public List<Long> generateIds(int count) {
+        int shardIndex = shardRouter.nextShardIndex();
+        List<Long> ids = new ArrayList<>(count);
+        for (Long sequenceValue : idGenerators.get(shardIndex).nextIds(count)) {
+            ids.add(shardRouter.encodeId(sequenceValue, shardIndex));
+        }
+        return ids;
     }
 }
\ No newline at end of file
@@ -1,43 +1,352 @@
 package kata.persistence;
 
 import kata.MeetupEvent;
+import kata.MeetupEventChange;
 import kata.Subscription;
+import org.jdbi.v3.core.HandleCallback;
 import org.jdbi.v3.core.HandleConsumer;
 import org.jdbi.v3.core.Jdbi;
 import org.jdbi.v3.core.statement.PreparedBatch;
+import org.jdbi.v3.core.statement.Query;
+import org.jdbi.v3.core.statement.StatementContext;
 
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+import static java.util.Collections.singletonList;
+import static java.util.stream.Collectors.toCollection;
+import static kata.persistence.JdbiMapperHelper.mapTo;
 
 public class MeetupEventRepository {
 
-    private final Jdbi jdbi;
+    /**
+     * Most ids bound to an {@code IN} list, larger sets of ids being loaded a chunk at a time.
+     */
+    static final int IN_LIST_CHUNK_SIZE = 500;
+
+    private final ShardRouter shardRouter;
+    private final boolean readOnly;
 
     public MeetupEventRepository(Jdbi jdbi) {
-        this.jdbi = jdbi;
+        this(ShardRouter.single(jdbi));
+    }
+
+    /**
+     * Each event is read and saved in its shard, on its primary.
+     */
+    public MeetupEventRepository(ShardRouter shardRouter) {
+        this(shardRouter, false);
+    }
+
+    MeetupEventRepository(ShardRouter shardRouter, boolean readOnly) {
+        this.shardRouter = shardRouter;
+        this.readOnly = readOnly;
+    }
+
+    /**
+     * A repository loading the events from the read replicas of their shards, for the reads that are not followed
+     * by a save. It cannot save.
+     */
+    public MeetupEventRepository readOnly() {
+        return new MeetupEventRepository(shardRouter, true);
+    }
+
+    /**
+     * The shard to load the event from: the primary, so that a load followed by a save does not start from a stale
+     * version, unless this repository is read only.
+     */
+    Jdbi loadShardOf(Long meetupEventId) {
+        return readOnly ? shardRouter.readShardOf(meetupEventId) : shardRouter.shardOf(meetupEventId);
+    }
+
+    /**
+     * Whether the subscriptions of the events are stored in USER_SUBSCRIPTION, where {@link MeetupSubscriptionDao}
+     * reads them.
+     */
+    public boolean storesSubscriptionRows() {
+        return true;
+    }
+
+    void checkWritable() {
+        if (readOnly) {
+            throw new IllegalStateException("Read only repository cannot save meetup event");
+        }
     }
 
     public MeetupEvent findById(Long meetupEventId) {
-        //TODO
-        return null;
+        return UnitOfWork.withHandle(loadShardOf(meetupEventId), selectMeetupEventWithSubscriptions(meetupEventId));
+    }
+
+    /**
+     * Loads the event with its participant and waiting list counts, but only the subscription of the given user.
+     * That is all subscribing or cancelling this user needs, and it costs the same whatever the size of the event.
+     */
+    public MeetupEvent findByIdForUser(Long meetupEventId, String userId) {
+        return UnitOfWork.withHandle(loadShardOf(meetupEventId), selectMeetupEventWithSubscriptionOfUser(meetupEventId, userId));
     }
 
-    public void save(MeetupEvent meetupEvent) {
-        //TODO
+    /**
+     * Same as {@link #findByIdForUser(Long, String)} for several users at once.
+     */
+    public MeetupEvent findByIdForUsers(Long meetupEventId, Collection<String> userIds) {
+        return UnitOfWork.withHandle(loadShardOf(meetupEventId), selectMeetupEventWithSubscriptionsOfUsers(meetupEventId, userIds));
     }
 
-    private HandleConsumer<RuntimeException> upsertMeetupEvent(MeetupEvent meetupEvent) {
+    /**
+     * Loads the event with its participant and waiting list counts, without any subscription.
+     */
+    public MeetupEvent findByIdWithoutSubscriptions(Long meetupEventId) {
+        return UnitOfWork.withHandle(loadShardOf(meetupEventId), selectMeetupEventWithSubscriptionOfUser(meetupEventId, null));
+    }
+
+    /**
+     * Loads the events with all their subscriptions, with one query for the events and one for their subscriptions
+     * per chunk of {@link #IN_LIST_CHUNK_SIZE} ids, run on the shards of the events in parallel. The events are
+     * returned in the order of the ids, unknown ids being left out.
+     */
+    public Map<Long, MeetupEvent> findAllById(Collection<Long> meetupEventIds) {
+        return findAllInShards(shardRouter, this::loadShardOf, "MEETUP_EVENT", "USER_SUBSCRIPTION", meetupEventIds);
+    }
+
+    /**
+     * The tables are given so that the archive, whose tables have the same columns, loads its events the same way.
+     */
+    static Map<Long, MeetupEvent> findAllInShards(ShardRouter shardRouter, Function<Long, Jdbi> router, String meetupEventTable,
+                                                  String subscriptionTable, Collection<Long> meetupEventIds) {
+        Map<Long, MeetupEvent> loaded = new HashMap<>();
+        shardRouter.fanOut(meetupEventIds, router, (shard, shardIds) -> UnitOfWork.withHandle(shard,
+                selectMeetupEventsWithSubscriptionsInIds(meetupEventTable, subscriptionTable, shardIds)))
+                .forEach(loaded::putAll);
+
+        Map<Long, MeetupEvent> meetupEvents = new LinkedHashMap<>();
+        for (Long meetupEventId : meetupEventIds) {
+            MeetupEvent meetupEvent = loaded.get(meetupEventId);
+            if (meetupEvent != null) {
+                meetupEvents.put(meetupEventId, meetupEvent);
+            }
+        }
+        return meetupEvents;
+    }
+
+    /**
+     * The event with its counts but without any subscription, read from the given table so that the archive reads
+     * its events the same way.
+     */
+    static HandleCallback<MeetupEvent, RuntimeException> selectMeetupEventWithoutSubscriptions(String meetupEventTable, Long meetupEventId) {
+        return handle -> {
+            Map<Long, MeetupEventRows> rowsById = new HashMap<>();
+            selectMeetupEventsInIds(meetupEventTable, singletonList(meetupEventId), rowsById).useHandle(handle);
+            MeetupEventRows rows = rowsById.get(meetupEventId);
+            return rows == null ? null : rows.toMeetupEvent();
+        };
+    }
+
+    /**
+     * Saves the changes of the event and returns its new version.
+     */
+    public long save(MeetupEvent meetupEvent) {
+        long meetupEventId = meetupEvent.getId();
+        Collection<Subscription> changedSubscriptions = meetupEvent.getChangedSubscriptions();
+
+        checkWritable();
+        UnitOfWork.useTransaction(shardRouter.writeShardOf(meetupEventId), handle -> {
+            updateMeetupEvent(meetupEvent).useHandle(handle);
+            if (!meetupEvent.getRemovedUserIds().isEmpty()) {
+                deleteMeetupSubscriptionsInUserIds(meetupEventId, meetupEvent.getRemovedUserIds()).useHandle(handle);
+            }
+            if (!changedSubscriptions.isEmpty()) {
+                upsertSubscriptions(meetupEventId, changedSubscriptions).useHandle(handle);
+            }
+            List<String> promotedUserIds = promotedUserIds(meetupEvent);
+            if (meetupEvent.getWaitingListPromotions() > 0) {
+                promotedUserIds.addAll(promoteFirstInWaitingList(meetupEventId, meetupEvent.getWaitingListPromotions()).withHandle(handle));
+            }
+            if (!promotedUserIds.isEmpty()) {
+                NotificationOutbox.insertPromotions(meetupEventId, promotedUserIds).useHandle(handle);
+            }
+        });
+        return meetupEvent.getVersion() + 1;
+    }
+
+    /**
+     * Users promoted in memory, the promotions of users not loaded are made when saving.
+     */
+    static List<String> promotedUserIds(MeetupEvent meetupEvent) {
+        return meetupEvent.getChanges().stream()
+                .filter(change -> change.getType() == MeetupEventChange.Type.PROMOTED)
+                .map(MeetupEventChange::getUserId)
+                .collect(toCollection(ArrayList::new));
+    }
+
+    private HandleCallback<MeetupEvent, RuntimeException> selectMeetupEventWithSubscriptions(Long meetupEventId) {
         String sql = "" +
-                "MERGE INTO MEETUP_EVENT (id, event_name, start_time, capacity) " +
-                "KEY (id) " +
-                "VALUES (:id, :event_name, :start_time, :capacity)";
+                "SELECT e.id, e.event_name, e.start_time, e.capacity, e.participant_count, e.waiting_list_count, e.version, " +
+                "s.user_id, s.registration_time, s.waiting_list " +
+                "FROM MEETUP_EVENT e " +
+                "LEFT JOIN USER_SUBSCRIPTION s ON s.meetup_event_id = e.id " +
+                "WHERE e.id = :id " +
+                "ORDER BY s.registration_time ASC, s.user_id ASC";
 
-        return handle -> handle.createUpdate(sql)
-                .bind("id", meetupEvent.getId())
-                .bind("event_name", meetupEvent.getEventName())
-                .bind("start_time", meetupEvent.getStartTime())
-                .bind("capacity", meetupEvent.getCapacity())
-                .execute();
+        return handle -> mapMeetupEventRows(handle.createQuery(sql)
+                .bind("id", meetupEventId));
+    }
+
+    private HandleCallback<MeetupEvent, RuntimeException> selectMeetupEventWithSubscriptionOfUser(Long meetupEventId, String userId) {
+        String sql = "" +
+                "SELECT e.id, e.event_name, e.start_time, e.capacity, e.participant_count, e.waiting_list_count, e.version, " +
+                "s.user_id, s.registration_time, s.waiting_list " +
+                "FROM MEETUP_EVENT e " +
+                "LEFT JOIN USER_SUBSCRIPTION s ON s.meetup_event_id = e.id " +
+                "AND s.user_id = :userId " +
+                "WHERE e.id = :id";
+
+        return handle -> mapMeetupEventRows(handle.createQuery(sql)
+                .bind("id", meetupEventId)
+                .bind("userId", userId));
+    }
+
+    private HandleCallback<MeetupEvent, RuntimeException> selectMeetupEventWithSubscriptionsOfUsers(Long meetupEventId, Collection<String> userIds) {
+        String sql = "" +
+                "SELECT e.id, e.event_name, e.start_time, e.capacity, e.participant_count, e.waiting_list_count, e.version, " +
+                "s.user_id, s.registration_time, s.waiting_list " +
+                "FROM MEETUP_EVENT e " +
+                "LEFT JOIN USER_SUBSCRIPTION s ON s.meetup_event_id = e.id " +
+                "AND s.user_id IN (<userIds>) " +
+                "WHERE e.id = :id " +
+                "ORDER BY s.registration_time ASC, s.user_id ASC";
+
+        return handle -> mapMeetupEventRows(handle.createQuery(sql)
+                .bind("id", meetupEventId)
+                .bindList("userIds", new ArrayList<>(userIds)));
+    }
+
+    /**
+     * The subscriptions of a chunk are only queried when some of its events exist.
+     */
+    private static HandleCallback<Map<Long, MeetupEvent>, RuntimeException> selectMeetupEventsWithSubscriptionsInIds(
+            String meetupEventTable, String subscriptionTable, Collection<Long> meetupEventIds) {
+        List<Long> distinctIds = new ArrayList<>(new LinkedHashSet<>(meetupEventIds));
+
+        return handle -> {
+            Map<Long, MeetupEventRows> rowsById = new HashMap<>();
+            for (int from = 0; from < distinctIds.size(); from += IN_LIST_CHUNK_SIZE) {
+                List<Long> chunk = distinctIds.subList(from, Math.min(from + IN_LIST_CHUNK_SIZE, distinctIds.size()));
+                int loadedBefore = rowsById.size();
+                selectMeetupEventsInIds(meetupEventTable, chunk, rowsById).useHandle(handle);
+                if (rowsById.size() > loadedBefore) {
+                    selectSubscriptionsOfMeetupEventsInIds(subscriptionTable, chunk, rowsById).useHandle(handle);
+                }
+            }
+
+            Map<Long, MeetupEvent> meetupEvents = new LinkedHashMap<>();
+            for (Long meetupEventId : distinctIds) {
+                MeetupEventRows rows = rowsById.get(meetupEventId);
+                if (rows != null) {
+                    meetupEvents.put(meetupEventId, rows.toMeetupEvent());
+                }
+            }
+            return meetupEvents;
+        };
+    }
+
+    private static HandleConsumer<RuntimeException> selectMeetupEventsInIds(String meetupEventTable, List<Long> meetupEventIds, Map<Long, MeetupEventRows> rowsById) {
+        String sql = "" +
+                "SELECT id, event_name, start_time, capacity, participant_count, waiting_list_count, version " +
+                "FROM " + meetupEventTable + " " +
+                "WHERE id IN (<ids>)";
+
+        return handle -> handle.createQuery(sql)
+                .bindList("ids", meetupEventIds)
+                .reduceResultSet(rowsById, (rowsByIdSoFar, rs, ctx) -> {
+                    MeetupEventRows rows = new MeetupEventRows();
+                    readMeetupEventColumns(rows, rs, ctx);
+                    rowsByIdSoFar.put(rows.id, rows);
+                    return rowsByIdSoFar;
+                });
+    }
+
+    /**
+     * Ordered by event first, so that the scan follows the index on the subscriptions of an event.
+     */
+    private static HandleConsumer<RuntimeException> selectSubscriptionsOfMeetupEventsInIds(String subscriptionTable, List<Long> meetupEventIds, Map<Long, MeetupEventRows> rowsById) {
+        String sql = "" +
+                "SELECT meetup_event_id, user_id, registration_time, waiting_list " +
+                "FROM " + subscriptionTable + " " +
+                "WHERE meetup_event_id IN (<ids>) " +
+                "ORDER BY meetup_event_id ASC, registration_time ASC, user_id ASC";
+
+        return handle -> handle.createQuery(sql)
+                .bindList("ids", meetupEventIds)
+                .reduceResultSet(rowsById, (rowsByIdSoFar, rs, ctx) -> {
+                    MeetupEventRows rows = rowsByIdSoFar.get(rs.getLong("meetup_event_id"));
+                    if (rows != null) {
+                        rows.subscriptions.add(readSubscriptionColumns(rs, ctx));
+                    }
+                    return rowsByIdSoFar;
+                });
+    }
+
+    private static MeetupEvent mapMeetupEventRows(Query query) {
+        return query.reduceResultSet(new MeetupEventRows(), (rows, rs, ctx) -> {
+            if (rows.id == null) {
+                readMeetupEventColumns(rows, rs, ctx);
+            }
+            if (rs.getString("user_id") != null) {
+                rows.subscriptions.add(readSubscriptionColumns(rs, ctx));
+            }
+            return rows;
+        }).toMeetupEvent();
+    }
+
+    private static void readMeetupEventColumns(MeetupEventRows rows, ResultSet rs, StatementContext ctx) throws SQLException {
+        rows.id = rs.getLong("id");
+        rows.capacity = rs.getInt("capacity");
+        rows.eventName = rs.getString("event_name");
+        rows.startTime = mapTo(rs, "start_time", LocalDateTime.class, ctx);
+        rows.participantCount = rs.getInt("participant_count");
+        rows.waitingListCount = rs.getInt("waiting_list_count");
+        rows.version = rs.getLong("version");
+    }
+
+    private static Subscription readSubscriptionColumns(ResultSet rs, StatementContext ctx) throws SQLException {
+        return new Subscription(
+                rs.getString("user_id"),
+                mapTo(rs, "registration_time", Instant.class, ctx),
+                rs.getBoolean("waiting_list"));
+    }
+
+    private HandleConsumer<RuntimeException> updateMeetupEvent(MeetupEvent meetupEvent) {
+        String sql = "" +
+                "UPDATE MEETUP_EVENT " +
+                "SET event_name = :event_name, start_time = :start_time, capacity = :capacity, " +
+                "participant_count = :participant_count, waiting_list_count = :waiting_list_count, version = version + 1 " +
+                "WHERE id = :id " +
+                "AND version = :version";
+
+        return handle -> {
+            int updatedRows = handle.createUpdate(sql)
+                    .bind("id", meetupEvent.getId())
+                    .bind("event_name", meetupEvent.getEventName())
+                    .bind("start_time", meetupEvent.getStartTime())
+                    .bind("capacity", meetupEvent.getCapacity())
+                    .bind("participant_count", meetupEvent.getParticipantCount())
+                    .bind("waiting_list_count", meetupEvent.getWaitingListCount())
+                    .bind("version", meetupEvent.getVersion())
+                    .execute();
+            if (updatedRows == 0) {
+                throw new ConcurrentMeetupEventUpdateException(meetupEvent.getId(), meetupEvent.getVersion());
+            }
+        };
     }
 
     private HandleConsumer<RuntimeException> upsertSubscriptions(long meetupEventId, Collection<Subscription> subscriptions) {
@@ -47,26 +356,78 @@ public class MeetupEventRepository {
                 "VALUES (:userId, :meetupEventId, :registrationTime, :waitingList)";
 
         return handle -> {
-            PreparedBatch preparedBatch = handle.prepareBatch(sql);
-            subscriptions.forEach(subscription -> preparedBatch
-                    .bind("meetupEventId", meetupEventId)
-                    .bind("userId", subscription.getUserId())
-                    .bind("registrationTime", subscription.getRegistrationTime())
-                    .bind("waitingList", subscription.isInWaitingList())
-                    .add());
-            preparedBatch.execute();
+            try (PreparedBatch preparedBatch = handle.prepareBatch(sql)) {
+                subscriptions.forEach(subscription -> preparedBatch
+                        .bind("meetupEventId", meetupEventId)
+                        .bind("userId", subscription.getUserId())
+                        .bind("registrationTime", subscription.getRegistrationTime())
+                        .bind("waitingList", subscription.isInWaitingList())
+                        .add());
+                preparedBatch.execute();
+            }
         };
     }
 
-    private HandleConsumer<RuntimeException> deleteMeetupSubscriptionsNotInUserIds(long meetupEventId, List<String> userIds) {
+    private HandleConsumer<RuntimeException> deleteMeetupSubscriptionsInUserIds(long meetupEventId, Collection<String> userIds) {
         String sql = "" +
                 "DELETE FROM USER_SUBSCRIPTION " +
                 "WHERE meetup_event_id = :meetupEventId " +
-                "AND user_id NOT IN (<userIds>)";
+                "AND user_id IN (<userIds>)";
 
         return handle -> handle.createUpdate(sql)
                 .bind("meetupEventId", meetupEventId)
-                .bindList("userIds", userIds)
+                .bindList("userIds", new ArrayList<>(userIds))
                 .execute();
     }
+
+    /**
+     * Moves the head of the waiting list to the participants and returns the promoted users. The row of the event
+     * is already locked by the version update, so the waiting list cannot change between the two statements. Ties on
+     * the registration time are broken on the user id, as the waiting list positions are.
+     */
+    private HandleCallback<List<String>, RuntimeException> promoteFirstInWaitingList(long meetupEventId, int count) {
+        String selectSql = "" +
+                "SELECT user_id FROM USER_SUBSCRIPTION " +
+                "WHERE meetup_event_id = :meetupEventId " +
+                "AND waiting_list IS TRUE " +
+                "ORDER BY registration_time ASC, user_id ASC " +
+                "LIMIT :count";
+        String updateSql = "" +
+                "UPDATE USER_SUBSCRIPTION " +
+                "SET waiting_list = FALSE " +
+                "WHERE meetup_event_id = :meetupEventId " +
+                "AND user_id IN (<userIds>)";
+
+        return handle -> {
+            List<String> userIds = handle.createQuery(selectSql)
+                    .bind("meetupEventId", meetupEventId)
+                    .bind("count", count)
+                    .mapTo(String.class)
+                    .list();
+            if (!userIds.isEmpty()) {
+                handle.createUpdate(updateSql)
+                        .bind("meetupEventId", meetupEventId)
+                        .bindList("userIds", userIds)
+                        .execute();
+            }
+            return userIds;
+        };
+    }
+
+    private static class MeetupEventRows {
+
+        private Long id;
+        private int capacity;
+        private String eventName;
+        private LocalDateTime startTime;
+        private int participantCount;
+        private int waitingListCount;
+        private long version;
+        private final List<Subscription> subscriptions = new ArrayList<>();
+
+        private MeetupEvent toMeetupEvent() {
+            return id == null ? null : new MeetupEvent(id, capacity, eventName, startTime, version,
+                    participantCount, waitingListCount, subscriptions);
+        }
+    }
 }
@@ -1,22 +1,37 @@
 package kata.persistence;
 
 import kata.Subscription;
+import kata.SubscriptionCursor;
+import org.jdbi.v3.core.HandleCallback;
+import org.jdbi.v3.core.HandleConsumer;
 import org.jdbi.v3.core.Jdbi;
 import org.jdbi.v3.core.mapper.RowMapper;
+import org.jdbi.v3.core.statement.Query;
 
 import java.time.Instant;
 import java.util.List;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
 
 import static kata.persistence.JdbiMapperHelper.mapTo;
 
 public class MeetupSubscriptionDao {
 
-    private final Jdbi jdbi;
+    private final ShardRouter shardRouter;
 
     public MeetupSubscriptionDao(Jdbi jdbi) {
-        this.jdbi = jdbi;
+        this(ShardRouter.single(jdbi));
     }
 
+    /**
+     * The queries read the replica of the shard of the event, the writes its primary.
+     */
+    public MeetupSubscriptionDao(ShardRouter shardRouter) {
+        this.shardRouter = shardRouter;
+    }
+
+    private static final int STREAM_FETCH_SIZE = 1000;
+
     private static final RowMapper<Subscription> SUBSCRIPTION_ROW_MAPPER = (rs, ctx) ->
             new Subscription(
                     rs.getString("user_id"),
@@ -24,52 +39,14 @@ public class MeetupSubscriptionDao {
                     rs.getBoolean("waiting_list")
             );
 
-    public void addToSubscriptions(Subscription subscribtion, Long meetupEventId) {
-        String sql = "" +
-                "INSERT INTO USER_SUBSCRIPTION (user_id, meetup_event_id, registration_time, waiting_list) " +
-                "VALUES (:userId, :meetupEventId, :registrationTime, :waitingList)";
-
-        jdbi.useHandle(handle -> handle.createUpdate(sql)
-                .bind("userId", subscribtion.getUserId())
-                .bind("meetupEventId", meetupEventId)
-                .bind("registrationTime", subscribtion.getRegistrationTime())
-                .bind("waitingList", subscribtion.isInWaitingList())
-                .execute());
-    }
-
-    public void deleteSubscription(String userId, Long meetupEventId) {
-        String sql = "" +
-                "DELETE FROM USER_SUBSCRIPTION " +
-                "WHERE meetup_event_id = :meetupEventId " +
-                "AND user_id = :userId";
-
-        jdbi.useHandle(handle -> handle.createUpdate(sql)
-                .bind("meetupEventId", meetupEventId)
-                .bind("userId", userId)
-                .execute());
-    }
-
-    public void changeFromWaitingListToParticipants(String userId, Long meetupEventId) {
-        String sql = "" +
-                "UPDATE USER_SUBSCRIPTION " +
-                "SET waiting_list = FALSE " +
-                "WHERE meetup_event_id = :meetupEventId " +
-                "AND user_id = :userId";
-
-        jdbi.useHandle(handle -> handle.createUpdate(sql)
-                .bind("meetupEventId", meetupEventId)
-                .bind("userId", userId)
-                .execute());
-    }
-
     public List<Subscription> findSubscriptionsParticipants(Long meetupEventId) {
         String sql = "" +
                 "SELECT * FROM USER_SUBSCRIPTION " +
                 "WHERE meetup_event_id = :meetupEventId " +
                 "AND waiting_list IS FALSE " +
-                "ORDER BY registration_time ASC";
+                "ORDER BY registration_time ASC, user_id ASC";
 
-        return jdbi.withHandle(handle -> handle.createQuery(sql)
+        return UnitOfWork.withHandle(shardRouter.readShardOf(meetupEventId), handle -> handle.createQuery(sql)
                 .bind("meetupEventId", meetupEventId)
                 .map(SUBSCRIPTION_ROW_MAPPER)
                 .list());
@@ -80,9 +57,9 @@ public class MeetupSubscriptionDao {
                 "SELECT * FROM USER_SUBSCRIPTION " +
                 "WHERE meetup_event_id = :meetupEventId " +
                 "AND waiting_list IS TRUE " +
-                "ORDER BY registration_time ASC";
+                "ORDER BY registration_time ASC, user_id ASC";
 
-        return jdbi.withHandle(handle -> handle.createQuery(sql)
+        return UnitOfWork.withHandle(shardRouter.readShardOf(meetupEventId), handle -> handle.createQuery(sql)
                 .bind("meetupEventId", meetupEventId)
                 .map(SUBSCRIPTION_ROW_MAPPER)
                 .list());
@@ -94,7 +71,7 @@ public class MeetupSubscriptionDao {
                 "WHERE meetup_event_id = :meetupEventId " +
                 "AND user_id = :userId";
 
-        return jdbi.withHandle(handle -> handle.createQuery(sql)
+        return UnitOfWork.withHandle(shardRouter.readShardOf(meetupEventId), handle -> handle.createQuery(sql)
                 .bind("meetupEventId", meetupEventId)
                 .bind("userId", userId)
                 .mapTo(Boolean.class)
@@ -102,15 +79,103 @@ public class MeetupSubscriptionDao {
     }
 
     public Subscription findById(String userId, Long meetupEventId) {
+        return UnitOfWork.withHandle(shardRouter.readShardOf(meetupEventId), selectSubscription("USER_SUBSCRIPTION", userId, meetupEventId));
+    }
+
+    /**
+     * Position of the subscription in the waiting list, from 1, in registration time then user id order. It is
+     * counted on the index of the waiting list of the event, without reading any participant.
+     */
+    public int findWaitingListPosition(Subscription subscription, Long meetupEventId) {
+        return UnitOfWork.withHandle(shardRouter.readShardOf(meetupEventId), countWaitingListUpTo("USER_SUBSCRIPTION", subscription, meetupEventId));
+    }
+
+    /**
+     * The table is given so that the archive, whose subscription table has the same columns, looks up its
+     * subscriptions the same way.
+     */
+    static HandleCallback<Subscription, RuntimeException> selectSubscription(String subscriptionTable, String userId, Long meetupEventId) {
         String sql = "" +
-                "SELECT * FROM USER_SUBSCRIPTION " +
+                "SELECT * FROM " + subscriptionTable + " " +
                 "WHERE meetup_event_id = :meetupEventId " +
                 "AND user_id = :userId";
 
-        return jdbi.withHandle(handle -> handle.createQuery(sql)
+        return handle -> handle.createQuery(sql)
                 .bind("meetupEventId", meetupEventId)
                 .bind("userId", userId)
                 .map(SUBSCRIPTION_ROW_MAPPER)
-                .findOne().orElse(null));
+                .findOne().orElse(null);
+    }
+
+    static HandleCallback<Integer, RuntimeException> countWaitingListUpTo(String subscriptionTable, Subscription subscription, Long meetupEventId) {
+        String sql = "" +
+                "SELECT COUNT(*) FROM " + subscriptionTable + " " +
+                "WHERE meetup_event_id = :meetupEventId " +
+                "AND waiting_list IS TRUE " +
+                "AND (registration_time < :registrationTime OR (registration_time = :registrationTime AND user_id <= :userId))";
+
+        return handle -> handle.createQuery(sql)
+                .bind("meetupEventId", meetupEventId)
+                .bind("registrationTime", subscription.getRegistrationTime())
+                .bind("userId", subscription.getUserId())
+                .mapTo(Integer.class)
+                .one();
+    }
+
+    /**
+     * Subscriptions of the participants or of the waiting list, ordered by registration time then user id, starting
+     * after the given cursor, or from the first one when it is null.
+     */
+    public List<Subscription> findSubscriptionsPage(Long meetupEventId, boolean waitingList, SubscriptionCursor after, int limit) {
+        return UnitOfWork.withHandle(shardRouter.readShardOf(meetupEventId),
+                selectSubscriptionsPage("USER_SUBSCRIPTION", meetupEventId, waitingList, after, limit));
+    }
+
+    /**
+     * Hands the subscriptions of the participants or of the waiting list to the consumer as they are read, in
+     * registration order. The stream can only be used inside the consumer.
+     */
+    public void useSubscriptionsStream(Long meetupEventId, boolean waitingList, Consumer<Stream<Subscription>> consumer) {
+        UnitOfWork.useHandle(shardRouter.readShardOf(meetupEventId),
+                streamSubscriptions("USER_SUBSCRIPTION", meetupEventId, waitingList, consumer));
+    }
+
+    static HandleCallback<List<Subscription>, RuntimeException> selectSubscriptionsPage(String subscriptionTable, Long meetupEventId,
+                                                                                         boolean waitingList, SubscriptionCursor after, int limit) {
+        String sql = "" +
+                "SELECT * FROM " + subscriptionTable + " " +
+                "WHERE meetup_event_id = :meetupEventId " +
+                "AND waiting_list = :waitingList " +
+                (after == null ? "" : "AND (registration_time > :afterTime OR (registration_time = :afterTime AND user_id > :afterUserId)) ") +
+                "ORDER BY registration_time ASC, user_id ASC " +
+                "LIMIT :limit";
+
+        return handle -> {
+            Query query = handle.createQuery(sql)
+                    .bind("meetupEventId", meetupEventId)
+                    .bind("waitingList", waitingList)
+                    .bind("limit", limit);
+            if (after != null) {
+                query.bind("afterTime", after.getRegistrationTime())
+                        .bind("afterUserId", after.getUserId());
+            }
+            return query.map(SUBSCRIPTION_ROW_MAPPER).list();
+        };
+    }
+
+    static HandleConsumer<RuntimeException> streamSubscriptions(String subscriptionTable, Long meetupEventId, boolean waitingList,
+                                                                Consumer<Stream<Subscription>> consumer) {
+        String sql = "" +
+                "SELECT * FROM " + subscriptionTable + " " +
+                "WHERE meetup_event_id = :meetupEventId " +
+                "AND waiting_list = :waitingList " +
+                "ORDER BY registration_time ASC, user_id ASC";
+
+        return handle -> handle.createQuery(sql)
+                .bind("meetupEventId", meetupEventId)
+                .bind("waitingList", waitingList)
+                .setFetchSize(STREAM_FETCH_SIZE)
+                .map(SUBSCRIPTION_ROW_MAPPER)
+                .useStream(consumer::accept);
     }
 }
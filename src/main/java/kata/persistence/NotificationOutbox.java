@@ -0,0 +1,96 @@
+package kata.persistence;
+
+import kata.WaitingListNotification;
+import org.jdbi.v3.core.HandleConsumer;
+import org.jdbi.v3.core.Jdbi;
+import org.jdbi.v3.core.mapper.RowMapper;
+import org.jdbi.v3.core.statement.PreparedBatch;
+
+import java.time.Instant;
+import java.util.Collection;
+import java.util.List;
+
+import static kata.persistence.JdbiMapperHelper.mapTo;
+
+/**
+ * The NOTIFICATION_OUTBOX table, written by the repositories in the transaction saving an event, and the
+ * positions acknowledged by each of its consumers. With several shards, each shard has its own outbox, to be
+ * drained by a dispatcher of its own.
+ */
+public class NotificationOutbox {
+
+    private final Jdbi jdbi;
+
+    public NotificationOutbox(Jdbi jdbi) {
+        this.jdbi = jdbi;
+    }
+
+    private static final RowMapper<WaitingListNotification> NOTIFICATION_ROW_MAPPER = (rs, ctx) ->
+            new WaitingListNotification(
+                    rs.getLong("position"),
+                    rs.getLong("meetup_event_id"),
+                    rs.getString("user_id"),
+                    WaitingListNotification.Type.valueOf(rs.getString("notification_type")),
+                    mapTo(rs, "created_at", Instant.class, ctx)
+            );
+
+    static HandleConsumer<RuntimeException> insertPromotions(long meetupEventId, Collection<String> userIds) {
+        String sql = "" +
+                "INSERT INTO NOTIFICATION_OUTBOX (meetup_event_id, user_id, notification_type, created_at) " +
+                "VALUES (:meetupEventId, :userId, :notificationType, :createdAt)";
+
+        return handle -> {
+            Instant now = Instant.now();
+            try (PreparedBatch preparedBatch = handle.prepareBatch(sql)) {
+                userIds.forEach(userId -> preparedBatch
+                        .bind("meetupEventId", meetupEventId)
+                        .bind("userId", userId)
+                        .bind("notificationType", WaitingListNotification.Type.PROMOTED.name())
+                        .bind("createdAt", now)
+                        .add());
+                preparedBatch.execute();
+            }
+        };
+    }
+
+    public List<WaitingListNotification> findAfter(long position, int limit) {
+        String sql = "" +
+                "SELECT * FROM NOTIFICATION_OUTBOX " +
+                "WHERE position > :position " +
+                "ORDER BY position ASC " +
+                "LIMIT :limit";
+
+        return UnitOfWork.withHandle(jdbi, handle -> handle.createQuery(sql)
+                .bind("position", position)
+                .bind("limit", limit)
+                .map(NOTIFICATION_ROW_MAPPER)
+                .list());
+    }
+
+    /**
+     * Last position acknowledged by the consumer, 0 if it never acknowledged any.
+     */
+    public long getAcknowledgedPosition(String consumerName) {
+        String sql = "" +
+                "SELECT acknowledged_position FROM NOTIFICATION_OUTBOX_POSITION " +
+                "WHERE consumer_name = :consumerName";
+
+        return UnitOfWork.withHandle(jdbi, handle -> handle.createQuery(sql)
+                .bind("consumerName", consumerName)
+                .mapTo(Long.class)
+                .findOne()
+                .orElse(0L));
+    }
+
+    public void acknowledge(String consumerName, long position) {
+        String sql = "" +
+                "MERGE INTO NOTIFICATION_OUTBOX_POSITION (consumer_name, acknowledged_position) " +
+                "KEY (consumer_name) " +
+                "VALUES (:consumerName, :position)";
+
+        UnitOfWork.useHandle(jdbi, handle -> handle.createUpdate(sql)
+                .bind("consumerName", consumerName)
+                .bind("position", position)
+                .execute());
+    }
+}
@@ -0,0 +1,65 @@
+package kata.persistence;
+
+import org.jdbi.v3.core.Jdbi;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Hands out ids from blocks reserved on a database sequence, with one round trip per block instead of one per id.
+ * <p>
+ * The sequence is incremented by 1 and counts blocks rather than ids (hi/lo): its value {@code n} reserves the ids
+ * {@code (n - 1) * blockSize + 1} to {@code n * blockSize}, which no other caller gets, whether it runs in this
+ * generator, another generator or another application node, provided that they all use the same block size. Ids
+ * are unique but not gapless, and not ordered across nodes. The ids left in a block are lost when the application
+ * stops.
+ */
+public class PooledIdGenerator {
+
+    private final Jdbi jdbi;
+    private final String sequenceName;
+    private final int blockSize;
+
+    private long nextId;
+    private long blockEnd;
+
+    public PooledIdGenerator(Jdbi jdbi, String sequenceName, int blockSize) {
+        if (blockSize < 1) {
+            throw new IllegalArgumentException("Block size must be at least 1, got " + blockSize);
+        }
+        this.jdbi = jdbi;
+        this.sequenceName = sequenceName;
+        this.blockSize = blockSize;
+    }
+
+    public synchronized long nextId() {
+        if (nextId == blockEnd) {
+            reserveBlock();
+        }
+        return nextId++;
+    }
+
+    /**
+     * The given number of ids, taken under one lock so that they are consecutive within each block.
+     */
+    public synchronized List<Long> nextIds(int count) {
+        List<Long> ids = new ArrayList<>(count);
+        while (ids.size() < count) {
+            if (nextId == blockEnd) {
+                reserveBlock();
+            }
+            ids.add(nextId++);
+        }
+        return ids;
+    }
+
+    private void reserveBlock() {
+        long block = UnitOfWork.withHandle(jdbi, handle -> handle
+                .createQuery("SELECT NEXTVAL('" + sequenceName + "')")
+                .mapTo(Long.class)
+                .one()
+        );
+        nextId = (block - 1) * blockSize + 1;
+        blockEnd = nextId + blockSize;
+    }
+}
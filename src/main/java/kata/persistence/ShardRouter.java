@@ -0,0 +1,236 @@
+package kata.persistence;
+
+import org.jdbi.v3.core.Jdbi;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+import static java.util.Collections.singletonList;
+
+/**
+ * Maps each meetup event to one of several databases, the shards, each with the whole schema. The shard is encoded
+ * in the id of the event: an id is a value of the sequence of its shard times the number of shards, plus the index
+ * of the shard. With a single shard, ids are the sequence values as they are without sharding.
+ * <p>
+ * The number of shards is part of the ids, it cannot change once events are created. Everything about an event,
+ * subscriptions, log, snapshots, outbox notifications and archive, is stored in the shard of the event, so that an
+ * operation on one event runs in one transaction of one database. Queries spanning several events are run on each
+ * of their shards in parallel.
+ * <p>
+ * Each shard may have a read replica. Pure reads go to the replica, unless the event was written through this router
+ * less than the primary pin ago: a caller reading the event it just wrote then reads the primary and sees its own
+ * write. The pin is counted from the start of the write, so it must cover the transaction and the replica lag.
+ */
+public class ShardRouter implements AutoCloseable {
+
+    public static final Duration DEFAULT_PRIMARY_PIN = Duration.ofSeconds(1);
+
+    private final List<Jdbi> shards;
+    private final List<Jdbi> replicas;
+    private final long primaryPinNanos;
+    private final Map<Long, Long> pinnedUntilNanos = new ConcurrentHashMap<>();
+    private final Queue<Pin> pinsInExpiryOrder = new ConcurrentLinkedQueue<>();
+    private final ExecutorService fanOutExecutor;
+    private final AtomicInteger nextShard = new AtomicInteger();
+
+    public ShardRouter(List<Jdbi> shards) {
+        this(shards, shards, DEFAULT_PRIMARY_PIN);
+    }
+
+    /**
+     * @param replicas the read replica of each shard, in the order of the shards
+     */
+    public ShardRouter(List<Jdbi> shards, List<Jdbi> replicas, Duration primaryPin) {
+        if (shards.isEmpty()) {
+            throw new IllegalArgumentException("There must be at least 1 shard, got 0");
+        }
+        if (replicas.size() != shards.size()) {
+            throw new IllegalArgumentException("There must be 1 replica per shard, got " + replicas.size() + " for " + shards.size() + " shards");
+        }
+        this.shards = new ArrayList<>(shards);
+        this.replicas = new ArrayList<>(replicas);
+        this.primaryPinNanos = primaryPin.toNanos();
+        boolean hasReplicas = !this.replicas.equals(this.shards);
+        int maxDatabasesPerFanOut = hasReplicas ? 2 * shards.size() : shards.size();
+        AtomicInteger threadCount = new AtomicInteger();
+        this.fanOutExecutor = maxDatabasesPerFanOut == 1 ? null : Executors.newFixedThreadPool(maxDatabasesPerFanOut - 1, runnable -> {
+            Thread thread = new Thread(runnable, "shard-fan-out-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public static ShardRouter single(Jdbi jdbi) {
+        return new ShardRouter(singletonList(jdbi));
+    }
+
+    public static ShardRouter withReadReplica(Jdbi primary, Jdbi replica) {
+        return new ShardRouter(singletonList(primary), singletonList(replica), DEFAULT_PRIMARY_PIN);
+    }
+
+    public int getShardCount() {
+        return shards.size();
+    }
+
+    public List<Jdbi> getShards() {
+        return new ArrayList<>(shards);
+    }
+
+    /**
+     * The primary of the shard of the event, for the reads that must see the latest writes, such as the loads of an
+     * event about to be saved.
+     */
+    public Jdbi shardOf(long meetupEventId) {
+        return shards.get(shardIndexOf(meetupEventId));
+    }
+
+    /**
+     * The primary of the shard of the event, which is pinned to it for the reads of the primary pin.
+     */
+    public Jdbi writeShardOf(long meetupEventId) {
+        int shardIndex = shardIndexOf(meetupEventId);
+        if (replicas.get(shardIndex) != shards.get(shardIndex)) {
+            pin(meetupEventId);
+        }
+        return shards.get(shardIndex);
+    }
+
+    /**
+     * The replica of the shard of the event, or its primary while the event is pinned.
+     */
+    public Jdbi readShardOf(long meetupEventId) {
+        int shardIndex = shardIndexOf(meetupEventId);
+        Jdbi replica = replicas.get(shardIndex);
+        if (replica == shards.get(shardIndex)) {
+            return replica;
+        }
+        Long pinnedUntil = pinnedUntilNanos.get(meetupEventId);
+        if (pinnedUntil != null) {
+            if (System.nanoTime() - pinnedUntil < 0) {
+                return shards.get(shardIndex);
+            }
+            pinnedUntilNanos.remove(meetupEventId, pinnedUntil);
+        }
+        return replica;
+    }
+
+    private void pin(long meetupEventId) {
+        long now = System.nanoTime();
+        Pin pin = new Pin(meetupEventId, now + primaryPinNanos);
+        pinnedUntilNanos.put(meetupEventId, pin.untilNanos);
+        pinsInExpiryOrder.add(pin);
+        sweepExpiredPins(now);
+    }
+
+    /**
+     * All pins last the primary pin, so they expire in the order they were made and the expired ones are at the
+     * head of the queue: each pin is swept once, by the first pin made after it expired. A pin renewed since is
+     * left in the map.
+     */
+    private void sweepExpiredPins(long now) {
+        for (Pin pin = pinsInExpiryOrder.peek(); pin != null && now - pin.untilNanos >= 0; pin = pinsInExpiryOrder.peek()) {
+            if (pinsInExpiryOrder.remove(pin)) {
+                pinnedUntilNanos.remove(pin.meetupEventId, pin.untilNanos);
+            }
+        }
+    }
+
+    int pinnedEventCount() {
+        return pinnedUntilNanos.size();
+    }
+
+    int shardIndexOf(long meetupEventId) {
+        return (int) Math.floorMod(meetupEventId, (long) shards.size());
+    }
+
+    /**
+     * The shard of the next event created, taken in turn so that the events are spread evenly.
+     */
+    int nextShardIndex() {
+        return Math.floorMod(nextShard.getAndIncrement(), shards.size());
+    }
+
+    long encodeId(long sequenceValue, int shardIndex) {
+        return sequenceValue * shards.size() + shardIndex;
+    }
+
+    /**
+     * Groups the distinct ids by the database the router gives for them, in the order of the shards, keeping the
+     * order of the ids within a database.
+     */
+    Map<Jdbi, List<Long>> groupByShard(Collection<Long> meetupEventIds, Function<Long, Jdbi> router) {
+        Map<Integer, List<Long>> idsByShardIndex = new TreeMap<>();
+        for (Long meetupEventId : new LinkedHashSet<>(meetupEventIds)) {
+            idsByShardIndex.computeIfAbsent(shardIndexOf(meetupEventId), shardIndex -> new ArrayList<>()).add(meetupEventId);
+        }
+        Map<Jdbi, List<Long>> idsByShard = new LinkedHashMap<>();
+        idsByShardIndex.values().forEach(ids -> ids.forEach(meetupEventId -> idsByShard
+                .computeIfAbsent(router.apply(meetupEventId), shard -> new ArrayList<>())
+                .add(meetupEventId)));
+        return idsByShard;
+    }
+
+    /**
+     * Runs the query on each database the router gives for the events, with the ids of its events, and returns the
+     * results in the order of the shards. The first database is queried by the calling thread, in its unit of work
+     * if any, the others in parallel by the fan out threads, each in a unit of work of its own.
+     */
+    <T> List<T> fanOut(Collection<Long> meetupEventIds, Function<Long, Jdbi> router, BiFunction<Jdbi, List<Long>, T> query) {
+        List<Map.Entry<Jdbi, List<Long>>> shardIds = new ArrayList<>(groupByShard(meetupEventIds, router).entrySet());
+        List<CompletableFuture<T>> futures = new ArrayList<>();
+        for (Map.Entry<Jdbi, List<Long>> entry : shardIds.subList(Math.min(1, shardIds.size()), shardIds.size())) {
+            futures.add(CompletableFuture.supplyAsync(
+                    () -> UnitOfWork.run(() -> query.apply(entry.getKey(), entry.getValue())), fanOutExecutor));
+        }
+
+        List<T> results = new ArrayList<>();
+        if (!shardIds.isEmpty()) {
+            results.add(query.apply(shardIds.get(0).getKey(), shardIds.get(0).getValue()));
+        }
+        for (CompletableFuture<T> future : futures) {
+            try {
+                results.add(future.join());
+            } catch (CompletionException e) {
+                if (e.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) e.getCause();
+                }
+                throw e;
+            }
+        }
+        return results;
+    }
+
+    private static class Pin {
+
+        private final long meetupEventId;
+        private final long untilNanos;
+
+        private Pin(long meetupEventId, long untilNanos) {
+            this.meetupEventId = meetupEventId;
+            this.untilNanos = untilNanos;
+        }
+    }
+
+    @Override
+    public void close() {
+        if (fanOutExecutor != null) {
+            fanOutExecutor.shutdown();
+        }
+    }
+}
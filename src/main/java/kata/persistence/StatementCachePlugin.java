@@ -0,0 +1,155 @@
+package kata.persistence;
+
+import org.jdbi.v3.core.Jdbi;
+import org.jdbi.v3.core.spi.JdbiPlugin;
+import org.jdbi.v3.core.statement.DefaultStatementBuilder;
+import org.jdbi.v3.core.statement.StatementBuilder;
+import org.jdbi.v3.core.statement.StatementContext;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Keeps the prepared statements of each handle open until the handle is closed, keyed by their SQL once
+ * rendered, so that running the same statement again on the handle does not prepare it again. It pays off with
+ * handles living longer than a call, as the ones of a {@link UnitOfWork}.
+ * <p>
+ * A handle keeps at most {@code maxStatementsPerHandle} statements, closing the least recently used ones. A
+ * statement still in use, for instance by a stream not closed yet, is not shared: running its SQL again meanwhile
+ * prepares a statement closed after use.
+ */
+public class StatementCachePlugin implements JdbiPlugin {
+
+    public static final int DEFAULT_MAX_STATEMENTS_PER_HANDLE = 64;
+
+    private final int maxStatementsPerHandle;
+    private final LongAdder hitCount = new LongAdder();
+    private final LongAdder missCount = new LongAdder();
+
+    public StatementCachePlugin() {
+        this(DEFAULT_MAX_STATEMENTS_PER_HANDLE);
+    }
+
+    public StatementCachePlugin(int maxStatementsPerHandle) {
+        if (maxStatementsPerHandle < 1) {
+            throw new IllegalArgumentException("Max statements per handle must be at least 1, got " + maxStatementsPerHandle);
+        }
+        this.maxStatementsPerHandle = maxStatementsPerHandle;
+    }
+
+    @Override
+    public void customizeJdbi(Jdbi jdbi) {
+        jdbi.setStatementBuilderFactory(connection -> new CachingStatementBuilder());
+    }
+
+    public long getHitCount() {
+        return hitCount.sum();
+    }
+
+    public long getMissCount() {
+        return missCount.sum();
+    }
+
+    /**
+     * Share of the prepared statements found in the cache, 0 when none was requested yet.
+     */
+    public double getHitRate() {
+        long hits = hitCount.sum();
+        long requests = hits + missCount.sum();
+        return requests == 0 ? 0 : (double) hits / requests;
+    }
+
+    /**
+     * A handle is used by one thread at a time, so is its statement builder.
+     */
+    private class CachingStatementBuilder extends DefaultStatementBuilder {
+
+        private final Map<String, CachedStatement> statements = new LinkedHashMap<String, CachedStatement>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CachedStatement> eldest) {
+                if (size() <= maxStatementsPerHandle) {
+                    return false;
+                }
+                cachedByStatement.remove(eldest.getValue().statement);
+                if (!eldest.getValue().inUse) {
+                    closeQuietly(eldest.getValue().statement);
+                }
+                return true;
+            }
+        };
+        private final Map<Statement, CachedStatement> cachedByStatement = new IdentityHashMap<>();
+
+        @Override
+        public PreparedStatement create(Connection conn, String sql, StatementContext ctx) throws SQLException {
+            if (ctx.isReturningGeneratedKeys() || ctx.isConcurrentUpdatable()) {
+                return super.create(conn, sql, ctx);
+            }
+            CachedStatement cached = statements.get(sql);
+            if (cached != null && cached.inUse) {
+                return super.create(conn, sql, ctx);
+            }
+            if (cached != null && !cached.statement.isClosed()) {
+                hitCount.increment();
+                cached.statement.clearParameters();
+                cached.statement.clearBatch();
+                cached.inUse = true;
+                return cached.statement;
+            }
+            missCount.increment();
+            if (cached != null) {
+                cachedByStatement.remove(cached.statement);
+            }
+            cached = new CachedStatement(super.create(conn, sql, ctx));
+            cached.inUse = true;
+            statements.put(sql, cached);
+            cachedByStatement.put(cached.statement, cached);
+            return cached.statement;
+        }
+
+        /**
+         * Keeps the statement open if it is cached, otherwise it was not shared or was evicted while in use. Jdbi
+         * gives the SQL as written here, not as prepared, hence the lookup by statement.
+         */
+        @Override
+        public void close(Connection conn, String sql, Statement stmt) throws SQLException {
+            CachedStatement cached = cachedByStatement.get(stmt);
+            if (cached != null) {
+                cached.inUse = false;
+                return;
+            }
+            super.close(conn, sql, stmt);
+        }
+
+        @Override
+        public void close(Connection conn) {
+            statements.values().forEach(cached -> closeQuietly(cached.statement));
+            statements.clear();
+            cachedByStatement.clear();
+            super.close(conn);
+        }
+    }
+
+    private static void closeQuietly(Statement statement) {
+        try {
+            statement.close();
+        } catch (SQLException ignored) {
+            // the connection is being closed, or the statement already is
+        }
+    }
+
+    private static class CachedStatement {
+
+        private final PreparedStatement statement;
+        private boolean inUse;
+
+        private CachedStatement(PreparedStatement statement) {
+            this.statement = statement;
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package kata.persistence;
+
+import org.jdbi.v3.core.Handle;
+import org.jdbi.v3.core.HandleCallback;
+import org.jdbi.v3.core.HandleConsumer;
+import org.jdbi.v3.core.Jdbi;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * Binds a handle to the current thread for the duration of some work, so that the DAOs and repositories called
+ * during it share one connection instead of each opening its own. The handle of a Jdbi is opened by the first
+ * call that needs it and closed at the end of the outermost unit of work.
+ * <p>
+ * Outside of a unit of work, every call opens and closes a handle as before.
+ */
+public final class UnitOfWork {
+
+    private static final ThreadLocal<UnitOfWork> CURRENT = new ThreadLocal<>();
+
+    private final Map<Jdbi, Handle> handles = new IdentityHashMap<>();
+
+    private UnitOfWork() {
+    }
+
+    /**
+     * Runs the work in a unit of work, or in the current one if there is already one on this thread.
+     */
+    public static <T> T run(Supplier<T> work) {
+        if (CURRENT.get() != null) {
+            return work.get();
+        }
+        UnitOfWork unitOfWork = new UnitOfWork();
+        CURRENT.set(unitOfWork);
+        try {
+            return work.get();
+        } finally {
+            CURRENT.remove();
+            unitOfWork.close();
+        }
+    }
+
+    static <R, X extends Exception> R withHandle(Jdbi jdbi, HandleCallback<R, X> callback) throws X {
+        UnitOfWork unitOfWork = CURRENT.get();
+        if (unitOfWork == null) {
+            return jdbi.withHandle(callback);
+        }
+        return callback.withHandle(unitOfWork.handleOf(jdbi));
+    }
+
+    static <X extends Exception> void useHandle(Jdbi jdbi, HandleConsumer<X> consumer) throws X {
+        withHandle(jdbi, handle -> {
+            consumer.useHandle(handle);
+            return null;
+        });
+    }
+
+    /**
+     * Runs the callback in a transaction, or in the transaction in progress on the handle of the unit of work.
+     */
+    static <R, X extends Exception> R inTransaction(Jdbi jdbi, HandleCallback<R, X> callback) throws X {
+        UnitOfWork unitOfWork = CURRENT.get();
+        if (unitOfWork == null) {
+            return jdbi.inTransaction(callback);
+        }
+        return unitOfWork.handleOf(jdbi).inTransaction(callback);
+    }
+
+    static <X extends Exception> void useTransaction(Jdbi jdbi, HandleConsumer<X> consumer) throws X {
+        inTransaction(jdbi, handle -> {
+            consumer.useHandle(handle);
+            return null;
+        });
+    }
+
+    private Handle handleOf(Jdbi jdbi) {
+        return handles.computeIfAbsent(jdbi, Jdbi::open);
+    }
+
+    private void close() {
+        RuntimeException closeFailure = null;
+        for (Handle handle : handles.values()) {
+            try {
+                handle.close();
+            } catch (RuntimeException e) {
+                if (closeFailure == null) {
+                    closeFailure = e;
+                } else {
+                    closeFailure.addSuppressed(e);
+                }
+            }
+        }
+        if (closeFailure != null) {
+            throw closeFailure;
+        }
+    }
+}
@@ -2,7 +2,10 @@ CREATE TABLE MEETUP_EVENT (
   id BIGINT PRIMARY KEY,
   event_name VARCHAR(100) NOT NULL,
   start_time TIMESTAMP NOT NULL,
-  capacity INT NOT NULL
+  capacity INT NOT NULL,
+  participant_count INT DEFAULT 0 NOT NULL,
+  waiting_list_count INT DEFAULT 0 NOT NULL,
+  version BIGINT DEFAULT 0 NOT NULL
 );
 
 CREATE TABLE USER_SUBSCRIPTION (
@@ -13,5 +16,75 @@ CREATE TABLE USER_SUBSCRIPTION (
   PRIMARY KEY (user_id, meetup_event_id)
 );
 
-CREATE SEQUENCE MEETUP_EVENT_ID_SEQ;
+CREATE SEQUENCE MEETUP_EVENT_ID_SEQ START WITH 1 INCREMENT BY 1;
 
+
+CREATE INDEX USER_SUBSCRIPTION_EVENT_LIST_IDX
+  ON USER_SUBSCRIPTION (meetup_event_id, waiting_list, registration_time, user_id);
+
+CREATE INDEX MEETUP_EVENT_START_TIME_IDX
+  ON MEETUP_EVENT (start_time);
+
+CREATE TABLE MEETUP_EVENT_LOG (
+  meetup_event_id BIGINT REFERENCES MEETUP_EVENT(id),
+  sequence_number BIGINT NOT NULL,
+  change_type VARCHAR(20) NOT NULL,
+  user_id VARCHAR(100),
+  registration_time TIMESTAMP,
+  waiting_list BOOLEAN,
+  capacity INT,
+  PRIMARY KEY (meetup_event_id, sequence_number)
+);
+
+CREATE TABLE MEETUP_EVENT_SNAPSHOT (
+  meetup_event_id BIGINT REFERENCES MEETUP_EVENT(id),
+  sequence_number BIGINT NOT NULL,
+  capacity INT NOT NULL,
+  PRIMARY KEY (meetup_event_id, sequence_number)
+);
+
+CREATE TABLE MEETUP_EVENT_SNAPSHOT_SUBSCRIPTION (
+  meetup_event_id BIGINT,
+  sequence_number BIGINT,
+  user_id VARCHAR(100),
+  registration_time TIMESTAMP NOT NULL,
+  waiting_list BOOLEAN NOT NULL,
+  PRIMARY KEY (meetup_event_id, sequence_number, user_id),
+  FOREIGN KEY (meetup_event_id, sequence_number)
+    REFERENCES MEETUP_EVENT_SNAPSHOT (meetup_event_id, sequence_number) ON DELETE CASCADE
+);
+
+CREATE TABLE NOTIFICATION_OUTBOX (
+  position BIGINT AUTO_INCREMENT PRIMARY KEY,
+  meetup_event_id BIGINT NOT NULL,
+  user_id VARCHAR(100) NOT NULL,
+  notification_type VARCHAR(20) NOT NULL,
+  created_at TIMESTAMP NOT NULL
+);
+
+CREATE TABLE NOTIFICATION_OUTBOX_POSITION (
+  consumer_name VARCHAR(100) PRIMARY KEY,
+  acknowledged_position BIGINT NOT NULL
+);
+
+CREATE TABLE MEETUP_EVENT_ARCHIVE (
+  id BIGINT PRIMARY KEY,
+  event_name VARCHAR(100) NOT NULL,
+  start_time TIMESTAMP NOT NULL,
+  capacity INT NOT NULL,
+  participant_count INT NOT NULL,
+  waiting_list_count INT NOT NULL,
+  version BIGINT NOT NULL,
+  archived_at TIMESTAMP NOT NULL
+);
+
+CREATE TABLE USER_SUBSCRIPTION_ARCHIVE (
+  user_id VARCHAR(100),
+  meetup_event_id BIGINT REFERENCES MEETUP_EVENT_ARCHIVE(id),
+  registration_time TIMESTAMP NOT NULL,
+  waiting_list BOOLEAN NOT NULL,
+  PRIMARY KEY (meetup_event_id, user_id)
+);
+
+CREATE INDEX USER_SUBSCRIPTION_ARCHIVE_EVENT_LIST_IDX
+  ON USER_SUBSCRIPTION_ARCHIVE (meetup_event_id, waiting_list, registration_time, user_id);
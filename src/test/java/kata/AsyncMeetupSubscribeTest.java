@@ -0,0 +1,161 @@
+package kata;
+
+import kata.dbtestutil.MemoryDbTestContext;
+import kata.persistence.MeetupEventDao;
+import kata.persistence.MeetupEventRepository;
+import kata.persistence.MeetupSubscriptionDao;
+import org.jdbi.v3.core.Jdbi;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class AsyncMeetupSubscribeTest {
+
+    private MemoryDbTestContext memoryDbTestContext;
+    private MeetupSubscriptionDao meetupSubscriptionDao;
+    private MeetupEventDao meetupEventDao;
+    private MeetupEventRepository meetupEventRepository;
+    private ExecutorService executor;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        memoryDbTestContext = MemoryDbTestContext.openWithSql("/setup.sql");
+        Jdbi jdbi = memoryDbTestContext.getJdbi();
+        meetupSubscriptionDao = new MeetupSubscriptionDao(jdbi);
+        meetupEventDao = new MeetupEventDao(jdbi);
+        meetupEventRepository = new MeetupEventRepository(jdbi);
+        executor = Executors.newFixedThreadPool(8);
+    }
+
+    @AfterEach
+    void tearDown() throws InterruptedException {
+        executor.shutdownNow();
+        executor.awaitTermination(10, TimeUnit.SECONDS);
+        memoryDbTestContext.close();
+    }
+
+    @Test
+    void should_run_operations_asynchronously() {
+        try (AsyncMeetupSubscribe asyncMeetupSubscribe = new AsyncMeetupSubscribe(
+                new MeetupSubscribe(meetupSubscriptionDao, meetupEventDao, meetupEventRepository))) {
+            Long meetupEventId = asyncMeetupSubscribe.registerMeetupEvent("Coding dojo session 1", 1, LocalDateTime.of(2019, 6, 15, 20, 0)).join();
+
+            CompletableFuture.allOf(
+                    asyncMeetupSubscribe.subscribeUserToMeetupEvent("Alice", meetupEventId),
+                    asyncMeetupSubscribe.subscribeUserToMeetupEvent("Bob", meetupEventId),
+                    asyncMeetupSubscribe.subscribeUserToMeetupEvent("Charles", meetupEventId)).join();
+            asyncMeetupSubscribe.cancelUserSubscription("Alice", meetupEventId).join();
+
+            MeetupEventStatusDto meetupEventStatus = asyncMeetupSubscribe.getMeetupEventStatus(meetupEventId).join();
+            assertThat(meetupEventStatus.participants).hasSize(1).doesNotContain("Alice");
+            assertThat(meetupEventStatus.waitingList).hasSize(1);
+        }
+    }
+
+    @Test
+    void should_read_the_statuses_of_many_events_asynchronously() {
+        try (AsyncMeetupSubscribe asyncMeetupSubscribe = new AsyncMeetupSubscribe(
+                new MeetupSubscribe(meetupSubscriptionDao, meetupEventDao, meetupEventRepository))) {
+            Long firstMeetupEventId = asyncMeetupSubscribe.registerMeetupEvent("Coding dojo session 1", 1, LocalDateTime.of(2019, 6, 15, 20, 0)).join();
+            Long secondMeetupEventId = asyncMeetupSubscribe.registerMeetupEvent("Coding dojo session 2", 1, LocalDateTime.of(2019, 6, 22, 20, 0)).join();
+            asyncMeetupSubscribe.subscribeUserToMeetupEvent("Alice", firstMeetupEventId).join();
+
+            Map<Long, MeetupEventStatusDto> meetupEventStatuses = asyncMeetupSubscribe
+                    .getMeetupEventStatuses(Arrays.asList(firstMeetupEventId, secondMeetupEventId)).join();
+
+            assertThat(meetupEventStatuses.get(firstMeetupEventId).participants).containsExactly("Alice");
+            assertThat(meetupEventStatuses.get(secondMeetupEventId).participants).isEmpty();
+        }
+    }
+
+    @Test
+    void should_read_counts_and_user_statuses_asynchronously() {
+        try (AsyncMeetupSubscribe asyncMeetupSubscribe = new AsyncMeetupSubscribe(
+                new MeetupSubscribe(meetupSubscriptionDao, meetupEventDao, meetupEventRepository))) {
+            Long meetupEventId = asyncMeetupSubscribe.registerMeetupEvent("Coding dojo session 1", 1, LocalDateTime.of(2019, 6, 15, 20, 0)).join();
+            asyncMeetupSubscribe.subscribeUserToMeetupEvent("Alice", meetupEventId).join();
+            asyncMeetupSubscribe.subscribeUserToMeetupEvent("Bob", meetupEventId).join();
+
+            MeetupEventCountsDto meetupEventCounts = asyncMeetupSubscribe.getMeetupEventCounts(meetupEventId).join();
+            UserSubscriptionStatusDto userSubscriptionStatus = asyncMeetupSubscribe.getUserSubscriptionStatus("Bob", meetupEventId).join();
+
+            assertThat(meetupEventCounts.participantCount).isEqualTo(1);
+            assertThat(meetupEventCounts.waitingListCount).isEqualTo(1);
+            assertThat(userSubscriptionStatus.status).isEqualTo(UserSubscriptionStatus.WAITING_LIST);
+            assertThat(userSubscriptionStatus.waitingListPosition).isEqualTo(1);
+        }
+    }
+
+    @Test
+    void should_complete_exceptionally_when_the_operation_fails() {
+        AsyncMeetupSubscribe asyncMeetupSubscribe = new AsyncMeetupSubscribe(
+                new MeetupSubscribe(meetupSubscriptionDao, meetupEventDao, meetupEventRepository), executor, 2);
+        Long meetupEventId = asyncMeetupSubscribe.registerMeetupEvent("Coding dojo session 1", 1, LocalDateTime.of(2019, 6, 15, 20, 0)).join();
+
+        CompletableFuture<Void> cancellation = asyncMeetupSubscribe.cancelUserSubscription("Alice", meetupEventId);
+
+        assertThatThrownBy(cancellation::join)
+                .isInstanceOf(CompletionException.class)
+                .hasMessageContaining("User Alice has no subscription");
+        asyncMeetupSubscribe.subscribeUserToMeetupEvent("Alice", meetupEventId).join();
+    }
+
+    @Test
+    void should_queue_changes_of_an_event_beyond_the_in_flight_limit_without_holding_other_events() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger inFlight = new AtomicInteger();
+        AtomicInteger maxInFlight = new AtomicInteger();
+        MeetupSubscribe blockingMeetupSubscribe = new MeetupSubscribe(meetupSubscriptionDao, meetupEventDao, meetupEventRepository) {
+            @Override
+            public void subscribeUserToMeetupEvent(String userId, Long meetupEventId) {
+                maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                inFlight.decrementAndGet();
+            }
+        };
+        AsyncMeetupSubscribe asyncMeetupSubscribe = new AsyncMeetupSubscribe(blockingMeetupSubscribe, executor, 2);
+
+        List<CompletableFuture<Void>> hotEventSubscriptions = new ArrayList<>();
+        for (int i = 0; i < 6; i++) {
+            hotEventSubscriptions.add(asyncMeetupSubscribe.subscribeUserToMeetupEvent("user-" + i, 1L));
+        }
+        CompletableFuture<Void> otherEventSubscription = asyncMeetupSubscribe.subscribeUserToMeetupEvent("Alice", 2L);
+
+        waitUntil(() -> inFlight.get() == 3);
+        assertThat(hotEventSubscriptions).filteredOn(CompletableFuture::isDone).isEmpty();
+        release.countDown();
+
+        CompletableFuture.allOf(hotEventSubscriptions.toArray(new CompletableFuture<?>[0])).get(10, TimeUnit.SECONDS);
+        otherEventSubscription.get(10, TimeUnit.SECONDS);
+        assertThat(maxInFlight.get()).isEqualTo(3);
+    }
+
+    private static void waitUntil(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (!condition.getAsBoolean() && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertThat(condition.getAsBoolean()).isTrue();
+    }
+}
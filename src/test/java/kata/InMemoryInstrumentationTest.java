@@ -0,0 +1,121 @@
+package kata;
+
+import kata.dbtestutil.MemoryDbTestContext;
+import kata.persistence.ConcurrentMeetupEventUpdateException;
+import kata.persistence.InstrumentationPlugin;
+import kata.persistence.MeetupEventDao;
+import kata.persistence.MeetupEventRepository;
+import kata.persistence.MeetupSubscriptionDao;
+import org.jdbi.v3.core.Jdbi;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class InMemoryInstrumentationTest {
+
+    private InMemoryInstrumentation instrumentation;
+    private MemoryDbTestContext memoryDbTestContext;
+    private Jdbi jdbi;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        memoryDbTestContext = MemoryDbTestContext.openWithSql("/setup.sql");
+        jdbi = memoryDbTestContext.getJdbi();
+        instrumentation = new InMemoryInstrumentation();
+        jdbi.installPlugin(new InstrumentationPlugin(instrumentation));
+    }
+
+    @AfterEach
+    void tearDown() {
+        memoryDbTestContext.close();
+    }
+
+    @Test
+    void should_time_operations_with_their_statements_and_handles() {
+        MeetupSubscribe meetupSubscribe = meetupSubscribe(new MeetupEventRepository(jdbi));
+        Long meetupEventId = meetupSubscribe.registerMeetupEvent("Coding dojo session 1", 2, LocalDateTime.of(2019, 6, 15, 20, 0));
+        instrumentation.reset();
+
+        meetupSubscribe.subscribeUserToMeetupEvent("Alice", meetupEventId);
+        meetupSubscribe.subscribeUserToMeetupEvent("Bob", meetupEventId);
+
+        InstrumentationSnapshotDto snapshot = instrumentation.snapshot();
+        assertThat(snapshot.operations).containsOnlyKeys("subscribeUserToMeetupEvent");
+        TimingStatsDto subscribeTiming = snapshot.operations.get("subscribeUserToMeetupEvent");
+        assertThat(subscribeTiming.count).isEqualTo(2);
+        assertThat(subscribeTiming.maxNanos).isPositive();
+        assertThat(subscribeTiming.p50Nanos).isBetween(1L, subscribeTiming.maxNanos);
+        assertThat(snapshot.statements).isNotEmpty();
+        String subscriptionMerge = snapshot.statements.keySet().stream()
+                .filter(sql -> sql.startsWith("MERGE INTO USER_SUBSCRIPTION"))
+                .findFirst()
+                .orElseThrow(AssertionError::new);
+        assertThat(snapshot.statements.get(subscriptionMerge).count).isEqualTo(2);
+        assertThat(snapshot.rowsTouched.get(subscriptionMerge)).isEqualTo(2);
+        assertThat(snapshot.handlesOpened).isGreaterThanOrEqualTo(2);
+        assertThat(snapshot.retries).isEmpty();
+    }
+
+    @Test
+    void should_count_the_rows_touched_by_every_part_of_a_batch() {
+        MeetupSubscribe meetupSubscribe = meetupSubscribe(new MeetupEventRepository(jdbi));
+
+        meetupSubscribe.registerMeetupEvents("Coding dojo", 10, Arrays.asList(
+                LocalDateTime.of(2019, 6, 15, 20, 0), LocalDateTime.of(2019, 6, 22, 20, 0), LocalDateTime.of(2019, 6, 29, 20, 0)));
+
+        InstrumentationSnapshotDto snapshot = instrumentation.snapshot();
+        assertThat(snapshot.rowsTouched).containsEntry(
+                "INSERT INTO MEETUP_EVENT (id, event_name, start_time, capacity) VALUES (:id, :event_name, :start_time, :capacity)", 3L);
+        assertThat(snapshot.operations.get("registerMeetupEvents").count).isEqualTo(1);
+    }
+
+    @Test
+    void should_count_retries_of_operations_after_concurrent_updates() {
+        AtomicInteger saves = new AtomicInteger();
+        MeetupSubscribe meetupSubscribe = meetupSubscribe(new MeetupEventRepository(jdbi) {
+            @Override
+            public long save(MeetupEvent meetupEvent) {
+                if (saves.incrementAndGet() == 1) {
+                    throw new ConcurrentMeetupEventUpdateException(meetupEvent.getId(), meetupEvent.getVersion());
+                }
+                return super.save(meetupEvent);
+            }
+        });
+        Long meetupEventId = meetupSubscribe.registerMeetupEvent("Coding dojo session 1", 2, LocalDateTime.of(2019, 6, 15, 20, 0));
+
+        meetupSubscribe.cancelUserSubscriptions(Arrays.asList("Alice", "Bob"), meetupEventId);
+
+        assertThat(instrumentation.snapshot().retries).containsEntry("cancelUserSubscriptions", 1L);
+        assertThat(instrumentation.snapshot().operations.get("cancelUserSubscriptions").count).isEqualTo(1);
+    }
+
+    @Test
+    void should_report_percentiles_within_the_bucket_precision() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long nanos = 1; nanos <= 10_000; nanos++) {
+            histogram.record(nanos);
+        }
+
+        TimingStatsDto timingStats = histogram.toTimingStats();
+
+        assertThat(timingStats.count).isEqualTo(10_000);
+        assertThat(timingStats.maxNanos).isEqualTo(10_000);
+        assertThat(timingStats.p50Nanos).isBetween(5_000L, 5_625L);
+        assertThat(timingStats.p99Nanos).isBetween(9_900L, 10_000L);
+        assertThat(timingStats.p999Nanos).isBetween(9_990L, 10_000L);
+    }
+
+    private MeetupSubscribe meetupSubscribe(MeetupEventRepository meetupEventRepository) {
+        return MeetupSubscribe.builder(new MeetupSubscriptionDao(jdbi), new MeetupEventDao(jdbi), meetupEventRepository)
+                .retryPolicy(new RetryPolicy(3, Duration.ZERO))
+                .instrumentation(instrumentation)
+                .build();
+    }
+}
@@ -0,0 +1,201 @@
+package kata;
+
+import kata.dbtestutil.MemoryDbTestContext;
+import kata.persistence.MeetupEventArchive;
+import kata.persistence.MeetupEventDao;
+import kata.persistence.MeetupEventRepository;
+import kata.persistence.MeetupSubscriptionDao;
+import org.jdbi.v3.core.Jdbi;
+import org.jdbi.v3.core.statement.SqlLogger;
+import org.jdbi.v3.core.statement.StatementContext;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static java.util.Arrays.asList;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class MeetupEventArchivalJobTest {
+
+    private Jdbi jdbi;
+    private MeetupSubscribe meetupSubscribe;
+    private MeetupEventArchive archive;
+    private MemoryDbTestContext memoryDbTestContext;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        memoryDbTestContext = MemoryDbTestContext.openWithSql("/setup.sql");
+        jdbi = memoryDbTestContext.getJdbi();
+        archive = new MeetupEventArchive(jdbi, 2);
+        meetupSubscribe = MeetupSubscribe.builder(new MeetupSubscriptionDao(jdbi), new MeetupEventDao(jdbi),
+                new MeetupEventRepository(jdbi))
+                .archive(archive)
+                .build();
+    }
+
+    @AfterEach
+    void tearDown() {
+        memoryDbTestContext.close();
+    }
+
+    private Long registerAMeetupWithSubscriptions(LocalDateTime startTime, int capacity, String... userIds) {
+        Long meetupEventId = meetupSubscribe.registerMeetupEvent("Coding dojo session 1", capacity, startTime);
+        for (String userId : userIds) {
+            meetupSubscribe.subscribeUserToMeetupEvent(userId, meetupEventId);
+        }
+        return meetupEventId;
+    }
+
+    private List<String> recordStatements() {
+        List<String> statements = new ArrayList<>();
+        jdbi.setSqlLogger(new SqlLogger() {
+            @Override
+            public void logBeforeExecution(StatementContext context) {
+                statements.add(context.getRenderedSql());
+            }
+        });
+        return statements;
+    }
+
+    private int countRows(String table) {
+        return jdbi.withHandle(handle -> handle.createQuery("SELECT COUNT(*) FROM " + table)
+                .mapTo(Integer.class)
+                .one());
+    }
+
+    @Test
+    void should_move_started_events_with_their_subscriptions_in_batches() {
+        LocalDateTime past = LocalDateTime.now().minusDays(1);
+        for (int i = 0; i < 5; i++) {
+            registerAMeetupWithSubscriptions(past.minusHours(i), 2, "Alice", "Bob", "Charles");
+        }
+        Long upcomingMeetupEventId = registerAMeetupWithSubscriptions(LocalDateTime.now().plusDays(1), 2, "Alice");
+        MeetupEventArchivalJob archivalJob = new MeetupEventArchivalJob(archive);
+
+        ArchivalRunDto archivalRun = archivalJob.runOnce();
+
+        assertThat(archivalRun.batchCount).isEqualTo(3);
+        assertThat(archivalRun.archivedEvents).isEqualTo(5);
+        assertThat(archivalRun.archivedSubscriptions).isEqualTo(15);
+        assertThat(countRows("MEETUP_EVENT")).isEqualTo(1);
+        assertThat(countRows("USER_SUBSCRIPTION")).isEqualTo(1);
+        assertThat(countRows("MEETUP_EVENT_ARCHIVE")).isEqualTo(5);
+        assertThat(countRows("USER_SUBSCRIPTION_ARCHIVE")).isEqualTo(15);
+        assertThat(meetupSubscribe.getMeetupEventStatus(upcomingMeetupEventId).participants).containsExactly("Alice");
+
+        ArchivalRunDto emptyRun = archivalJob.runOnce();
+
+        assertThat(emptyRun.archivedEvents).isZero();
+        ArchivalStatsDto archivalStats = archivalJob.getArchivalStats();
+        assertThat(archivalStats.runCount).isEqualTo(2);
+        assertThat(archivalStats.archivedEvents).isEqualTo(5);
+        assertThat(archivalStats.archivedSubscriptions).isEqualTo(15);
+        assertThat(archivalJob.getLastRun().archivedEvents).isZero();
+    }
+
+    @Test
+    void should_count_failed_runs_and_roll_back_their_batch() {
+        registerAMeetupWithSubscriptions(LocalDateTime.now().minusDays(1), 2, "Alice");
+        jdbi.useHandle(handle -> handle.execute("DROP TABLE USER_SUBSCRIPTION_ARCHIVE"));
+        MeetupEventArchivalJob archivalJob = new MeetupEventArchivalJob(archive);
+
+        assertThatThrownBy(archivalJob::runOnce).isInstanceOf(RuntimeException.class);
+
+        assertThat(archivalJob.getArchivalStats().failedRunCount).isEqualTo(1);
+        assertThat(archivalJob.getArchivalStats().runCount).isZero();
+        assertThat(countRows("MEETUP_EVENT")).isEqualTo(1);
+        assertThat(countRows("MEETUP_EVENT_ARCHIVE")).isZero();
+    }
+
+    @Test
+    void should_keep_events_within_the_retention() {
+        registerAMeetupWithSubscriptions(LocalDateTime.now().minusHours(1), 2, "Alice");
+
+        ArchivalRunDto archivalRun = new MeetupEventArchivalJob(archive, Duration.ofDays(1)).runOnce();
+
+        assertThat(archivalRun.archivedEvents).isZero();
+        assertThat(countRows("MEETUP_EVENT")).isEqualTo(1);
+    }
+
+    @Test
+    void should_read_archived_events_from_the_archive() {
+        LocalDateTime startTime = LocalDateTime.now().minusDays(1).withNano(0);
+        Long meetupEventId = registerAMeetupWithSubscriptions(startTime, 2, "Alice", "Bob", "Charles", "David");
+        Long upcomingMeetupEventId = registerAMeetupWithSubscriptions(LocalDateTime.now().plusDays(1), 2, "Emily");
+        new MeetupEventArchivalJob(archive).runOnce();
+
+        MeetupEventStatusDto meetupEventStatus = meetupSubscribe.getMeetupEventStatus(meetupEventId);
+        assertThat(meetupEventStatus.startTime).isEqualTo(startTime);
+        assertThat(meetupEventStatus.participants).containsExactly("Alice", "Bob");
+        assertThat(meetupEventStatus.waitingList).containsExactly("Charles", "David");
+
+        Map<Long, MeetupEventStatusDto> statuses = meetupSubscribe.getMeetupEventStatuses(asList(upcomingMeetupEventId, meetupEventId));
+        assertThat(statuses.keySet()).containsExactly(upcomingMeetupEventId, meetupEventId);
+
+        MeetupEventCountsDto meetupEventCounts = meetupSubscribe.getMeetupEventCounts(meetupEventId);
+        assertThat(meetupEventCounts.participantCount).isEqualTo(2);
+        assertThat(meetupEventCounts.waitingListCount).isEqualTo(2);
+
+        UserSubscriptionStatusDto davidStatus = meetupSubscribe.getUserSubscriptionStatus("David", meetupEventId);
+        assertThat(davidStatus.status).isEqualTo(UserSubscriptionStatus.WAITING_LIST);
+        assertThat(davidStatus.waitingListPosition).isEqualTo(2);
+        assertThat(meetupSubscribe.getUserSubscriptionStatus("Alice", meetupEventId).status).isEqualTo(UserSubscriptionStatus.PARTICIPANT);
+        assertThat(meetupSubscribe.getUserSubscriptionStatus("Emily", meetupEventId).status).isEqualTo(UserSubscriptionStatus.NOT_SUBSCRIBED);
+
+        SubscriptionPageDto firstPage = meetupSubscribe.getParticipantsPage(meetupEventId, null, 1);
+        SubscriptionPageDto secondPage = meetupSubscribe.getParticipantsPage(meetupEventId, firstPage.nextCursor, 1);
+        assertThat(firstPage.userIds).containsExactly("Alice");
+        assertThat(secondPage.userIds).containsExactly("Bob");
+        assertThat(secondPage.nextCursor).isNull();
+
+        List<String> waitingList = new ArrayList<>();
+        meetupSubscribe.useWaitingListStream(meetupEventId, stream -> stream.forEach(waitingList::add));
+        assertThat(waitingList).containsExactly("Charles", "David");
+    }
+
+    @Test
+    void should_count_archived_subscriptions_without_reading_them() {
+        Long meetupEventId = registerAMeetupWithSubscriptions(LocalDateTime.now().minusDays(1), 2, "Alice", "Bob", "Charles");
+        new MeetupEventArchivalJob(archive).runOnce();
+        List<String> statements = recordStatements();
+
+        MeetupEventCountsDto meetupEventCounts = meetupSubscribe.getMeetupEventCounts(meetupEventId);
+
+        assertThat(meetupEventCounts.participantCount).isEqualTo(2);
+        assertThat(meetupEventCounts.waitingListCount).isEqualTo(1);
+        assertThat(meetupEventCounts.remainingCapacity).isZero();
+        assertThat(statements).noneMatch(sql -> sql.contains("USER_SUBSCRIPTION_ARCHIVE"));
+    }
+
+    @Test
+    void should_look_up_user_statuses_of_live_events_without_querying_the_archive() {
+        Long meetupEventId = registerAMeetupWithSubscriptions(LocalDateTime.now().plusDays(1), 1, "Alice", "Bob");
+        List<String> statements = recordStatements();
+
+        assertThat(meetupSubscribe.getUserSubscriptionStatus("Bob", meetupEventId).waitingListPosition).isEqualTo(1);
+        assertThat(meetupSubscribe.getUserSubscriptionStatus("Charles", meetupEventId).status).isEqualTo(UserSubscriptionStatus.NOT_SUBSCRIBED);
+
+        assertThat(statements).isNotEmpty().noneMatch(sql -> sql.contains("_ARCHIVE"));
+    }
+
+    @Test
+    void should_page_and_stream_live_events_without_querying_the_archive() {
+        Long meetupEventId = registerAMeetupWithSubscriptions(LocalDateTime.now().plusDays(1), 2, "Alice");
+        List<String> statements = recordStatements();
+
+        assertThat(meetupSubscribe.getParticipantsPage(meetupEventId, null, 10).userIds).containsExactly("Alice");
+        assertThat(meetupSubscribe.getWaitingListPage(meetupEventId, null, 10).userIds).isEmpty();
+        List<String> waitingList = new ArrayList<>();
+        meetupSubscribe.useWaitingListStream(meetupEventId, stream -> stream.forEach(waitingList::add));
+
+        assertThat(waitingList).isEmpty();
+        assertThat(statements).isNotEmpty().noneMatch(sql -> sql.contains("_ARCHIVE"));
+    }
+}
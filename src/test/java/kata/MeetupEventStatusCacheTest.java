@@ -0,0 +1,127 @@
+package kata;
+
+import kata.dbtestutil.MemoryDbTestContext;
+import kata.persistence.MeetupEventDao;
+import kata.persistence.MeetupEventRepository;
+import kata.persistence.MeetupSubscriptionDao;
+import org.jdbi.v3.core.Jdbi;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class MeetupEventStatusCacheTest {
+
+    private MeetupEventStatusCache statusCache;
+    private MeetupSubscribe meetupSubscribe;
+    private MemoryDbTestContext memoryDbTestContext;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        memoryDbTestContext = MemoryDbTestContext.openWithSql("/setup.sql");
+        Jdbi jdbi = memoryDbTestContext.getJdbi();
+        statusCache = new MeetupEventStatusCache(100, Duration.ofMinutes(1));
+        meetupSubscribe = MeetupSubscribe.builder(new MeetupSubscriptionDao(jdbi), new MeetupEventDao(jdbi),
+                new MeetupEventRepository(jdbi))
+                .statusCache(statusCache)
+                .build();
+    }
+
+    @AfterEach
+    void tearDown() {
+        memoryDbTestContext.close();
+    }
+
+    @Test
+    void should_serve_repeated_status_reads_from_cache() {
+        Long meetupEventId = meetupSubscribe.registerMeetupEvent("Coding dojo session 1", 2, LocalDateTime.of(2019, 6, 15, 20, 0));
+        meetupSubscribe.subscribeUserToMeetupEvent("Alice", meetupEventId);
+
+        meetupSubscribe.getMeetupEventStatus(meetupEventId);
+        MeetupEventStatusDto meetupEventStatus = meetupSubscribe.getMeetupEventStatus(meetupEventId);
+
+        assertThat(meetupEventStatus.participants).containsExactly("Alice");
+        assertThat(statusCache.stats().missCount()).isEqualTo(1);
+        assertThat(statusCache.stats().hitCount()).isEqualTo(1);
+    }
+
+    @Test
+    void should_invalidate_cached_status_when_the_event_changes() {
+        Long meetupEventId = meetupSubscribe.registerMeetupEvent("Coding dojo session 1", 1, LocalDateTime.of(2019, 6, 15, 20, 0));
+        meetupSubscribe.subscribeUserToMeetupEvent("Alice", meetupEventId);
+        meetupSubscribe.subscribeUserToMeetupEvent("Bob", meetupEventId);
+        meetupSubscribe.getMeetupEventStatus(meetupEventId);
+
+        meetupSubscribe.cancelUserSubscription("Alice", meetupEventId);
+        MeetupEventStatusDto afterCancel = meetupSubscribe.getMeetupEventStatus(meetupEventId);
+        meetupSubscribe.increaseCapacity(meetupEventId, 3);
+        MeetupEventStatusDto afterIncrease = meetupSubscribe.getMeetupEventStatus(meetupEventId);
+
+        assertThat(afterCancel.participants).containsExactly("Bob");
+        assertThat(afterIncrease.eventCapacity).isEqualTo(3);
+        assertThat(statusCache.stats().missCount()).isEqualTo(3);
+    }
+
+    @Test
+    void should_give_each_caller_its_own_status_instance() {
+        Long meetupEventId = meetupSubscribe.registerMeetupEvent("Coding dojo session 1", 2, LocalDateTime.of(2019, 6, 15, 20, 0));
+
+        meetupSubscribe.getMeetupEventStatus(meetupEventId).eventName = "Modified by a caller";
+
+        assertThat(meetupSubscribe.getMeetupEventStatus(meetupEventId).eventName).isEqualTo("Coding dojo session 1");
+    }
+
+    @Test
+    void should_load_only_once_for_concurrent_misses_on_the_same_event() throws Exception {
+        int threads = 8;
+        AtomicInteger loads = new AtomicInteger();
+        CountDownLatch loading = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<MeetupEventStatusDto>> futures = new ArrayList<>();
+            for (int i = 0; i < threads; i++) {
+                futures.add(executor.submit(() -> statusCache.get(42L, id -> {
+                    loads.incrementAndGet();
+                    loading.countDown();
+                    await(release);
+                    MeetupEventStatusDto meetupEventStatusDto = new MeetupEventStatusDto();
+                    meetupEventStatusDto.meetupId = id;
+                    meetupEventStatusDto.participants = new ArrayList<>();
+                    meetupEventStatusDto.waitingList = new ArrayList<>();
+                    return meetupEventStatusDto;
+                })));
+            }
+            loading.await(10, TimeUnit.SECONDS);
+            Thread.sleep(50);
+            release.countDown();
+
+            for (Future<MeetupEventStatusDto> future : futures) {
+                assertThat(future.get(10, TimeUnit.SECONDS).meetupId).isEqualTo(42L);
+            }
+            assertThat(loads).hasValue(1);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
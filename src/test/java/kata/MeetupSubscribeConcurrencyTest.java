@@ -0,0 +1,102 @@
+package kata;
+
+import kata.dbtestutil.MemoryDbTestContext;
+import kata.persistence.MeetupEventDao;
+import kata.persistence.MeetupEventRepository;
+import kata.persistence.MeetupSubscriptionDao;
+import org.jdbi.v3.core.Jdbi;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class MeetupSubscribeConcurrencyTest {
+
+    private static final int THREADS = 16;
+    private static final int USERS_PER_THREAD = 10;
+
+    private MeetupSubscribe meetupSubscribe;
+    private MemoryDbTestContext memoryDbTestContext;
+    private ExecutorService executor;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        memoryDbTestContext = MemoryDbTestContext.openWithSql("/setup.sql");
+        Jdbi jdbi = memoryDbTestContext.getJdbi();
+        meetupSubscribe = MeetupSubscribe.builder(new MeetupSubscriptionDao(jdbi), new MeetupEventDao(jdbi),
+                new MeetupEventRepository(jdbi))
+                .retryPolicy(new RetryPolicy(1000, Duration.ofMillis(1)))
+                .build();
+        executor = Executors.newFixedThreadPool(THREADS);
+    }
+
+    @AfterEach
+    void tearDown() throws InterruptedException {
+        executor.shutdownNow();
+        executor.awaitTermination(10, TimeUnit.SECONDS);
+        memoryDbTestContext.close();
+    }
+
+    private void runConcurrently(ThreadTask task) throws Exception {
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int thread = 0; thread < THREADS; thread++) {
+            int threadIndex = thread;
+            futures.add(executor.submit(() -> {
+                start.await();
+                task.run(threadIndex);
+                return null;
+            }));
+        }
+        start.countDown();
+        for (Future<?> future : futures) {
+            future.get(60, TimeUnit.SECONDS);
+        }
+    }
+
+    @Test
+    void should_never_overbook_an_event_under_concurrent_subscriptions() throws Exception {
+        int capacity = 25;
+        Long meetupEventId = meetupSubscribe.registerMeetupEvent("Hot event", capacity, LocalDateTime.of(2019, 6, 15, 20, 0));
+
+        runConcurrently(thread -> {
+            for (int i = 0; i < USERS_PER_THREAD; i++) {
+                meetupSubscribe.subscribeUserToMeetupEvent("user-" + thread + "-" + i, meetupEventId);
+            }
+        });
+
+        MeetupEventStatusDto meetupEventStatus = meetupSubscribe.getMeetupEventStatus(meetupEventId);
+        assertThat(meetupEventStatus.participants).hasSize(capacity);
+        assertThat(meetupEventStatus.waitingList).hasSize(THREADS * USERS_PER_THREAD - capacity);
+    }
+
+    @Test
+    void should_promote_each_waiting_user_once_under_concurrent_cancellations() throws Exception {
+        int capacity = THREADS;
+        Long meetupEventId = meetupSubscribe.registerMeetupEvent("Hot event", capacity, LocalDateTime.of(2019, 6, 15, 20, 0));
+        for (int i = 0; i < capacity + THREADS; i++) {
+            meetupSubscribe.subscribeUserToMeetupEvent("user-" + i, meetupEventId);
+        }
+
+        runConcurrently(thread -> meetupSubscribe.cancelUserSubscription("user-" + thread, meetupEventId));
+
+        MeetupEventStatusDto meetupEventStatus = meetupSubscribe.getMeetupEventStatus(meetupEventId);
+        assertThat(meetupEventStatus.participants).hasSize(capacity).doesNotHaveDuplicates();
+        assertThat(meetupEventStatus.waitingList).isEmpty();
+    }
+
+    private interface ThreadTask {
+        void run(int threadIndex);
+    }
+}
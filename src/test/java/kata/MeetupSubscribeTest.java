@@ -2,6 +2,7 @@ package kata;
 
 import kata.dbtestutil.MemoryDbTestContext;
 import kata.persistence.MeetupEventDao;
+import kata.persistence.MeetupEventRepository;
 import kata.persistence.MeetupSubscriptionDao;
 import org.assertj.core.api.Assertions;
 import org.jdbi.v3.core.Jdbi;
@@ -10,8 +11,13 @@ import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
 
+import static java.util.Arrays.asList;
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.entry;
 
 public class MeetupSubscribeTest {
 
@@ -24,7 +30,8 @@ public class MeetupSubscribeTest {
         Jdbi jdbi = memoryDbTestContext.getJdbi();
         MeetupSubscriptionDao meetupSubscriptionDao = new MeetupSubscriptionDao(jdbi);
         MeetupEventDao meetupEventDao = new MeetupEventDao(jdbi);
-        meetupSubscribe = new MeetupSubscribe(meetupSubscriptionDao, meetupEventDao);
+        MeetupEventRepository meetupEventRepository = new MeetupEventRepository(jdbi);
+        meetupSubscribe = new MeetupSubscribe(meetupSubscriptionDao, meetupEventDao, meetupEventRepository);
     }
 
     @AfterEach
@@ -47,6 +54,39 @@ public class MeetupSubscribeTest {
         assertThat(meetupEventStatus.waitingList).isEmpty();
     }
 
+    @Test
+    void should_register_a_series_of_meetup_events() {
+        LocalDateTime firstStartTime = LocalDateTime.of(2019, 6, 15, 20, 0);
+        List<LocalDateTime> startTimes = asList(firstStartTime, firstStartTime.plusWeeks(1), firstStartTime.plusWeeks(2));
+
+        List<Long> meetupEventIds = meetupSubscribe.registerMeetupEvents("Coding dojo", 20, startTimes);
+
+        assertThat(meetupEventIds).hasSize(3).doesNotHaveDuplicates();
+        for (int i = 0; i < startTimes.size(); i++) {
+            MeetupEventStatusDto meetupEventStatus = meetupSubscribe.getMeetupEventStatus(meetupEventIds.get(i));
+            assertThat(meetupEventStatus.eventName).isEqualTo("Coding dojo");
+            assertThat(meetupEventStatus.eventCapacity).isEqualTo(20);
+            assertThat(meetupEventStatus.startTime).isEqualTo(startTimes.get(i));
+        }
+    }
+
+    @Test
+    void should_give_statuses_of_several_meetup_events_in_the_order_of_their_ids() {
+        Long firstMeetupEventId = registerAMeetupWithCapacity(1);
+        Long secondMeetupEventId = registerAMeetupWithCapacity(2);
+        meetupSubscribe.subscribeUsersToMeetupEvent(asList("Alice", "Bob"), firstMeetupEventId);
+        meetupSubscribe.subscribeUserToMeetupEvent("Charles", secondMeetupEventId);
+
+        Map<Long, MeetupEventStatusDto> meetupEventStatuses = meetupSubscribe.getMeetupEventStatuses(
+                asList(secondMeetupEventId, 42L, firstMeetupEventId));
+
+        assertThat(meetupEventStatuses.keySet()).containsExactly(secondMeetupEventId, firstMeetupEventId);
+        assertThat(meetupEventStatuses.get(firstMeetupEventId).participants).containsExactly("Alice");
+        assertThat(meetupEventStatuses.get(firstMeetupEventId).waitingList).containsExactly("Bob");
+        assertThat(meetupEventStatuses.get(secondMeetupEventId).participants).containsExactly("Charles");
+        assertThat(meetupEventStatuses.get(secondMeetupEventId).eventCapacity).isEqualTo(2);
+    }
+
     private Long registerAMeetupWithCapacity(int eventCapacity) {
         LocalDateTime startTime = LocalDateTime.of(2019, 6, 15, 20, 0);
         return meetupSubscribe.registerMeetupEvent("Coding dojo session 1", eventCapacity, startTime);
@@ -137,4 +177,110 @@ public class MeetupSubscribeTest {
         assertThat(meetupEventStatus.waitingList).containsExactly("Emily");
     }
 
+    @Test
+    void should_subscribe_a_batch_of_users_in_order_and_put_the_overflow_in_waiting_list() {
+        Long meetupEventId = registerAMeetupWithCapacity(3);
+        meetupSubscribe.subscribeUserToMeetupEvent("Alice", meetupEventId);
+
+        Map<String, SubscribeResult> results = meetupSubscribe.subscribeUsersToMeetupEvent(
+                asList("Bob", "Alice", "Charles", "David", "Emily", "Bob"), meetupEventId);
+
+        assertThat(results).containsExactly(
+                entry("Bob", SubscribeResult.PARTICIPANT),
+                entry("Alice", SubscribeResult.ALREADY_SUBSCRIBED),
+                entry("Charles", SubscribeResult.PARTICIPANT),
+                entry("David", SubscribeResult.WAITING_LIST),
+                entry("Emily", SubscribeResult.WAITING_LIST));
+        MeetupEventStatusDto meetupEventStatus = meetupSubscribe.getMeetupEventStatus(meetupEventId);
+        assertThat(meetupEventStatus.participants).containsExactly("Alice", "Bob", "Charles");
+        assertThat(meetupEventStatus.waitingList).containsExactly("David", "Emily");
+    }
+
+    @Test
+    void should_cancel_a_batch_of_users_and_promote_from_waiting_list_in_order() {
+        Long meetupEventId = registerAMeetupWithCapacity(2);
+        meetupSubscribe.subscribeUsersToMeetupEvent(asList("Alice", "Bob", "Charles", "David", "Emily"), meetupEventId);
+
+        Map<String, CancelResult> results = meetupSubscribe.cancelUserSubscriptions(
+                asList("Alice", "Charles", "Frank"), meetupEventId);
+
+        assertThat(results).containsExactly(
+                entry("Alice", CancelResult.CANCELLED),
+                entry("Charles", CancelResult.CANCELLED),
+                entry("Frank", CancelResult.NOT_SUBSCRIBED));
+        MeetupEventStatusDto meetupEventStatus = meetupSubscribe.getMeetupEventStatus(meetupEventId);
+        assertThat(meetupEventStatus.participants).containsExactly("Bob", "David");
+        assertThat(meetupEventStatus.waitingList).containsExactly("Emily");
+    }
+
+    @Test
+    void should_give_counts_and_remaining_capacity_of_meetup_event() {
+        Long meetupEventId = registerAMeetupWithCapacity(3);
+        meetupSubscribe.subscribeUsersToMeetupEvent(asList("Alice", "Bob"), meetupEventId);
+
+        MeetupEventCountsDto meetupEventCounts = meetupSubscribe.getMeetupEventCounts(meetupEventId);
+        assertThat(meetupEventCounts.eventCapacity).isEqualTo(3);
+        assertThat(meetupEventCounts.participantCount).isEqualTo(2);
+        assertThat(meetupEventCounts.waitingListCount).isZero();
+        assertThat(meetupEventCounts.remainingCapacity).isEqualTo(1);
+
+        meetupSubscribe.subscribeUsersToMeetupEvent(asList("Charles", "David", "Emily"), meetupEventId);
+
+        meetupEventCounts = meetupSubscribe.getMeetupEventCounts(meetupEventId);
+        assertThat(meetupEventCounts.remainingCapacity).isZero();
+        assertThat(meetupEventCounts.waitingListCount).isEqualTo(2);
+        assertThat(meetupSubscribe.getMeetupEventCounts(42L)).isNull();
+    }
+
+    @Test
+    void should_give_status_and_waiting_list_position_of_a_user() {
+        Long meetupEventId = registerAMeetupWithCapacity(1);
+        meetupSubscribe.subscribeUsersToMeetupEvent(asList("Alice", "Bob", "Charles"), meetupEventId);
+
+        UserSubscriptionStatusDto alice = meetupSubscribe.getUserSubscriptionStatus("Alice", meetupEventId);
+        UserSubscriptionStatusDto charles = meetupSubscribe.getUserSubscriptionStatus("Charles", meetupEventId);
+        UserSubscriptionStatusDto david = meetupSubscribe.getUserSubscriptionStatus("David", meetupEventId);
+
+        assertThat(alice.status).isEqualTo(UserSubscriptionStatus.PARTICIPANT);
+        assertThat(alice.waitingListPosition).isNull();
+        assertThat(charles.status).isEqualTo(UserSubscriptionStatus.WAITING_LIST);
+        assertThat(charles.waitingListPosition).isEqualTo(2);
+        assertThat(david.status).isEqualTo(UserSubscriptionStatus.NOT_SUBSCRIBED);
+
+        meetupSubscribe.cancelUserSubscription("Alice", meetupEventId);
+
+        assertThat(meetupSubscribe.getUserSubscriptionStatus("Charles", meetupEventId).waitingListPosition).isEqualTo(1);
+    }
+
+    @Test
+    void should_page_through_participants_and_waiting_list_with_a_cursor() {
+        Long meetupEventId = registerAMeetupWithCapacity(3);
+        meetupSubscribe.subscribeUsersToMeetupEvent(asList("Alice", "Bob", "Charles", "David", "Emily"), meetupEventId);
+
+        SubscriptionPageDto firstPage = meetupSubscribe.getParticipantsPage(meetupEventId, null, 2);
+        SubscriptionPageDto secondPage = meetupSubscribe.getParticipantsPage(meetupEventId,
+                SubscriptionCursor.fromToken(firstPage.nextCursor.toToken()), 2);
+        SubscriptionPageDto waitingList = meetupSubscribe.getWaitingListPage(meetupEventId, null, 2);
+
+        assertThat(firstPage.userIds).containsExactly("Alice", "Bob");
+        assertThat(secondPage.userIds).containsExactly("Charles");
+        assertThat(secondPage.nextCursor).isNull();
+        assertThat(waitingList.userIds).containsExactly("David", "Emily");
+        assertThat(waitingList.nextCursor).isNull();
+    }
+
+    @Test
+    void should_stream_participants_and_waiting_list_in_registration_order() {
+        Long meetupEventId = registerAMeetupWithCapacity(2);
+        meetupSubscribe.subscribeUsersToMeetupEvent(asList("Alice", "Bob", "Charles"), meetupEventId);
+        List<String> participants = new ArrayList<>();
+        List<String> waitingList = new ArrayList<>();
+
+        meetupSubscribe.useParticipantsStream(meetupEventId, stream -> stream.forEach(participants::add));
+        meetupSubscribe.useWaitingListStream(meetupEventId, stream -> stream.forEach(waitingList::add));
+
+        assertThat(participants).containsExactly("Alice", "Bob");
+        assertThat(waitingList).containsExactly("Charles");
+    }
+
 }
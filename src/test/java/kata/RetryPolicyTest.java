@@ -0,0 +1,29 @@
+package kata;
+
+import kata.persistence.ConcurrentMeetupEventUpdateException;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class RetryPolicyTest {
+
+    @Test
+    void should_wait_a_backoff_shorter_than_a_millisecond_before_retrying() {
+        RetryPolicy retryPolicy = new RetryPolicy(2, Duration.ofNanos(500_000));
+        AtomicInteger attempts = new AtomicInteger();
+        long start = System.nanoTime();
+
+        String result = retryPolicy.execute(() -> {
+            if (attempts.incrementAndGet() == 1) {
+                throw new ConcurrentMeetupEventUpdateException(1L, 0);
+            }
+            return "saved";
+        });
+
+        assertThat(result).isEqualTo("saved");
+        assertThat(System.nanoTime() - start).isGreaterThanOrEqualTo(500_000);
+    }
+}
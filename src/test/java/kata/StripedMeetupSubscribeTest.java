@@ -0,0 +1,175 @@
+package kata;
+
+import kata.dbtestutil.MemoryDbTestContext;
+import kata.persistence.MeetupEventDao;
+import kata.persistence.MeetupEventRepository;
+import kata.persistence.MeetupSubscriptionDao;
+import org.jdbi.v3.core.Jdbi;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class StripedMeetupSubscribeTest {
+
+    private MemoryDbTestContext memoryDbTestContext;
+    private MeetupSubscriptionDao meetupSubscriptionDao;
+    private MeetupEventDao meetupEventDao;
+    private MeetupEventRepository meetupEventRepository;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        memoryDbTestContext = MemoryDbTestContext.openWithSql("/setup.sql");
+        Jdbi jdbi = memoryDbTestContext.getJdbi();
+        meetupSubscriptionDao = new MeetupSubscriptionDao(jdbi);
+        meetupEventDao = new MeetupEventDao(jdbi);
+        meetupEventRepository = new MeetupEventRepository(jdbi);
+    }
+
+    @AfterEach
+    void tearDown() {
+        memoryDbTestContext.close();
+    }
+
+    @Test
+    void should_apply_concurrent_changes_of_an_event_without_conflicts() {
+        MeetupSubscribe meetupSubscribe = MeetupSubscribe.builder(meetupSubscriptionDao, meetupEventDao, meetupEventRepository)
+                .retryPolicy(RetryPolicy.NO_RETRY)
+                .build();
+        Long meetupEventId = meetupSubscribe.registerMeetupEvent("Hot event", 25, LocalDateTime.of(2019, 6, 15, 20, 0));
+        Long otherMeetupEventId = meetupSubscribe.registerMeetupEvent("Other event", 25, LocalDateTime.of(2019, 6, 15, 20, 0));
+
+        List<CompletableFuture<SubscribeResult>> subscriptions = new ArrayList<>();
+        try (StripedMeetupSubscribe stripedMeetupSubscribe = new StripedMeetupSubscribe(meetupSubscribe, 4, 8)) {
+            List<Thread> threads = new ArrayList<>();
+            for (int thread = 0; thread < 8; thread++) {
+                int threadIndex = thread;
+                threads.add(new Thread(() -> {
+                    for (int i = 0; i < 10; i++) {
+                        String userId = "user-" + threadIndex + "-" + i;
+                        synchronized (subscriptions) {
+                            subscriptions.add(stripedMeetupSubscribe.subscribeUserToMeetupEvent(userId, meetupEventId));
+                            subscriptions.add(stripedMeetupSubscribe.subscribeUserToMeetupEvent(userId, otherMeetupEventId));
+                        }
+                    }
+                }));
+            }
+            threads.forEach(Thread::start);
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            CompletableFuture.allOf(subscriptions.toArray(new CompletableFuture<?>[0])).get(30, TimeUnit.SECONDS);
+        } catch (Exception e) {
+            throw new AssertionError(e);
+        }
+
+        assertThat(subscriptions).extracting(CompletableFuture::join)
+                .filteredOn(result -> result == SubscribeResult.PARTICIPANT).hasSize(50);
+        for (Long id : new Long[]{meetupEventId, otherMeetupEventId}) {
+            MeetupEventStatusDto meetupEventStatus = meetupSubscribe.getMeetupEventStatus(id);
+            assertThat(meetupEventStatus.participants).hasSize(25);
+            assertThat(meetupEventStatus.waitingList).hasSize(55);
+        }
+    }
+
+    @Test
+    void should_fail_only_the_change_that_fails_in_a_group() {
+        MeetupSubscribe meetupSubscribe = new MeetupSubscribe(meetupSubscriptionDao, meetupEventDao, meetupEventRepository);
+        Long meetupEventId = meetupSubscribe.registerMeetupEvent("Coding dojo session 1", 1, LocalDateTime.of(2019, 6, 15, 20, 0));
+
+        try (StripedMeetupSubscribe stripedMeetupSubscribe = new StripedMeetupSubscribe(meetupSubscribe, 1, 8)) {
+            CompletableFuture<SubscribeResult> alice = stripedMeetupSubscribe.subscribeUserToMeetupEvent("Alice", meetupEventId);
+            CompletableFuture<SubscribeResult> aliceAgain = stripedMeetupSubscribe.subscribeUserToMeetupEvent("Alice", meetupEventId);
+            CompletableFuture<Void> bobCancellation = stripedMeetupSubscribe.cancelUserSubscription("Bob", meetupEventId);
+            CompletableFuture<SubscribeResult> charles = stripedMeetupSubscribe.subscribeUserToMeetupEvent("Charles", meetupEventId);
+
+            assertThat(alice.join()).isEqualTo(SubscribeResult.PARTICIPANT);
+            assertThatThrownBy(aliceAgain::join).isInstanceOf(CompletionException.class)
+                    .hasMessageContaining("User Alice already has a subscription");
+            assertThatThrownBy(bobCancellation::join).isInstanceOf(CompletionException.class)
+                    .hasMessageContaining("User Bob has no subscription");
+            assertThat(charles.join()).isEqualTo(SubscribeResult.WAITING_LIST);
+        }
+
+        MeetupEventStatusDto meetupEventStatus = meetupSubscribe.getMeetupEventStatus(meetupEventId);
+        assertThat(meetupEventStatus.participants).containsExactly("Alice");
+        assertThat(meetupEventStatus.waitingList).containsExactly("Charles");
+    }
+
+    @Test
+    void should_keep_the_lane_running_after_an_error() throws Exception {
+        AtomicInteger loadsAndSaves = new AtomicInteger();
+        MeetupSubscribe meetupSubscribe = new MeetupSubscribe(meetupSubscriptionDao, meetupEventDao, meetupEventRepository) {
+            @Override
+            <T> T applyToMeetupEventForUsers(Long meetupEventId, Collection<String> userIds, Function<MeetupEvent, T> command) {
+                if (loadsAndSaves.incrementAndGet() == 1) {
+                    throw new AssertionError("Unexpected state");
+                }
+                return super.applyToMeetupEventForUsers(meetupEventId, userIds, command);
+            }
+        };
+        Long meetupEventId = meetupSubscribe.registerMeetupEvent("Coding dojo session 1", 2, LocalDateTime.of(2019, 6, 15, 20, 0));
+
+        try (StripedMeetupSubscribe stripedMeetupSubscribe = new StripedMeetupSubscribe(meetupSubscribe, 1, 1)) {
+            CompletableFuture<SubscribeResult> alice = stripedMeetupSubscribe.subscribeUserToMeetupEvent("Alice", meetupEventId);
+            CompletableFuture<SubscribeResult> bob = stripedMeetupSubscribe.subscribeUserToMeetupEvent("Bob", meetupEventId);
+
+            assertThatThrownBy(() -> alice.get(10, TimeUnit.SECONDS)).hasCauseInstanceOf(AssertionError.class);
+            assertThat(bob.get(10, TimeUnit.SECONDS)).isEqualTo(SubscribeResult.PARTICIPANT);
+        }
+    }
+
+    @Test
+    void should_group_consecutive_changes_of_an_event_in_one_load_and_save() throws Exception {
+        CountDownLatch firstChangeStarted = new CountDownLatch(1);
+        CountDownLatch releaseFirstChange = new CountDownLatch(1);
+        AtomicInteger loadsAndSaves = new AtomicInteger();
+        MeetupSubscribe meetupSubscribe = new MeetupSubscribe(meetupSubscriptionDao, meetupEventDao, meetupEventRepository) {
+            @Override
+            <T> T applyToMeetupEventForUsers(Long meetupEventId, Collection<String> userIds, Function<MeetupEvent, T> command) {
+                if (loadsAndSaves.incrementAndGet() == 1) {
+                    firstChangeStarted.countDown();
+                    try {
+                        releaseFirstChange.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                return super.applyToMeetupEventForUsers(meetupEventId, userIds, command);
+            }
+        };
+        Long meetupEventId = meetupSubscribe.registerMeetupEvent("Coding dojo session 1", 2, LocalDateTime.of(2019, 6, 15, 20, 0));
+
+        try (StripedMeetupSubscribe stripedMeetupSubscribe = new StripedMeetupSubscribe(meetupSubscribe, 1, 8)) {
+            CompletableFuture<SubscribeResult> first = stripedMeetupSubscribe.subscribeUserToMeetupEvent("Alice", meetupEventId);
+            firstChangeStarted.await(10, TimeUnit.SECONDS);
+            List<CompletableFuture<?>> grouped = new ArrayList<>();
+            grouped.add(stripedMeetupSubscribe.subscribeUserToMeetupEvent("Bob", meetupEventId));
+            grouped.add(stripedMeetupSubscribe.subscribeUserToMeetupEvent("Charles", meetupEventId));
+            grouped.add(stripedMeetupSubscribe.cancelUserSubscription("Alice", meetupEventId));
+            grouped.add(stripedMeetupSubscribe.increaseCapacity(meetupEventId, 3));
+            releaseFirstChange.countDown();
+
+            first.get(10, TimeUnit.SECONDS);
+            CompletableFuture.allOf(grouped.toArray(new CompletableFuture<?>[0])).get(10, TimeUnit.SECONDS);
+        }
+
+        assertThat(loadsAndSaves).hasValue(2);
+        MeetupEventStatusDto meetupEventStatus = meetupSubscribe.getMeetupEventStatus(meetupEventId);
+        assertThat(meetupEventStatus.participants).containsExactly("Bob", "Charles");
+        assertThat(meetupEventStatus.waitingList).isEmpty();
+    }
+}
@@ -0,0 +1,71 @@
+package kata;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class SubscriptionSetTest {
+
+    private static final Instant NOW = Instant.parse("2019-06-01T10:00:00.123456Z");
+
+    @Test
+    void should_find_subscriptions_by_user_id() {
+        SubscriptionSet subscriptionSet = new SubscriptionSet();
+        subscriptionSet.put(new Subscription("Alice", NOW, false));
+        subscriptionSet.put(new Subscription("Bob", NOW.plusSeconds(1), true));
+
+        assertThat(subscriptionSet.size()).isEqualTo(2);
+        assertThat(subscriptionSet.contains("Alice")).isTrue();
+        assertThat(subscriptionSet.contains("Charles")).isFalse();
+        Subscription bob = subscriptionSet.get("Bob");
+        assertThat(bob.getUserId()).isEqualTo("Bob");
+        assertThat(bob.getRegistrationTime()).isEqualTo(NOW.plusSeconds(1));
+        assertThat(bob.isInWaitingList()).isTrue();
+    }
+
+    @Test
+    void should_iterate_in_registration_order_whatever_the_put_order() {
+        SubscriptionSet subscriptionSet = new SubscriptionSet();
+        subscriptionSet.put(new Subscription("Bob", NOW.plusSeconds(1), false));
+        subscriptionSet.put(new Subscription("Charles", NOW.plusSeconds(2), true));
+        subscriptionSet.put(new Subscription("Alice", NOW, false));
+
+        assertThat(subscriptionSet).extracting(Subscription::getUserId).containsExactly("Alice", "Bob", "Charles");
+        assertThat(subscriptionSet.userIds(false)).containsExactly("Alice", "Bob");
+        assertThat(subscriptionSet.userIds(true)).containsExactly("Charles");
+        assertThat(subscriptionSet.get("Bob").isInWaitingList()).isFalse();
+    }
+
+    @Test
+    void should_keep_position_when_moving_a_subscription_out_of_waiting_list() {
+        SubscriptionSet subscriptionSet = new SubscriptionSet();
+        subscriptionSet.put(new Subscription("Alice", NOW, true));
+        subscriptionSet.put(new Subscription("Bob", NOW.plusSeconds(1), true));
+
+        subscriptionSet.put(subscriptionSet.get("Alice").toParticipant());
+
+        assertThat(subscriptionSet).extracting(Subscription::getUserId).containsExactly("Alice", "Bob");
+        assertThat(subscriptionSet.userIds(false)).containsExactly("Alice");
+    }
+
+    @Test
+    void should_remove_and_add_again_many_subscriptions() {
+        SubscriptionSet subscriptionSet = new SubscriptionSet();
+        for (int i = 0; i < 1000; i++) {
+            subscriptionSet.put(new Subscription("user-" + i, NOW.plusMillis(i), i % 2 == 0));
+        }
+        for (int i = 0; i < 1000; i += 3) {
+            assertThat(subscriptionSet.remove("user-" + i)).isNotNull();
+        }
+        assertThat(subscriptionSet.remove("user-0")).isNull();
+        subscriptionSet.put(new Subscription("user-0", NOW.plusSeconds(10), true));
+
+        assertThat(subscriptionSet.size()).isEqualTo(1000 - 334 + 1);
+        assertThat(subscriptionSet.contains("user-3")).isFalse();
+        assertThat(subscriptionSet.contains("user-4")).isTrue();
+        assertThat(subscriptionSet.get("user-4").isInWaitingList()).isTrue();
+        assertThat(subscriptionSet).extracting(Subscription::getUserId).startsWith("user-1", "user-2", "user-4").endsWith("user-998", "user-0");
+    }
+}
@@ -0,0 +1,447 @@
+package kata;
+
+import kata.dbtestutil.MemoryDbTestContext;
+import kata.persistence.ConcurrentMeetupEventUpdateException;
+import kata.persistence.MeetupEventDao;
+import kata.persistence.MeetupEventRepository;
+import kata.persistence.MeetupSubscriptionDao;
+import org.jdbi.v3.core.Jdbi;
+
+import java.io.PrintStream;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Reproduces a ticket release: many users subscribing to and cancelling from a handful of events within seconds,
+ * through {@link MeetupSubscribe} against an in-memory h2 database. The events are picked with a Zipfian skew, so
+ * that the first ones take most of the traffic.
+ * <p>
+ * With an arrival rate, each thread starts its operations on a fixed schedule and their latency is counted from the
+ * scheduled start, so that an operation delayed by the previous ones is not reported faster than it was. The
+ * operations still behind schedule at the end of the duration are not run. Without an arrival rate, each thread
+ * starts its next operation as soon as the previous one completes.
+ * <p>
+ * The throughput is printed every report interval, and the latency percentiles per operation at the end. The events
+ * are then checked for overbooking, for a waiting list registered after every participant as the FIFO promotions
+ * keep it, for counts matching the subscriptions, and for the subscriptions left by the successful operations.
+ * <p>
+ * {@code mvn -P loadtest test-compile exec:exec -Dloadtest.args="duration=30 rate=5000 threads=16"}
+ */
+public class TicketReleaseLoadGenerator {
+
+    public static void main(String[] args) throws Exception {
+        Report report = new TicketReleaseLoadGenerator(Options.parse(args)).run(System.out);
+        report.print(System.out);
+        if (!report.invariantViolations.isEmpty()) {
+            System.exit(1);
+        }
+    }
+
+    public static class Options {
+
+        public int durationSeconds = 30;
+        /**
+         * Operations started per second by all the threads together, 0 to run them back to back.
+         */
+        public int arrivalRate = 2000;
+        public int threads = 16;
+        public int events = 20;
+        public int capacity = 100;
+        public int users = 10_000;
+        public double zipfExponent = 1.1;
+        public double cancelRatio = 0.2;
+        public int reportIntervalSeconds = 1;
+        public long seed = 42;
+
+        /**
+         * Options given as {@code name=value}, for instance {@code rate=5000 zipf-exponent=1.2}.
+         */
+        public static Options parse(String[] args) {
+            Options options = new Options();
+            for (String arg : args) {
+                int separator = arg.indexOf('=');
+                if (separator < 0) {
+                    throw new IllegalArgumentException("Options must be given as name=value, got " + arg);
+                }
+                String value = arg.substring(separator + 1);
+                switch (arg.substring(0, separator)) {
+                    case "duration":
+                        options.durationSeconds = Integer.parseInt(value);
+                        break;
+                    case "rate":
+                        options.arrivalRate = Integer.parseInt(value);
+                        break;
+                    case "threads":
+                        options.threads = Integer.parseInt(value);
+                        break;
+                    case "events":
+                        options.events = Integer.parseInt(value);
+                        break;
+                    case "capacity":
+                        options.capacity = Integer.parseInt(value);
+                        break;
+                    case "users":
+                        options.users = Integer.parseInt(value);
+                        break;
+                    case "zipf-exponent":
+                        options.zipfExponent = Double.parseDouble(value);
+                        break;
+                    case "cancel-ratio":
+                        options.cancelRatio = Double.parseDouble(value);
+                        break;
+                    case "report-interval":
+                        options.reportIntervalSeconds = Integer.parseInt(value);
+                        break;
+                    case "seed":
+                        options.seed = Long.parseLong(value);
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Unknown option " + arg);
+                }
+            }
+            return options;
+        }
+    }
+
+    public static class Report {
+
+        public final Map<String, OperationReport> operations = new LinkedHashMap<>();
+        public final List<String> invariantViolations = new ArrayList<>();
+        public long durationNanos;
+
+        void print(PrintStream out) {
+            double seconds = durationNanos / 1e9;
+            out.printf("%-10s %10s %10s %10s %10s %10s %10s %10s %10s %10s%n",
+                    "operation", "ok", "rejected", "conflicts", "errors", "ops/s", "p50 us", "p99 us", "p999 us", "max us");
+            operations.forEach((operation, operationReport) -> out.printf("%-10s %10d %10d %10d %10d %10.0f %10.1f %10.1f %10.1f %10.1f%n",
+                    operation, operationReport.ok, operationReport.rejected, operationReport.conflicts, operationReport.errors,
+                    operationReport.latency.count / seconds,
+                    operationReport.latency.p50Nanos / 1e3, operationReport.latency.p99Nanos / 1e3,
+                    operationReport.latency.p999Nanos / 1e3, operationReport.latency.maxNanos / 1e3));
+            operations.forEach((operation, operationReport) -> {
+                if (operationReport.firstError != null) {
+                    out.println("First " + operation + " error:");
+                    operationReport.firstError.printStackTrace(out);
+                }
+            });
+            if (invariantViolations.isEmpty()) {
+                out.println("All invariants hold");
+            } else {
+                invariantViolations.forEach(violation -> out.println("VIOLATION " + violation));
+            }
+        }
+    }
+
+    public static class OperationReport {
+
+        public long ok;
+        /**
+         * Rejected by the event, a subscription already made or a cancellation of a user not subscribed.
+         */
+        public long rejected;
+        /**
+         * Still failing on a concurrent update once the retries were exhausted.
+         */
+        public long conflicts;
+        /**
+         * Failed for any other reason, the first failure being kept to be reported.
+         */
+        public long errors;
+        public RuntimeException firstError;
+        public TimingStatsDto latency;
+    }
+
+    private final Options options;
+    private final Map<String, OperationStats> operationStats = new LinkedHashMap<>();
+    private final List<LoadedEvent> loadedEvents = new ArrayList<>();
+    private MeetupSubscribe meetupSubscribe;
+    private MeetupEventRepository meetupEventRepository;
+
+    public TicketReleaseLoadGenerator(Options options) {
+        if (options.threads < 1 || options.events < 1 || options.users < 1) {
+            throw new IllegalArgumentException("Threads, events and users must be at least 1");
+        }
+        this.options = options;
+        operationStats.put("subscribe", new OperationStats());
+        operationStats.put("cancel", new OperationStats());
+    }
+
+    /**
+     * Runs the load on a fresh database, printing the throughput on the given stream as it goes.
+     */
+    public Report run(PrintStream progress) throws Exception {
+        MemoryDbTestContext memoryDbTestContext = MemoryDbTestContext.openWithSql("/setup.sql", "ticket-release");
+        try {
+            Jdbi jdbi = memoryDbTestContext.getJdbi();
+            meetupEventRepository = new MeetupEventRepository(jdbi);
+            meetupSubscribe = new MeetupSubscribe(new MeetupSubscriptionDao(jdbi), new MeetupEventDao(jdbi), meetupEventRepository);
+            for (int i = 0; i < options.events; i++) {
+                Long meetupEventId = meetupSubscribe.registerMeetupEvent("Ticket release " + i, options.capacity,
+                        LocalDateTime.now().plusMonths(1));
+                loadedEvents.add(new LoadedEvent(meetupEventId));
+            }
+
+            Report report = new Report();
+            report.durationNanos = generateLoad(progress);
+            operationStats.forEach((operation, stats) -> report.operations.put(operation, stats.toReport()));
+            checkInvariants(report.invariantViolations);
+            return report;
+        } finally {
+            memoryDbTestContext.close();
+        }
+    }
+
+    private long generateLoad(PrintStream progress) throws Exception {
+        ZipfianDistribution eventDistribution = new ZipfianDistribution(options.events, options.zipfExponent);
+        long start = System.nanoTime();
+        long deadline = start + TimeUnit.SECONDS.toNanos(options.durationSeconds);
+        long intervalNanos = options.arrivalRate == 0 ? 0 : TimeUnit.SECONDS.toNanos(options.threads) / options.arrivalRate;
+
+        ScheduledExecutorService reporter = Executors.newSingleThreadScheduledExecutor();
+        ThroughputReporter throughputReporter = new ThroughputReporter(progress, start);
+        reporter.scheduleAtFixedRate(throughputReporter, options.reportIntervalSeconds, options.reportIntervalSeconds, TimeUnit.SECONDS);
+        ExecutorService workers = Executors.newFixedThreadPool(options.threads);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < options.threads; i++) {
+                SplittableRandom random = new SplittableRandom(options.seed + i);
+                long firstStart = start + (intervalNanos * i) / options.threads;
+                futures.add(workers.submit(() -> runWorker(random, eventDistribution, firstStart, intervalNanos, deadline)));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            workers.shutdown();
+            reporter.shutdown();
+        }
+        return System.nanoTime() - start;
+    }
+
+    private void runWorker(SplittableRandom random, ZipfianDistribution eventDistribution, long firstStart,
+                           long intervalNanos, long deadline) {
+        long scheduledStart = firstStart;
+        while (true) {
+            long now = System.nanoTime();
+            if (now >= deadline || scheduledStart >= deadline) {
+                return;
+            }
+            if (intervalNanos > 0 && scheduledStart > now) {
+                LockSupport.parkNanos(scheduledStart - now);
+            }
+            long operationStart = intervalNanos > 0 ? scheduledStart : System.nanoTime();
+
+            LoadedEvent loadedEvent = loadedEvents.get(eventDistribution.next(random));
+            String cancelledUserId = random.nextDouble() < options.cancelRatio ? loadedEvent.removeRandomUser(random) : null;
+            if (cancelledUserId != null) {
+                cancel(loadedEvent, cancelledUserId, operationStart);
+            } else {
+                subscribe(loadedEvent, "user-" + random.nextInt(options.users), operationStart);
+            }
+            scheduledStart += intervalNanos;
+        }
+    }
+
+    private void subscribe(LoadedEvent loadedEvent, String userId, long operationStart) {
+        OperationStats stats = operationStats.get("subscribe");
+        try {
+            meetupSubscribe.subscribeUserToMeetupEvent(userId, loadedEvent.meetupEventId);
+            loadedEvent.addUser(userId);
+            stats.ok.increment();
+        } catch (ConcurrentMeetupEventUpdateException e) {
+            stats.conflicts.increment();
+        } catch (IllegalArgumentException | IllegalStateException e) {
+            stats.rejected.increment();
+        } catch (RuntimeException e) {
+            stats.recordError(e);
+        }
+        stats.latency.record(System.nanoTime() - operationStart);
+    }
+
+    private void cancel(LoadedEvent loadedEvent, String userId, long operationStart) {
+        OperationStats stats = operationStats.get("cancel");
+        try {
+            meetupSubscribe.cancelUserSubscription(userId, loadedEvent.meetupEventId);
+            stats.ok.increment();
+        } catch (ConcurrentMeetupEventUpdateException e) {
+            loadedEvent.addUser(userId);
+            stats.conflicts.increment();
+        } catch (IllegalArgumentException | IllegalStateException e) {
+            loadedEvent.addUser(userId);
+            stats.rejected.increment();
+        } catch (RuntimeException e) {
+            loadedEvent.addUser(userId);
+            stats.recordError(e);
+        }
+        stats.latency.record(System.nanoTime() - operationStart);
+    }
+
+    private void checkInvariants(List<String> violations) {
+        for (LoadedEvent loadedEvent : loadedEvents) {
+            MeetupEvent meetupEvent = meetupEventRepository.findById(loadedEvent.meetupEventId);
+            List<Subscription> participants = meetupEvent.getParticipants();
+            List<Subscription> waitingList = meetupEvent.getWaitingList();
+            String prefix = "Event " + loadedEvent.meetupEventId + ": ";
+
+            if (participants.size() > meetupEvent.getCapacity()) {
+                violations.add(prefix + participants.size() + " participants for a capacity of " + meetupEvent.getCapacity());
+            }
+            if (!waitingList.isEmpty() && participants.size() < meetupEvent.getCapacity()) {
+                violations.add(prefix + "waiting list of " + waitingList.size() + " with free places");
+            }
+            Instant lastParticipantTime = participants.stream().map(Subscription::getRegistrationTime).max(Instant::compareTo).orElse(Instant.MIN);
+            Instant firstWaitingTime = waitingList.stream().map(Subscription::getRegistrationTime).min(Instant::compareTo).orElse(Instant.MAX);
+            if (!lastParticipantTime.isBefore(firstWaitingTime)) {
+                violations.add(prefix + "waiting list user registered at " + firstWaitingTime
+                        + " is behind a participant registered at " + lastParticipantTime);
+            }
+            if (meetupEvent.getParticipantCount() != participants.size() || meetupEvent.getWaitingListCount() != waitingList.size()) {
+                violations.add(prefix + "counts " + meetupEvent.getParticipantCount() + "/" + meetupEvent.getWaitingListCount()
+                        + " but " + participants.size() + "/" + waitingList.size() + " subscriptions");
+            }
+            List<String> expectedUserIds = loadedEvent.sortedUserIds();
+            List<String> actualUserIds = new ArrayList<>(meetupEvent.getParticipantIds());
+            actualUserIds.addAll(meetupEvent.getWaitingListIds());
+            Collections.sort(actualUserIds);
+            if (!expectedUserIds.equals(actualUserIds)) {
+                violations.add(prefix + expectedUserIds.size() + " subscriptions made and not cancelled, but "
+                        + actualUserIds.size() + " stored");
+            }
+        }
+    }
+
+    private static class OperationStats {
+
+        private final LongAdder ok = new LongAdder();
+        private final LongAdder rejected = new LongAdder();
+        private final LongAdder conflicts = new LongAdder();
+        private final LongAdder errors = new LongAdder();
+        private final AtomicReference<RuntimeException> firstError = new AtomicReference<>();
+        private final LatencyHistogram latency = new LatencyHistogram();
+
+        private void recordError(RuntimeException e) {
+            errors.increment();
+            firstError.compareAndSet(null, e);
+        }
+
+        private OperationReport toReport() {
+            OperationReport operationReport = new OperationReport();
+            operationReport.ok = ok.sum();
+            operationReport.rejected = rejected.sum();
+            operationReport.conflicts = conflicts.sum();
+            operationReport.errors = errors.sum();
+            operationReport.firstError = firstError.get();
+            operationReport.latency = latency.toTimingStats();
+            return operationReport;
+        }
+    }
+
+    /**
+     * The users the load subscribed to the event and did not cancel yet, so that cancellations hit subscribed users.
+     */
+    private static class LoadedEvent {
+
+        private final Long meetupEventId;
+        private final List<String> userIds = new ArrayList<>();
+
+        private LoadedEvent(Long meetupEventId) {
+            this.meetupEventId = meetupEventId;
+        }
+
+        private synchronized void addUser(String userId) {
+            userIds.add(userId);
+        }
+
+        private synchronized String removeRandomUser(SplittableRandom random) {
+            if (userIds.isEmpty()) {
+                return null;
+            }
+            int index = random.nextInt(userIds.size());
+            String userId = userIds.get(index);
+            userIds.set(index, userIds.get(userIds.size() - 1));
+            userIds.remove(userIds.size() - 1);
+            return userId;
+        }
+
+        private synchronized List<String> sortedUserIds() {
+            List<String> sorted = new ArrayList<>(userIds);
+            Collections.sort(sorted);
+            return sorted;
+        }
+    }
+
+    /**
+     * Index from 0 to n - 1 drawn with a probability proportional to 1 / (index + 1)^exponent, by binary search in
+     * the cumulative distribution.
+     */
+    static class ZipfianDistribution {
+
+        private final double[] cumulativeProbabilities;
+
+        ZipfianDistribution(int n, double exponent) {
+            cumulativeProbabilities = new double[n];
+            double total = 0;
+            for (int i = 0; i < n; i++) {
+                total += 1 / Math.pow(i + 1, exponent);
+                cumulativeProbabilities[i] = total;
+            }
+            for (int i = 0; i < n; i++) {
+                cumulativeProbabilities[i] /= total;
+            }
+        }
+
+        int next(SplittableRandom random) {
+            double value = random.nextDouble();
+            int low = 0;
+            int high = cumulativeProbabilities.length - 1;
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (cumulativeProbabilities[middle] > value) {
+                    high = middle;
+                } else {
+                    low = middle + 1;
+                }
+            }
+            return low;
+        }
+    }
+
+    private class ThroughputReporter implements Runnable {
+
+        private final PrintStream out;
+        private final long start;
+        private final Map<String, AtomicLong> previousCounts = new LinkedHashMap<>();
+
+        private ThroughputReporter(PrintStream out, long start) {
+            this.out = out;
+            this.start = start;
+            operationStats.keySet().forEach(operation -> previousCounts.put(operation, new AtomicLong()));
+        }
+
+        @Override
+        public void run() {
+            StringBuilder line = new StringBuilder(String.format("%5ds", TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - start)));
+            operationStats.forEach((operation, stats) -> {
+                long count = stats.ok.sum() + stats.rejected.sum() + stats.conflicts.sum() + stats.errors.sum();
+                long delta = count - previousCounts.get(operation).getAndSet(count);
+                line.append(String.format("  %s %d/s", operation, delta / options.reportIntervalSeconds));
+            });
+            out.println(line);
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package kata;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.SplittableRandom;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class TicketReleaseLoadGeneratorTest {
+
+    @Test
+    void should_skew_the_load_towards_the_first_events() {
+        TicketReleaseLoadGenerator.ZipfianDistribution distribution = new TicketReleaseLoadGenerator.ZipfianDistribution(10, 1.1);
+        SplittableRandom random = new SplittableRandom(42);
+        int[] counts = new int[10];
+        for (int i = 0; i < 100_000; i++) {
+            counts[distribution.next(random)]++;
+        }
+
+        assertThat(counts[0]).isGreaterThan(counts[1]);
+        assertThat(counts[1]).isGreaterThan(counts[9]);
+        assertThat(counts[0] / 100_000.0).isBetween(0.30, 0.40);
+    }
+
+    @Test
+    void should_keep_the_invariants_under_a_short_ticket_release() throws Exception {
+        TicketReleaseLoadGenerator.Options options = TicketReleaseLoadGenerator.Options.parse(new String[]{
+                "duration=1", "rate=1000", "threads=4", "events=3", "capacity=5", "users=50", "cancel-ratio=0.3"});
+
+        TicketReleaseLoadGenerator.Report report = new TicketReleaseLoadGenerator(options)
+                .run(new PrintStream(new ByteArrayOutputStream()));
+
+        assertThat(report.invariantViolations).isEmpty();
+        assertThat(report.operations.get("subscribe").ok).isPositive();
+        assertThat(report.operations.get("cancel").ok).isPositive();
+        assertThat(report.operations.get("subscribe").errors).isZero();
+        assertThat(report.operations.get("cancel").errors).isZero();
+        assertThat(report.operations.get("subscribe").latency.p999Nanos)
+                .isGreaterThanOrEqualTo(report.operations.get("subscribe").latency.p50Nanos);
+    }
+}
@@ -0,0 +1,149 @@
+package kata;
+
+import kata.dbtestutil.MemoryDbTestContext;
+import kata.persistence.MeetupEventDao;
+import kata.persistence.MeetupEventRepository;
+import kata.persistence.MeetupSubscriptionDao;
+import kata.persistence.NotificationOutbox;
+import org.jdbi.v3.core.Jdbi;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Assertions.tuple;
+
+public class WaitingListNotificationDispatcherTest {
+
+    private Jdbi jdbi;
+    private MeetupSubscribe meetupSubscribe;
+    private NotificationOutbox outbox;
+    private MemoryDbTestContext memoryDbTestContext;
+    private final List<List<WaitingListNotification>> deliveredBatches = new ArrayList<>();
+
+    @BeforeEach
+    void setUp() throws Exception {
+        memoryDbTestContext = MemoryDbTestContext.openWithSql("/setup.sql");
+        jdbi = memoryDbTestContext.getJdbi();
+        meetupSubscribe = new MeetupSubscribe(new MeetupSubscriptionDao(jdbi), new MeetupEventDao(jdbi),
+                new MeetupEventRepository(jdbi));
+        outbox = new NotificationOutbox(jdbi);
+    }
+
+    @AfterEach
+    void tearDown() {
+        memoryDbTestContext.close();
+    }
+
+    private WaitingListNotificationDispatcher dispatcher(int batchSize, Duration gapTimeout) {
+        return new WaitingListNotificationDispatcher(outbox, "test", batchSize, gapTimeout,
+                notifications -> deliveredBatches.add(new ArrayList<>(notifications)));
+    }
+
+    private Long registerAMeetupWithSubscriptions(int capacity, String... userIds) {
+        Long meetupEventId = meetupSubscribe.registerMeetupEvent("Coding dojo session 1", capacity, LocalDateTime.of(2019, 6, 15, 20, 0));
+        for (String userId : userIds) {
+            meetupSubscribe.subscribeUserToMeetupEvent(userId, meetupEventId);
+        }
+        return meetupEventId;
+    }
+
+    @Test
+    void should_notify_promotions_made_by_cancellations_and_capacity_increases() {
+        Long meetupEventId = registerAMeetupWithSubscriptions(1, "Alice", "Bob", "Charles", "David");
+        meetupSubscribe.cancelUserSubscription("Alice", meetupEventId);
+        meetupSubscribe.increaseCapacity(meetupEventId, 3);
+
+        int dispatched = dispatcher(100, Duration.ofMinutes(1)).dispatchPending();
+
+        assertThat(dispatched).isEqualTo(3);
+        assertThat(deliveredBatches).hasSize(1);
+        assertThat(deliveredBatches.get(0))
+                .extracting(WaitingListNotification::getMeetupEventId, WaitingListNotification::getUserId, WaitingListNotification::getType)
+                .containsExactly(
+                        tuple(meetupEventId, "Bob", WaitingListNotification.Type.PROMOTED),
+                        tuple(meetupEventId, "Charles", WaitingListNotification.Type.PROMOTED),
+                        tuple(meetupEventId, "David", WaitingListNotification.Type.PROMOTED));
+    }
+
+    @Test
+    void should_deliver_in_batches_and_resume_after_the_acknowledged_position() {
+        Long meetupEventId = registerAMeetupWithSubscriptions(0, "Alice", "Bob", "Charles", "David", "Emily");
+        meetupSubscribe.increaseCapacity(meetupEventId, 5);
+        WaitingListNotificationDispatcher dispatcher = dispatcher(2, Duration.ofMinutes(1));
+
+        assertThat(dispatcher.dispatchPending()).isEqualTo(5);
+        assertThat(deliveredBatches).extracting(List::size).containsExactly(2, 2, 1);
+        assertThat(outbox.getAcknowledgedPosition("test")).isEqualTo(deliveredBatches.get(2).get(0).getPosition());
+
+        meetupSubscribe.subscribeUserToMeetupEvent("Fanny", meetupEventId);
+        meetupSubscribe.increaseCapacity(meetupEventId, 6);
+        assertThat(dispatcher.dispatchPending()).isEqualTo(1);
+        assertThat(deliveredBatches.get(3)).extracting(WaitingListNotification::getUserId).containsExactly("Fanny");
+    }
+
+    @Test
+    void should_deliver_again_the_batch_the_listener_failed_on() {
+        Long meetupEventId = registerAMeetupWithSubscriptions(1, "Alice", "Bob");
+        meetupSubscribe.cancelUserSubscription("Alice", meetupEventId);
+        WaitingListNotificationDispatcher failingDispatcher = new WaitingListNotificationDispatcher(outbox, "test",
+                notifications -> {
+                    throw new IllegalStateException("Notification service unavailable");
+                });
+
+        assertThatThrownBy(failingDispatcher::dispatchPending).isInstanceOf(IllegalStateException.class);
+        assertThat(failingDispatcher.getFailedPollCount()).isEqualTo(1);
+
+        assertThat(dispatcher(100, Duration.ofMinutes(1)).dispatchPending()).isEqualTo(1);
+        assertThat(deliveredBatches.get(0)).extracting(WaitingListNotification::getUserId).containsExactly("Bob");
+    }
+
+    @Test
+    void should_count_the_scheduled_polls_the_listener_failed_on() throws InterruptedException {
+        Long meetupEventId = registerAMeetupWithSubscriptions(1, "Alice", "Bob");
+        meetupSubscribe.cancelUserSubscription("Alice", meetupEventId);
+
+        try (WaitingListNotificationDispatcher failingDispatcher = new WaitingListNotificationDispatcher(outbox, "test",
+                notifications -> {
+                    throw new IllegalStateException("Notification service unavailable");
+                })) {
+            failingDispatcher.start(Duration.ofMillis(10));
+            long deadline = System.nanoTime() + Duration.ofSeconds(5).toNanos();
+            while (failingDispatcher.getFailedPollCount() < 2 && System.nanoTime() < deadline) {
+                Thread.sleep(10);
+            }
+
+            assertThat(failingDispatcher.getFailedPollCount()).isGreaterThanOrEqualTo(2);
+        }
+        assertThat(outbox.getAcknowledgedPosition("test")).isZero();
+    }
+
+    @Test
+    void should_wait_for_a_missing_position_until_the_gap_timeout() {
+        insertNotification(1, "Alice");
+        insertNotification(3, "Charles");
+
+        assertThat(dispatcher(100, Duration.ofMinutes(1)).dispatchPending()).isEqualTo(1);
+        assertThat(dispatcher(100, Duration.ZERO).dispatchPending()).isEqualTo(1);
+        assertThat(deliveredBatches).extracting(batch -> batch.get(0).getUserId()).containsExactly("Alice", "Charles");
+    }
+
+    private void insertNotification(long position, String userId) {
+        Long meetupEventId = registerAMeetupWithSubscriptions(1);
+        jdbi.useHandle(handle -> handle.createUpdate("" +
+                "INSERT INTO NOTIFICATION_OUTBOX (position, meetup_event_id, user_id, notification_type, created_at) " +
+                "VALUES (:position, :meetupEventId, :userId, 'PROMOTED', :createdAt)")
+                .bind("position", position)
+                .bind("meetupEventId", meetupEventId)
+                .bind("userId", userId)
+                .bind("createdAt", Instant.now())
+                .execute());
+    }
+}
@@ -0,0 +1,183 @@
+package kata;
+
+import kata.dbtestutil.MemoryDbTestContext;
+import kata.persistence.MeetupEventDao;
+import kata.persistence.MeetupEventRepository;
+import kata.persistence.MeetupSubscriptionDao;
+import org.jdbi.v3.core.Jdbi;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+
+public class WriteBehindMeetupSubscribeTest {
+
+    private MemoryDbTestContext memoryDbTestContext;
+    private MeetupEventRepository meetupEventRepository;
+    private MeetupSubscribe meetupSubscribe;
+    private WriteBehindMeetupSubscribe writeBehindMeetupSubscribe;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        memoryDbTestContext = MemoryDbTestContext.openWithSql("/setup.sql");
+        Jdbi jdbi = memoryDbTestContext.getJdbi();
+        meetupEventRepository = new MeetupEventRepository(jdbi);
+        meetupSubscribe = new MeetupSubscribe(new MeetupSubscriptionDao(jdbi), new MeetupEventDao(jdbi), meetupEventRepository);
+    }
+
+    @AfterEach
+    void tearDown() {
+        if (writeBehindMeetupSubscribe != null) {
+            writeBehindMeetupSubscribe.close();
+        }
+        memoryDbTestContext.close();
+    }
+
+    private void openWriteBehind(Duration flushInterval, int maxPendingChanges) {
+        writeBehindMeetupSubscribe = new WriteBehindMeetupSubscribe(meetupEventRepository, MeetupEventStatusCache.DISABLED,
+                RetryPolicy.DEFAULT, flushInterval, maxPendingChanges);
+    }
+
+    private Long registerAMeetupWithCapacity(int eventCapacity) {
+        return meetupSubscribe.registerMeetupEvent("Coding dojo session 1", eventCapacity, LocalDateTime.of(2019, 6, 15, 20, 0));
+    }
+
+    @Test
+    void should_save_the_net_changes_and_acknowledge_them_only_once_flushed() {
+        openWriteBehind(Duration.ofMinutes(1), 100);
+        Long meetupEventId = registerAMeetupWithCapacity(2);
+
+        CompletableFuture<SubscribeResult> alice = writeBehindMeetupSubscribe.subscribeUserToMeetupEvent("Alice", meetupEventId);
+        CompletableFuture<SubscribeResult> bob = writeBehindMeetupSubscribe.subscribeUserToMeetupEvent("Bob", meetupEventId);
+        CompletableFuture<SubscribeResult> charles = writeBehindMeetupSubscribe.subscribeUserToMeetupEvent("Charles", meetupEventId);
+        CompletableFuture<Void> aliceCancellation = writeBehindMeetupSubscribe.cancelUserSubscription("Alice", meetupEventId);
+
+        assertThat(alice).isNotDone();
+        assertThat(aliceCancellation).isNotDone();
+        assertThat(meetupSubscribe.getMeetupEventStatus(meetupEventId).participants).isEmpty();
+
+        writeBehindMeetupSubscribe.flush();
+
+        assertThat(alice.join()).isEqualTo(SubscribeResult.PARTICIPANT);
+        assertThat(bob.join()).isEqualTo(SubscribeResult.PARTICIPANT);
+        assertThat(charles.join()).isEqualTo(SubscribeResult.WAITING_LIST);
+        assertThat(aliceCancellation).isCompleted();
+        MeetupEventStatusDto meetupEventStatus = meetupSubscribe.getMeetupEventStatus(meetupEventId);
+        assertThat(meetupEventStatus.participants).containsExactly("Bob", "Charles");
+        assertThat(meetupEventStatus.waitingList).isEmpty();
+
+        WriteBehindFlushStatsDto flushStats = writeBehindMeetupSubscribe.getFlushStats();
+        assertThat(flushStats.flushCount).isEqualTo(1);
+        assertThat(flushStats.flushedChanges).isEqualTo(4);
+        assertThat(flushStats.maxFlushSize).isEqualTo(4);
+        assertThat(flushStats.maxFlushNanos).isPositive();
+    }
+
+    @Test
+    void should_reject_a_change_right_away_when_the_event_in_memory_rejects_it() {
+        openWriteBehind(Duration.ofMinutes(1), 100);
+        Long meetupEventId = registerAMeetupWithCapacity(2);
+        writeBehindMeetupSubscribe.subscribeUserToMeetupEvent("Alice", meetupEventId);
+
+        CompletableFuture<SubscribeResult> aliceAgain = writeBehindMeetupSubscribe.subscribeUserToMeetupEvent("Alice", meetupEventId);
+
+        assertThatThrownBy(aliceAgain::join).isInstanceOf(CompletionException.class)
+                .hasMessageContaining("User Alice already has a subscription");
+    }
+
+    @Test
+    void should_flush_when_enough_changes_are_pending_and_at_each_interval() throws Exception {
+        openWriteBehind(Duration.ofMillis(20), 2);
+        Long meetupEventId = registerAMeetupWithCapacity(2);
+
+        CompletableFuture<SubscribeResult> alice = writeBehindMeetupSubscribe.subscribeUserToMeetupEvent("Alice", meetupEventId);
+        CompletableFuture<SubscribeResult> bob = writeBehindMeetupSubscribe.subscribeUserToMeetupEvent("Bob", meetupEventId);
+        CompletableFuture<SubscribeResult> charles = writeBehindMeetupSubscribe.subscribeUserToMeetupEvent("Charles", meetupEventId);
+
+        CompletableFuture.allOf(alice, bob, charles).get(10, TimeUnit.SECONDS);
+        assertThat(meetupSubscribe.getMeetupEventStatus(meetupEventId).waitingList).containsExactly("Charles");
+    }
+
+    @Test
+    void should_apply_pending_changes_again_when_the_event_was_modified_elsewhere() {
+        openWriteBehind(Duration.ofMinutes(1), 100);
+        Long meetupEventId = registerAMeetupWithCapacity(1);
+        CompletableFuture<SubscribeResult> alice = writeBehindMeetupSubscribe.subscribeUserToMeetupEvent("Alice", meetupEventId);
+
+        meetupSubscribe.subscribeUserToMeetupEvent("Bob", meetupEventId);
+        writeBehindMeetupSubscribe.flush();
+
+        assertThat(alice.join()).isEqualTo(SubscribeResult.WAITING_LIST);
+        MeetupEventStatusDto meetupEventStatus = meetupSubscribe.getMeetupEventStatus(meetupEventId);
+        assertThat(meetupEventStatus.participants).containsExactly("Bob");
+        assertThat(meetupEventStatus.waitingList).containsExactly("Alice");
+        assertThat(writeBehindMeetupSubscribe.getFlushStats().conflictCount).isEqualTo(1);
+    }
+
+    @Test
+    void should_not_save_the_reloaded_event_when_it_rejects_every_pending_change() {
+        openWriteBehind(Duration.ofMinutes(1), 100);
+        Long meetupEventId = registerAMeetupWithCapacity(1);
+        CompletableFuture<SubscribeResult> alice = writeBehindMeetupSubscribe.subscribeUserToMeetupEvent("Alice", meetupEventId);
+        meetupSubscribe.subscribeUserToMeetupEvent("Alice", meetupEventId);
+        long version = meetupEventRepository.findById(meetupEventId).getVersion();
+
+        writeBehindMeetupSubscribe.flush();
+
+        assertThatThrownBy(alice::join).isInstanceOf(CompletionException.class)
+                .hasMessageContaining("User Alice already has a subscription");
+        assertThat(meetupEventRepository.findById(meetupEventId).getVersion()).isEqualTo(version);
+        WriteBehindFlushStatsDto flushStats = writeBehindMeetupSubscribe.getFlushStats();
+        assertThat(flushStats.flushCount).isZero();
+        assertThat(flushStats.conflictCount).isEqualTo(1);
+    }
+
+    @Test
+    void should_accept_changes_to_an_event_while_it_is_being_saved() throws Exception {
+        CountDownLatch saving = new CountDownLatch(1);
+        CountDownLatch saveReleased = new CountDownLatch(1);
+        MeetupEventRepository slowMeetupEventRepository = new MeetupEventRepository(memoryDbTestContext.getJdbi()) {
+            @Override
+            public long save(MeetupEvent meetupEvent) {
+                saving.countDown();
+                try {
+                    saveReleased.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return super.save(meetupEvent);
+            }
+        };
+        writeBehindMeetupSubscribe = new WriteBehindMeetupSubscribe(slowMeetupEventRepository, MeetupEventStatusCache.DISABLED,
+                RetryPolicy.DEFAULT, Duration.ofMinutes(1), 100);
+        Long meetupEventId = registerAMeetupWithCapacity(1);
+        CompletableFuture<SubscribeResult> alice = writeBehindMeetupSubscribe.subscribeUserToMeetupEvent("Alice", meetupEventId);
+        CompletableFuture<Void> slowFlush = CompletableFuture.runAsync(writeBehindMeetupSubscribe::flush);
+        assertThat(saving.await(10, TimeUnit.SECONDS)).isTrue();
+
+        CompletableFuture<SubscribeResult> bob = assertTimeoutPreemptively(Duration.ofSeconds(5),
+                () -> writeBehindMeetupSubscribe.subscribeUserToMeetupEvent("Bob", meetupEventId));
+
+        assertThat(alice).isNotDone();
+        assertThat(bob).isNotDone();
+        saveReleased.countDown();
+        slowFlush.get(10, TimeUnit.SECONDS);
+        assertThat(alice.join()).isEqualTo(SubscribeResult.PARTICIPANT);
+        assertThat(bob).isNotDone();
+        writeBehindMeetupSubscribe.flush();
+        assertThat(bob.join()).isEqualTo(SubscribeResult.WAITING_LIST);
+        MeetupEventStatusDto meetupEventStatus = meetupSubscribe.getMeetupEventStatus(meetupEventId);
+        assertThat(meetupEventStatus.participants).containsExactly("Alice");
+        assertThat(meetupEventStatus.waitingList).containsExactly("Bob");
+    }
+}
@@ -0,0 +1,37 @@
+package kata.benchmark;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.Arrays;
+
+/**
+ * Runs the benchmarks once per thread count listed in the {@code benchmark.threads} system property, with the
+ * GC profiler to report allocation rates. Other arguments are passed to JMH as on its command line, for instance
+ * {@code -p eventSize=1000 -p path=aggregate subscribe}.
+ */
+public class BenchmarkRunner {
+
+    public static void main(String[] args) throws RunnerException, CommandLineOptionException {
+        CommandLineOptions commandLineOptions = new CommandLineOptions(args);
+        int[] threadCounts = Arrays.stream(System.getProperty("benchmark.threads", "1").split(","))
+                .map(String::trim)
+                .mapToInt(Integer::parseInt)
+                .toArray();
+
+        for (int threads : threadCounts) {
+            OptionsBuilder options = new OptionsBuilder();
+            options.parent(commandLineOptions);
+            if (commandLineOptions.getIncludes().isEmpty()) {
+                options.include(MeetupSubscribeBenchmark.class.getName());
+            }
+            options.threads(threads);
+            options.addProfiler(GCProfiler.class);
+            new Runner(options.build()).run();
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package kata.benchmark;
+
+import kata.MeetupSubscribe;
+import kata.RetryPolicy;
+import kata.StripedMeetupSubscribe;
+import kata.dbtestutil.MemoryDbTestContext;
+import kata.persistence.MeetupEventDao;
+import kata.persistence.MeetupEventRepository;
+import kata.persistence.MeetupSubscriptionDao;
+import org.jdbi.v3.core.Jdbi;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Subscriptions of new users spread over {@code hotEvents} events, made either directly, retrying on concurrent
+ * updates, or through the lanes of {@link StripedMeetupSubscribe}. Run it with several threads to get contention,
+ * for instance {@code -Dbenchmark.threads=1,4,16}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class ContentionBenchmark {
+
+    @Param({"1", "4", "16"})
+    public int hotEvents;
+
+    @Param({"direct", "striped"})
+    public String path;
+
+    private MemoryDbTestContext memoryDbTestContext;
+    private MeetupSubscribe meetupSubscribe;
+    private StripedMeetupSubscribe stripedMeetupSubscribe;
+    private Long[] meetupEventIds;
+    private final AtomicLong userSequence = new AtomicLong();
+
+    @Setup(Level.Trial)
+    public void createHotEvents() throws Exception {
+        memoryDbTestContext = MemoryDbTestContext.openWithSql("/setup.sql");
+        Jdbi jdbi = memoryDbTestContext.getJdbi();
+        meetupSubscribe = MeetupSubscribe.builder(new MeetupSubscriptionDao(jdbi), new MeetupEventDao(jdbi),
+                new MeetupEventRepository(jdbi))
+                .retryPolicy(new RetryPolicy(1000, Duration.ofMillis(1)))
+                .build();
+        if (path.equals("striped")) {
+            stripedMeetupSubscribe = new StripedMeetupSubscribe(meetupSubscribe);
+        }
+        meetupEventIds = new Long[hotEvents];
+        for (int i = 0; i < hotEvents; i++) {
+            meetupEventIds[i] = meetupSubscribe.registerMeetupEvent("Hot event " + i, 100, LocalDateTime.of(2019, 6, 15, 20, 0));
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void closeDatabase() {
+        if (stripedMeetupSubscribe != null) {
+            stripedMeetupSubscribe.close();
+        }
+        memoryDbTestContext.close();
+    }
+
+    @Benchmark
+    public void subscribe() {
+        String userId = "benchmark-user-" + userSequence.incrementAndGet();
+        Long meetupEventId = meetupEventIds[ThreadLocalRandom.current().nextInt(hotEvents)];
+        if (stripedMeetupSubscribe != null) {
+            stripedMeetupSubscribe.subscribeUserToMeetupEvent(userId, meetupEventId).join();
+        } else {
+            meetupSubscribe.subscribeUserToMeetupEvent(userId, meetupEventId);
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package kata.benchmark;
+
+import kata.MeetupEvent;
+import kata.dbtestutil.MemoryDbTestContext;
+import kata.persistence.EventSourcedMeetupEventRepository;
+import kata.persistence.MeetupEventDao;
+import org.jdbi.v3.core.Jdbi;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Load time of an event from the event log depending on the snapshot interval, 0 meaning no snapshot at all. The
+ * event gets at least {@code historySize} logged changes, saved ten or so at a time: subscriptions of 200 users
+ * for a capacity of 100, then cancellations of the first participant, each followed by a promotion and a new
+ * subscription.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class EventSourcedLoadBenchmark {
+
+    private static final int CAPACITY = 100;
+    private static final int CHANGES_PER_SAVE = 10;
+
+    @Param({"0", "10", "100", "1000"})
+    public int snapshotInterval;
+
+    @Param({"1990"})
+    public int historySize;
+
+    private MemoryDbTestContext memoryDbTestContext;
+    private EventSourcedMeetupEventRepository meetupEventRepository;
+    private Long meetupEventId;
+
+    @Setup(Level.Trial)
+    public void createMeetupEventHistory() throws Exception {
+        memoryDbTestContext = MemoryDbTestContext.openWithSql("/setup.sql");
+        Jdbi jdbi = memoryDbTestContext.getJdbi();
+        meetupEventRepository = new EventSourcedMeetupEventRepository(jdbi, snapshotInterval);
+        MeetupEventDao meetupEventDao = new MeetupEventDao(jdbi);
+        MeetupEvent created = new MeetupEvent(meetupEventDao.generateId(), CAPACITY, "Benchmark event",
+                LocalDateTime.of(2019, 6, 15, 20, 0));
+        meetupEventDao.create(created);
+        meetupEventId = created.getId();
+
+        Instant registrationTime = Instant.parse("2019-06-01T10:00:00Z");
+        int users = 0;
+        long version = 0;
+        while (version < historySize) {
+            MeetupEvent meetupEvent = meetupEventRepository.findById(meetupEventId);
+            while (meetupEvent.getChanges().size() < CHANGES_PER_SAVE) {
+                if (users >= 2 * CAPACITY) {
+                    meetupEvent.cancelSubscription(meetupEvent.getParticipantIds().get(0));
+                }
+                meetupEvent.subscribe("user-" + users, registrationTime.plusMillis(users));
+                users++;
+            }
+            version += meetupEvent.getChanges().size();
+            meetupEventRepository.save(meetupEvent);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void closeDatabase() {
+        memoryDbTestContext.close();
+    }
+
+    @Benchmark
+    public MeetupEvent load() {
+        return meetupEventRepository.findById(meetupEventId);
+    }
+}
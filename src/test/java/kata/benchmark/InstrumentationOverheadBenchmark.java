@@ -0,0 +1,98 @@
+package kata.benchmark;
+
+import kata.InMemoryInstrumentation;
+import kata.Instrumentation;
+import kata.MeetupEventStatusCache;
+import kata.MeetupEventStatusDto;
+import kata.MeetupSubscribe;
+import kata.dbtestutil.MemoryDbTestContext;
+import kata.persistence.InstrumentationPlugin;
+import kata.persistence.MeetupEventDao;
+import kata.persistence.MeetupEventRepository;
+import kata.persistence.MeetupSubscriptionDao;
+import org.jdbi.v3.core.Jdbi;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cost of the instrumentation, {@code noop} being the default with no plugin on the Jdbi and {@code inMemory} an
+ * {@link InMemoryInstrumentation} with its {@link InstrumentationPlugin}. {@code emptyOperation} times nothing and
+ * is to be compared with {@code baseline}, {@code cachedStatus} is the cheapest operation, served from the status
+ * cache, and {@code subscribe} runs five statements or so.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class InstrumentationOverheadBenchmark {
+
+    @Param({"noop", "inMemory"})
+    public String instrumentation;
+
+    private MemoryDbTestContext memoryDbTestContext;
+    private Instrumentation selectedInstrumentation;
+    private MeetupSubscribe meetupSubscribe;
+    private Long meetupEventId;
+    private final AtomicLong userSequence = new AtomicLong();
+
+    @Setup(Level.Trial)
+    public void createMeetupSubscribe() throws Exception {
+        memoryDbTestContext = MemoryDbTestContext.openWithSql("/setup.sql");
+        Jdbi jdbi = memoryDbTestContext.getJdbi();
+        if (instrumentation.equals("inMemory")) {
+            selectedInstrumentation = new InMemoryInstrumentation();
+            jdbi.installPlugin(new InstrumentationPlugin(selectedInstrumentation));
+        } else {
+            selectedInstrumentation = Instrumentation.NOOP;
+        }
+        meetupSubscribe = MeetupSubscribe.builder(new MeetupSubscriptionDao(jdbi), new MeetupEventDao(jdbi),
+                new MeetupEventRepository(jdbi))
+                .statusCache(new MeetupEventStatusCache(100, Duration.ofHours(1)))
+                .instrumentation(selectedInstrumentation)
+                .build();
+        meetupEventId = meetupSubscribe.registerMeetupEvent("Benchmark event", Integer.MAX_VALUE, LocalDateTime.of(2019, 6, 15, 20, 0));
+    }
+
+    @TearDown(Level.Trial)
+    public void closeDatabase() {
+        memoryDbTestContext.close();
+    }
+
+    @Benchmark
+    public void baseline() {
+    }
+
+    @Benchmark
+    public void emptyOperation() {
+        selectedInstrumentation.startOperation("emptyOperation").stop();
+    }
+
+    @Benchmark
+    public MeetupEventStatusDto cachedStatus() {
+        return meetupSubscribe.getMeetupEventStatus(meetupEventId);
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public void subscribe() {
+        meetupSubscribe.subscribeUserToMeetupEvent("benchmark-user-" + userSequence.incrementAndGet(), meetupEventId);
+    }
+}
@@ -0,0 +1,122 @@
+package kata.benchmark;
+
+import kata.MeetupEvent;
+import kata.MeetupEventStatusDto;
+import kata.dbtestutil.MemoryDbTestContext;
+import kata.persistence.MeetupEventDao;
+import kata.persistence.MeetupEventRepository;
+import org.jdbi.v3.core.Jdbi;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Each iteration runs against a fresh event holding {@code eventSize} subscriptions, a tenth of them in the
+ * waiting list, so that subscriptions made during one iteration do not grow the event measured by the next.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class MeetupSubscribeBenchmark {
+
+    @Param({"10", "1000", "100000"})
+    public int eventSize;
+
+    @Param({"aggregate", "dao"})
+    public String path;
+
+    private MemoryDbTestContext memoryDbTestContext;
+    private Jdbi jdbi;
+    private MeetupSubscribePath meetupSubscribePath;
+
+    private Long meetupEventId;
+    private final AtomicLong userSequence = new AtomicLong();
+    private final AtomicInteger capacity = new AtomicInteger();
+
+    @Setup(Level.Trial)
+    public void openDatabase() throws Exception {
+        memoryDbTestContext = MemoryDbTestContext.openWithSql("/setup.sql");
+        jdbi = memoryDbTestContext.getJdbi();
+        meetupSubscribePath = MeetupSubscribePath.create(path, jdbi);
+    }
+
+    @TearDown(Level.Trial)
+    public void closeDatabase() {
+        memoryDbTestContext.close();
+    }
+
+    @Setup(Level.Iteration)
+    public void createMeetupEvent() {
+        MeetupEventDao meetupEventDao = new MeetupEventDao(jdbi);
+        capacity.set(Math.max(1, eventSize * 9 / 10));
+        MeetupEvent meetupEvent = new MeetupEvent(meetupEventDao.generateId(), capacity.get(), "Benchmark event",
+                LocalDateTime.of(2019, 6, 15, 20, 0));
+        meetupEventDao.create(meetupEvent);
+
+        Instant registrationTime = Instant.parse("2019-06-01T10:00:00Z");
+        for (int i = 0; i < eventSize; i++) {
+            meetupEvent.subscribe("user-" + i, registrationTime.plusMillis(i));
+        }
+        new MeetupEventRepository(jdbi).save(meetupEvent);
+        meetupEventId = meetupEvent.getId();
+    }
+
+    @TearDown(Level.Iteration)
+    public void deleteMeetupEvent() {
+        jdbi.useHandle(handle -> {
+            handle.execute("DELETE FROM USER_SUBSCRIPTION WHERE meetup_event_id = ?", meetupEventId);
+            handle.execute("DELETE FROM MEETUP_EVENT WHERE id = ?", meetupEventId);
+        });
+    }
+
+    private String newUserId() {
+        return "benchmark-user-" + userSequence.incrementAndGet();
+    }
+
+    @Benchmark
+    public void subscribe() {
+        meetupSubscribePath.subscribe(newUserId(), meetupEventId);
+    }
+
+    /**
+     * The new user lands at the end of the waiting list, so cancelling it leaves the event as it was.
+     */
+    @Benchmark
+    public void subscribeAndCancel() {
+        String userId = newUserId();
+        meetupSubscribePath.subscribe(userId, meetupEventId);
+        meetupSubscribePath.cancel(userId, meetupEventId);
+    }
+
+    /**
+     * Promotes one user per call until the waiting list is empty, then only updates the capacity.
+     */
+    @Benchmark
+    public void increaseCapacity() {
+        meetupSubscribePath.increaseCapacity(meetupEventId, capacity.incrementAndGet());
+    }
+
+    @Benchmark
+    public MeetupEventStatusDto status() {
+        return meetupSubscribePath.status(meetupEventId);
+    }
+}
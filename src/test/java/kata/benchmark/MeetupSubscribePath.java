@@ -0,0 +1,209 @@
+package kata.benchmark;
+
+import kata.MeetupEvent;
+import kata.MeetupEventStatusDto;
+import kata.MeetupSubscribe;
+import kata.RetryPolicy;
+import kata.Subscription;
+import kata.persistence.MeetupEventDao;
+import kata.persistence.MeetupEventRepository;
+import kata.persistence.MeetupSubscriptionDao;
+import org.jdbi.v3.core.Jdbi;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+
+import static java.util.stream.Collectors.toList;
+
+/**
+ * The operations measured by {@link MeetupSubscribeBenchmark}, implemented either with the DAO calls
+ * {@link MeetupSubscribe} used to make, or through the {@link MeetupEventRepository} aggregate.
+ */
+interface MeetupSubscribePath {
+
+    void subscribe(String userId, Long meetupEventId);
+
+    void cancel(String userId, Long meetupEventId);
+
+    void increaseCapacity(Long meetupEventId, int newCapacity);
+
+    MeetupEventStatusDto status(Long meetupEventId);
+
+    static MeetupSubscribePath create(String name, Jdbi jdbi) {
+        switch (name) {
+            case "aggregate":
+                return new AggregatePath(jdbi);
+            case "dao":
+                return new DaoPath(jdbi);
+            default:
+                throw new IllegalArgumentException("Unknown path " + name);
+        }
+    }
+
+    class AggregatePath implements MeetupSubscribePath {
+
+        private final MeetupSubscribe meetupSubscribe;
+        private final MeetupEventRepository meetupEventRepository;
+
+        AggregatePath(Jdbi jdbi) {
+            meetupEventRepository = new MeetupEventRepository(jdbi);
+            meetupSubscribe = MeetupSubscribe.builder(new MeetupSubscriptionDao(jdbi), new MeetupEventDao(jdbi), meetupEventRepository)
+                    .retryPolicy(new RetryPolicy(1000, Duration.ofMillis(1)))
+                    .build();
+        }
+
+        @Override
+        public void subscribe(String userId, Long meetupEventId) {
+            meetupSubscribe.subscribeUserToMeetupEvent(userId, meetupEventId);
+        }
+
+        @Override
+        public void cancel(String userId, Long meetupEventId) {
+            meetupSubscribe.cancelUserSubscription(userId, meetupEventId);
+        }
+
+        @Override
+        public void increaseCapacity(Long meetupEventId, int newCapacity) {
+            meetupSubscribe.increaseCapacity(meetupEventId, newCapacity);
+        }
+
+        @Override
+        public MeetupEventStatusDto status(Long meetupEventId) {
+            MeetupEvent meetupEvent = meetupEventRepository.findById(meetupEventId);
+            MeetupEventStatusDto meetupEventStatusDto = new MeetupEventStatusDto();
+            meetupEventStatusDto.meetupId = meetupEvent.getId();
+            meetupEventStatusDto.eventCapacity = meetupEvent.getCapacity();
+            meetupEventStatusDto.startTime = meetupEvent.getStartTime();
+            meetupEventStatusDto.eventName = meetupEvent.getEventName();
+            meetupEventStatusDto.waitingList = meetupEvent.getWaitingListIds();
+            meetupEventStatusDto.participants = meetupEvent.getParticipantIds();
+            return meetupEventStatusDto;
+        }
+    }
+
+    /**
+     * Writes the subscription rows and the capacity directly, as before the aggregate. It leaves the counts and the
+     * version of MEETUP_EVENT as they are, so its events must not be changed through the aggregate afterwards.
+     */
+    class DaoPath implements MeetupSubscribePath {
+
+        private final Jdbi jdbi;
+        private final MeetupSubscriptionDao meetupSubscriptionDao;
+        private final MeetupEventDao meetupEventDao;
+
+        DaoPath(Jdbi jdbi) {
+            this.jdbi = jdbi;
+            meetupSubscriptionDao = new MeetupSubscriptionDao(jdbi);
+            meetupEventDao = new MeetupEventDao(jdbi);
+        }
+
+        @Override
+        public void subscribe(String userId, Long meetupEventId) {
+            if (meetupSubscriptionDao.findById(userId, meetupEventId) != null) {
+                throw new RuntimeException(String.format("User %s already has a subscription", userId));
+            }
+
+            List<Subscription> participants = meetupSubscriptionDao.findSubscriptionsParticipants(meetupEventId);
+            MeetupEvent meetupEvent = meetupEventDao.findById(meetupEventId);
+            boolean addToWaitingList = participants.size() == meetupEvent.getCapacity();
+            Subscription subscription = new Subscription(userId, Instant.now(), addToWaitingList);
+            addToSubscriptions(subscription, meetupEventId);
+        }
+
+        @Override
+        public void cancel(String userId, Long meetupEventId) {
+            Boolean inWaitingList = meetupSubscriptionDao.isUserSubscriptionInWaitingList(userId, meetupEventId);
+            deleteSubscription(userId, meetupEventId);
+
+            if (!inWaitingList) {
+                List<Subscription> waitingList = meetupSubscriptionDao.findSubscriptionsInWaitingList(meetupEventId);
+                if (!waitingList.isEmpty()) {
+                    Subscription firstInWaitingList = waitingList.get(0);
+                    changeFromWaitingListToParticipants(firstInWaitingList.getUserId(), meetupEventId);
+                }
+            }
+        }
+
+        @Override
+        public void increaseCapacity(Long meetupEventId, int newCapacity) {
+            MeetupEvent meetupEvent = meetupEventDao.findById(meetupEventId);
+            int oldCapacity = meetupEvent.getCapacity();
+
+            if (oldCapacity < newCapacity) {
+                updateCapacity(meetupEventId, newCapacity);
+                int newSlots = newCapacity - oldCapacity;
+                List<Subscription> waitingList = meetupSubscriptionDao.findSubscriptionsInWaitingList(meetupEventId);
+                waitingList.stream()
+                        .limit(newSlots)
+                        .forEach(subscription -> changeFromWaitingListToParticipants(subscription.getUserId(), meetupEventId));
+            }
+        }
+
+        @Override
+        public MeetupEventStatusDto status(Long meetupEventId) {
+            MeetupEvent meetupEvent = meetupEventDao.findById(meetupEventId);
+            List<Subscription> participants = meetupSubscriptionDao.findSubscriptionsParticipants(meetupEventId);
+            List<Subscription> waitingList = meetupSubscriptionDao.findSubscriptionsInWaitingList(meetupEventId);
+
+            MeetupEventStatusDto meetupEventStatusDto = new MeetupEventStatusDto();
+            meetupEventStatusDto.meetupId = meetupEvent.getId();
+            meetupEventStatusDto.eventCapacity = meetupEvent.getCapacity();
+            meetupEventStatusDto.startTime = meetupEvent.getStartTime();
+            meetupEventStatusDto.eventName = meetupEvent.getEventName();
+            meetupEventStatusDto.waitingList = waitingList.stream().map(Subscription::getUserId).collect(toList());
+            meetupEventStatusDto.participants = participants.stream().map(Subscription::getUserId).collect(toList());
+            return meetupEventStatusDto;
+        }
+
+        private void addToSubscriptions(Subscription subscription, Long meetupEventId) {
+            String sql = "" +
+                    "INSERT INTO USER_SUBSCRIPTION (user_id, meetup_event_id, registration_time, waiting_list) " +
+                    "VALUES (:userId, :meetupEventId, :registrationTime, :waitingList)";
+
+            jdbi.useHandle(handle -> handle.createUpdate(sql)
+                    .bind("userId", subscription.getUserId())
+                    .bind("meetupEventId", meetupEventId)
+                    .bind("registrationTime", subscription.getRegistrationTime())
+                    .bind("waitingList", subscription.isInWaitingList())
+                    .execute());
+        }
+
+        private void deleteSubscription(String userId, Long meetupEventId) {
+            String sql = "" +
+                    "DELETE FROM USER_SUBSCRIPTION " +
+                    "WHERE meetup_event_id = :meetupEventId " +
+                    "AND user_id = :userId";
+
+            jdbi.useHandle(handle -> handle.createUpdate(sql)
+                    .bind("meetupEventId", meetupEventId)
+                    .bind("userId", userId)
+                    .execute());
+        }
+
+        private void changeFromWaitingListToParticipants(String userId, Long meetupEventId) {
+            String sql = "" +
+                    "UPDATE USER_SUBSCRIPTION " +
+                    "SET waiting_list = FALSE " +
+                    "WHERE meetup_event_id = :meetupEventId " +
+                    "AND user_id = :userId";
+
+            jdbi.useHandle(handle -> handle.createUpdate(sql)
+                    .bind("meetupEventId", meetupEventId)
+                    .bind("userId", userId)
+                    .execute());
+        }
+
+        private void updateCapacity(Long meetupEventId, int newCapacity) {
+            String sql = "" +
+                    "UPDATE MEETUP_EVENT " +
+                    "SET capacity = :newCapacity " +
+                    "WHERE id = :id";
+
+            jdbi.useHandle(handle -> handle.createUpdate(sql)
+                    .bind("newCapacity", newCapacity)
+                    .bind("id", meetupEventId)
+                    .execute());
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package kata.dbtestutil;
+
+import org.jdbi.v3.core.Jdbi;
+import org.jdbi.v3.core.statement.PreparedBatch;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static java.util.Arrays.asList;
+
+/**
+ * A replica of the meetup event tables of a primary database, lagging behind it until {@link #catchUp()} copies
+ * the primary tables over the replica ones.
+ */
+public class LaggingReplica {
+
+    private static final List<String> REPLICATED_TABLES = asList("MEETUP_EVENT", "USER_SUBSCRIPTION");
+
+    private final Jdbi primary;
+    private final Jdbi replica;
+
+    public LaggingReplica(Jdbi primary, Jdbi replica) {
+        this.primary = primary;
+        this.replica = replica;
+    }
+
+    public void catchUp() {
+        Map<String, List<Map<String, Object>>> rowsByTable = new LinkedHashMap<>();
+        primary.useHandle(handle -> REPLICATED_TABLES.forEach(table -> rowsByTable.put(table,
+                handle.createQuery("SELECT * FROM " + table).mapToMap().list())));
+
+        replica.useTransaction(handle -> {
+            List<String> tablesToClear = new ArrayList<>(REPLICATED_TABLES);
+            Collections.reverse(tablesToClear);
+            tablesToClear.forEach(table -> handle.execute("DELETE FROM " + table));
+            rowsByTable.forEach((table, rows) -> {
+                if (rows.isEmpty()) {
+                    return;
+                }
+                List<String> columns = new ArrayList<>(rows.get(0).keySet());
+                String sql = "INSERT INTO " + table + " (" + String.join(", ", columns) + ") " +
+                        "VALUES (:" + String.join(", :", columns) + ")";
+                try (PreparedBatch preparedBatch = handle.prepareBatch(sql)) {
+                    rows.forEach(row -> preparedBatch.bindMap(row).add());
+                    preparedBatch.execute();
+                }
+            });
+        });
+    }
+}
@@ -22,8 +22,15 @@ public class MemoryDbTestContext {
     }
 
     public static MemoryDbTestContext openWithSql(String resourcePath) throws IOException, URISyntaxException {
+        return openWithSql(resourcePath, "test");
+    }
+
+    /**
+     * Opens another in memory database, kept apart from the others by its name.
+     */
+    public static MemoryDbTestContext openWithSql(String resourcePath, String databaseName) throws IOException, URISyntaxException {
         String sqlScript = loadSetupSql(resourcePath);
-        Jdbi jdbi = Jdbi.create("jdbc:h2:mem:test");
+        Jdbi jdbi = Jdbi.create("jdbc:h2:mem:" + databaseName);
         Handle handle = jdbi.open();
         handle.createScript(sqlScript).execute();
         return new MemoryDbTestContext(jdbi, handle);
@@ -0,0 +1,173 @@
+package kata.persistence;
+
+import kata.MeetupEvent;
+import kata.MeetupEventStatusDto;
+import kata.MeetupSubscribe;
+import kata.Subscription;
+import kata.SubscriptionPageDto;
+import kata.UserSubscriptionStatus;
+import kata.UserSubscriptionStatusDto;
+import kata.WaitingListNotification;
+import kata.dbtestutil.MemoryDbTestContext;
+import org.jdbi.v3.core.Jdbi;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Assertions.tuple;
+
+public class EventSourcedMeetupEventRepositoryTest {
+
+    private Jdbi jdbi;
+    private EventSourcedMeetupEventRepository meetupEventRepository;
+    private MeetupEventDao meetupEventDao;
+    private MemoryDbTestContext memoryDbTestContext;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        memoryDbTestContext = MemoryDbTestContext.openWithSql("/setup.sql");
+        jdbi = memoryDbTestContext.getJdbi();
+        meetupEventRepository = new EventSourcedMeetupEventRepository(jdbi, 3);
+        meetupEventDao = new MeetupEventDao(jdbi);
+    }
+
+    @AfterEach
+    void tearDown() {
+        memoryDbTestContext.close();
+    }
+
+    private Long createMeetupEventWithCapacity(int capacity) {
+        MeetupEvent meetupEvent = new MeetupEvent(meetupEventDao.generateId(), capacity, "Coding dojo session 1",
+                LocalDateTime.of(2019, 6, 15, 20, 0));
+        meetupEventDao.create(meetupEvent);
+        return meetupEvent.getId();
+    }
+
+    private int countRows(String sql, Long meetupEventId) {
+        return jdbi.withHandle(handle -> handle.createQuery(sql)
+                .bind(0, meetupEventId)
+                .mapTo(Integer.class)
+                .one());
+    }
+
+    @Test
+    void should_return_null_for_unknown_meetup_event() {
+        assertThat(meetupEventRepository.findById(42L)).isNull();
+    }
+
+    @Test
+    void should_rebuild_meetup_event_from_logged_changes() {
+        Long meetupEventId = createMeetupEventWithCapacity(1);
+        Instant now = Instant.parse("2019-06-01T10:00:00Z");
+        MeetupEvent meetupEvent = meetupEventRepository.findById(meetupEventId);
+        meetupEvent.subscribe("Alice", now);
+        meetupEvent.subscribe("Bob", now.plusSeconds(1));
+        meetupEventRepository.save(meetupEvent);
+
+        meetupEvent = meetupEventRepository.findByIdForUser(meetupEventId, "Alice");
+        meetupEvent.cancelSubscription("Alice");
+        meetupEventRepository.save(meetupEvent);
+
+        MeetupEvent found = meetupEventRepository.findById(meetupEventId);
+        assertThat(found.getVersion()).isEqualTo(4);
+        assertThat(found.getCapacity()).isEqualTo(1);
+        assertThat(found.getParticipants()).extracting(Subscription::getUserId, Subscription::getRegistrationTime)
+                .containsExactly(tuple("Bob", now.plusSeconds(1)));
+        assertThat(found.getWaitingList()).isEmpty();
+        assertThat(found.getParticipantCount()).isEqualTo(1);
+        assertThat(found.getWaitingListCount()).isEqualTo(0);
+        assertThat(countRows("SELECT COUNT(*) FROM USER_SUBSCRIPTION WHERE meetup_event_id = ?", meetupEventId)).isZero();
+        assertThat(new NotificationOutbox(jdbi).findAfter(0, 10)).extracting(WaitingListNotification::getUserId)
+                .containsExactly("Bob");
+    }
+
+    @Test
+    void should_replace_snapshot_at_each_interval_and_keep_the_whole_log() {
+        Long meetupEventId = createMeetupEventWithCapacity(2);
+        Instant now = Instant.parse("2019-06-01T10:00:00Z");
+        String[] userIds = {"Alice", "Bob", "Charles", "David", "Emily", "Fanny", "Gaston"};
+        for (int i = 0; i < userIds.length; i++) {
+            MeetupEvent meetupEvent = meetupEventRepository.findById(meetupEventId);
+            meetupEvent.subscribe(userIds[i], now.plusSeconds(i));
+            meetupEventRepository.save(meetupEvent);
+        }
+        MeetupEvent meetupEvent = meetupEventRepository.findById(meetupEventId);
+        meetupEvent.increaseCapacity(3);
+        meetupEventRepository.save(meetupEvent);
+
+        assertThat(countRows("SELECT COUNT(*) FROM MEETUP_EVENT_LOG WHERE meetup_event_id = ?", meetupEventId)).isEqualTo(9);
+        assertThat(countRows("SELECT MAX(sequence_number) FROM MEETUP_EVENT_SNAPSHOT WHERE meetup_event_id = ?", meetupEventId)).isEqualTo(9);
+        assertThat(countRows("SELECT COUNT(*) FROM MEETUP_EVENT_SNAPSHOT WHERE meetup_event_id = ?", meetupEventId)).isEqualTo(1);
+        assertThat(countRows("SELECT COUNT(*) FROM MEETUP_EVENT_SNAPSHOT_SUBSCRIPTION WHERE meetup_event_id = ?", meetupEventId)).isEqualTo(7);
+
+        MeetupEvent found = meetupEventRepository.findById(meetupEventId);
+        assertThat(found.getVersion()).isEqualTo(9);
+        assertThat(found.getCapacity()).isEqualTo(3);
+        assertThat(found.getParticipantIds()).containsExactly("Alice", "Bob", "Charles");
+        assertThat(found.getWaitingListIds()).containsExactly("David", "Emily", "Fanny", "Gaston");
+    }
+
+    @Test
+    void should_reject_save_of_a_stale_meetup_event() {
+        Long meetupEventId = createMeetupEventWithCapacity(2);
+        Instant now = Instant.parse("2019-06-01T10:00:00Z");
+        MeetupEvent first = meetupEventRepository.findById(meetupEventId);
+        MeetupEvent second = meetupEventRepository.findById(meetupEventId);
+        first.subscribe("Alice", now);
+        second.subscribe("Bob", now);
+        meetupEventRepository.save(first);
+
+        assertThatThrownBy(() -> meetupEventRepository.save(second))
+                .isInstanceOf(ConcurrentMeetupEventUpdateException.class);
+        assertThat(meetupEventRepository.findById(meetupEventId).getParticipantIds()).containsExactly("Alice");
+    }
+
+    @Test
+    void should_serve_meetup_subscribe_from_the_event_log() {
+        MeetupSubscribe meetupSubscribe = new MeetupSubscribe(new MeetupSubscriptionDao(jdbi), meetupEventDao, meetupEventRepository);
+        Long meetupEventId = meetupSubscribe.registerMeetupEvent("Coding dojo session 1", 1, LocalDateTime.of(2019, 6, 15, 20, 0));
+
+        meetupSubscribe.subscribeUserToMeetupEvent("Alice", meetupEventId);
+        meetupSubscribe.subscribeUserToMeetupEvent("Bob", meetupEventId);
+        meetupSubscribe.subscribeUserToMeetupEvent("Charles", meetupEventId);
+        meetupSubscribe.cancelUserSubscription("Alice", meetupEventId);
+        meetupSubscribe.increaseCapacity(meetupEventId, 2);
+
+        MeetupEventStatusDto meetupEventStatus = meetupSubscribe.getMeetupEventStatus(meetupEventId);
+        assertThat(meetupEventStatus.eventCapacity).isEqualTo(2);
+        assertThat(meetupEventStatus.participants).containsExactly("Bob", "Charles");
+        assertThat(meetupEventStatus.waitingList).isEmpty();
+    }
+
+    @Test
+    void should_serve_user_statuses_pages_and_streams_of_meetup_subscribe_from_the_event_log() {
+        MeetupSubscribe meetupSubscribe = new MeetupSubscribe(new MeetupSubscriptionDao(jdbi), meetupEventDao, meetupEventRepository);
+        Long meetupEventId = meetupSubscribe.registerMeetupEvent("Coding dojo session 1", 1, LocalDateTime.of(2019, 6, 15, 20, 0));
+        meetupSubscribe.subscribeUserToMeetupEvent("Alice", meetupEventId);
+        meetupSubscribe.subscribeUserToMeetupEvent("Bob", meetupEventId);
+        meetupSubscribe.subscribeUserToMeetupEvent("Charles", meetupEventId);
+
+        assertThat(meetupSubscribe.getUserSubscriptionStatus("Alice", meetupEventId).status).isEqualTo(UserSubscriptionStatus.PARTICIPANT);
+        UserSubscriptionStatusDto charlesStatus = meetupSubscribe.getUserSubscriptionStatus("Charles", meetupEventId);
+        assertThat(charlesStatus.status).isEqualTo(UserSubscriptionStatus.WAITING_LIST);
+        assertThat(charlesStatus.waitingListPosition).isEqualTo(2);
+        assertThat(meetupSubscribe.getUserSubscriptionStatus("David", meetupEventId).status).isEqualTo(UserSubscriptionStatus.NOT_SUBSCRIBED);
+
+        SubscriptionPageDto firstPage = meetupSubscribe.getWaitingListPage(meetupEventId, null, 1);
+        SubscriptionPageDto secondPage = meetupSubscribe.getWaitingListPage(meetupEventId, firstPage.nextCursor, 1);
+        assertThat(firstPage.userIds).containsExactly("Bob");
+        assertThat(secondPage.userIds).containsExactly("Charles");
+        assertThat(secondPage.nextCursor).isNull();
+
+        List<String> participants = new ArrayList<>();
+        meetupSubscribe.useParticipantsStream(meetupEventId, stream -> stream.forEach(participants::add));
+        assertThat(participants).containsExactly("Alice");
+    }
+}
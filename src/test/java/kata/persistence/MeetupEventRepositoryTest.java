@@ -0,0 +1,224 @@
+package kata.persistence;
+
+import kata.MeetupEvent;
+import kata.Subscription;
+import kata.dbtestutil.MemoryDbTestContext;
+import org.jdbi.v3.core.Jdbi;
+import org.jdbi.v3.core.statement.SqlLogger;
+import org.jdbi.v3.core.statement.StatementContext;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.util.stream.Collectors.toList;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class MeetupEventRepositoryTest {
+
+    private MeetupEventRepository meetupEventRepository;
+    private MeetupEventDao meetupEventDao;
+    private MemoryDbTestContext memoryDbTestContext;
+    private Jdbi jdbi;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        memoryDbTestContext = MemoryDbTestContext.openWithSql("/setup.sql");
+        jdbi = memoryDbTestContext.getJdbi();
+        meetupEventRepository = new MeetupEventRepository(jdbi);
+        meetupEventDao = new MeetupEventDao(jdbi);
+    }
+
+    @AfterEach
+    void tearDown() {
+        memoryDbTestContext.close();
+    }
+
+    private MeetupEvent createMeetupEventWithCapacity(int capacity) {
+        LocalDateTime startTime = LocalDateTime.of(2019, 6, 15, 20, 0);
+        MeetupEvent meetupEvent = new MeetupEvent(meetupEventDao.generateId(), capacity, "Coding dojo session 1", startTime);
+        meetupEventDao.create(meetupEvent);
+        return meetupEvent;
+    }
+
+    @Test
+    void should_return_null_for_unknown_meetup_event() {
+        assertThat(meetupEventRepository.findById(42L)).isNull();
+    }
+
+    @Test
+    void should_find_meetup_event_without_subscriptions() {
+        MeetupEvent created = createMeetupEventWithCapacity(50);
+
+        MeetupEvent meetupEvent = meetupEventRepository.findById(created.getId());
+
+        assertThat(meetupEvent.getId()).isEqualTo(created.getId());
+        assertThat(meetupEvent.getCapacity()).isEqualTo(50);
+        assertThat(meetupEvent.getEventName()).isEqualTo("Coding dojo session 1");
+        assertThat(meetupEvent.getStartTime()).isEqualTo(created.getStartTime());
+        assertThat(meetupEvent.getSubscriptions()).isEmpty();
+    }
+
+    @Test
+    void should_save_and_find_meetup_event_with_subscriptions_in_registration_order() {
+        MeetupEvent meetupEvent = createMeetupEventWithCapacity(2);
+        Instant now = Instant.parse("2019-06-01T10:00:00Z");
+        meetupEvent.subscribe("Alice", now);
+        meetupEvent.subscribe("Bob", now.plusSeconds(1));
+        meetupEvent.subscribe("Charles", now.plusSeconds(2));
+
+        meetupEventRepository.save(meetupEvent);
+
+        MeetupEvent found = meetupEventRepository.findById(meetupEvent.getId());
+        assertThat(found.getParticipants()).extracting(Subscription::getUserId).containsExactly("Alice", "Bob");
+        assertThat(found.getWaitingList()).extracting(Subscription::getUserId).containsExactly("Charles");
+        assertThat(found.getSubscriptions()).extracting(Subscription::getRegistrationTime)
+                .containsExactly(now, now.plusSeconds(1), now.plusSeconds(2));
+    }
+
+    @Test
+    void should_save_removed_and_modified_subscriptions() {
+        MeetupEvent meetupEvent = createMeetupEventWithCapacity(1);
+        Instant now = Instant.parse("2019-06-01T10:00:00Z");
+        meetupEvent.subscribe("Alice", now);
+        meetupEvent.subscribe("Bob", now.plusSeconds(1));
+        meetupEventRepository.save(meetupEvent);
+
+        MeetupEvent loaded = meetupEventRepository.findById(meetupEvent.getId());
+        loaded.cancelSubscription("Alice");
+        loaded.increaseCapacity(3);
+        meetupEventRepository.save(loaded);
+
+        MeetupEvent found = meetupEventRepository.findById(meetupEvent.getId());
+        assertThat(found.getCapacity()).isEqualTo(3);
+        assertThat(found.getParticipants()).extracting(Subscription::getUserId).containsExactly("Bob");
+        assertThat(found.getWaitingList()).isEmpty();
+    }
+
+    @Test
+    void should_delete_last_subscription() {
+        MeetupEvent meetupEvent = createMeetupEventWithCapacity(1);
+        meetupEvent.subscribe("Alice", Instant.now());
+        meetupEventRepository.save(meetupEvent);
+
+        MeetupEvent loaded = meetupEventRepository.findById(meetupEvent.getId());
+        loaded.cancelSubscription("Alice");
+        meetupEventRepository.save(loaded);
+
+        assertThat(meetupEventRepository.findById(meetupEvent.getId()).getSubscriptions()).isEmpty();
+    }
+
+    @Test
+    void should_find_meetup_event_with_counts_and_only_the_subscriptions_needed_for_a_user() {
+        MeetupEvent meetupEvent = createMeetupEventWithCapacity(2);
+        Instant now = Instant.parse("2019-06-01T10:00:00Z");
+        meetupEvent.subscribe("Alice", now);
+        meetupEvent.subscribe("Bob", now.plusSeconds(1));
+        meetupEvent.subscribe("Charles", now.plusSeconds(2));
+        meetupEvent.subscribe("David", now.plusSeconds(3));
+        meetupEventRepository.save(meetupEvent);
+
+        MeetupEvent found = meetupEventRepository.findByIdForUser(meetupEvent.getId(), "Bob");
+
+        assertThat(found.getParticipantCount()).isEqualTo(2);
+        assertThat(found.getWaitingListCount()).isEqualTo(2);
+        assertThat(found.getSubscriptions()).extracting(Subscription::getUserId).containsExactly("Bob");
+    }
+
+    @Test
+    void should_keep_counts_consistent_with_subscriptions_when_cancelling_a_partially_loaded_event() {
+        MeetupEvent meetupEvent = createMeetupEventWithCapacity(1);
+        Instant now = Instant.parse("2019-06-01T10:00:00Z");
+        meetupEvent.subscribe("Alice", now);
+        meetupEvent.subscribe("Bob", now.plusSeconds(1));
+        meetupEvent.subscribe("Charles", now.plusSeconds(2));
+        meetupEventRepository.save(meetupEvent);
+
+        MeetupEvent loaded = meetupEventRepository.findByIdForUser(meetupEvent.getId(), "Alice");
+        loaded.cancelSubscription("Alice");
+        meetupEventRepository.save(loaded);
+
+        MeetupEvent found = meetupEventRepository.findById(meetupEvent.getId());
+        assertThat(found.getParticipants()).extracting(Subscription::getUserId).containsExactly("Bob");
+        assertThat(found.getWaitingList()).extracting(Subscription::getUserId).containsExactly("Charles");
+        assertThat(found.getParticipantCount()).isEqualTo(1);
+        assertThat(found.getWaitingListCount()).isEqualTo(1);
+    }
+
+    @Test
+    void should_promote_head_of_waiting_list_in_registration_order_when_waiting_list_is_not_loaded() {
+        MeetupEvent meetupEvent = createMeetupEventWithCapacity(1);
+        Instant now = Instant.parse("2019-06-01T10:00:00Z");
+        meetupEvent.subscribe("Alice", now);
+        meetupEvent.subscribe("Bob", now.plusSeconds(1));
+        meetupEvent.subscribe("Charles", now.plusSeconds(2));
+        meetupEvent.subscribe("David", now.plusSeconds(3));
+        meetupEventRepository.save(meetupEvent);
+
+        MeetupEvent loaded = meetupEventRepository.findByIdWithoutSubscriptions(meetupEvent.getId());
+        loaded.increaseCapacity(3);
+        meetupEventRepository.save(loaded);
+
+        MeetupEvent found = meetupEventRepository.findById(meetupEvent.getId());
+        assertThat(found.getCapacity()).isEqualTo(3);
+        assertThat(found.getParticipants()).extracting(Subscription::getUserId).containsExactly("Alice", "Bob", "Charles");
+        assertThat(found.getWaitingList()).extracting(Subscription::getUserId).containsExactly("David");
+        assertThat(found.getParticipantCount()).isEqualTo(3);
+        assertThat(found.getWaitingListCount()).isEqualTo(1);
+    }
+
+    @Test
+    void should_promote_the_first_waiting_list_position_among_equal_registration_times() {
+        MeetupEvent meetupEvent = createMeetupEventWithCapacity(1);
+        Instant now = Instant.parse("2019-06-01T10:00:00Z");
+        meetupEvent.subscribe("Alice", now);
+        meetupEvent.subscribe("Charles", now.plusSeconds(1));
+        meetupEvent.subscribe("Bob", now.plusSeconds(1));
+        meetupEventRepository.save(meetupEvent);
+        MeetupSubscriptionDao meetupSubscriptionDao = new MeetupSubscriptionDao(jdbi);
+        Subscription bobSubscription = meetupSubscriptionDao.findById("Bob", meetupEvent.getId());
+        assertThat(meetupSubscriptionDao.findWaitingListPosition(bobSubscription, meetupEvent.getId())).isEqualTo(1);
+
+        MeetupEvent loaded = meetupEventRepository.findByIdWithoutSubscriptions(meetupEvent.getId());
+        loaded.increaseCapacity(2);
+        meetupEventRepository.save(loaded);
+
+        MeetupEvent found = meetupEventRepository.findById(meetupEvent.getId());
+        assertThat(found.getParticipants()).extracting(Subscription::getUserId).containsExactly("Alice", "Bob");
+        assertThat(found.getWaitingList()).extracting(Subscription::getUserId).containsExactly("Charles");
+    }
+
+    @Test
+    void should_find_many_meetup_events_with_two_queries_per_chunk_of_ids() {
+        AtomicInteger queries = new AtomicInteger();
+        jdbi.setSqlLogger(new SqlLogger() {
+            @Override
+            public void logBeforeExecution(StatementContext context) {
+                queries.incrementAndGet();
+            }
+        });
+        List<Long> meetupEventIds = meetupEventDao.generateIds(MeetupEventRepository.IN_LIST_CHUNK_SIZE + 1);
+        meetupEventDao.createAll(meetupEventIds.stream()
+                .map(id -> new MeetupEvent(id, 1, "Coding dojo", LocalDateTime.of(2019, 6, 15, 20, 0)))
+                .collect(toList()));
+        MeetupEvent lastMeetupEvent = meetupEventRepository.findById(meetupEventIds.get(meetupEventIds.size() - 1));
+        Instant now = Instant.parse("2019-06-01T10:00:00Z");
+        lastMeetupEvent.subscribe("Alice", now);
+        lastMeetupEvent.subscribe("Bob", now.plusSeconds(1));
+        meetupEventRepository.save(lastMeetupEvent);
+        queries.set(0);
+
+        Map<Long, MeetupEvent> meetupEvents = meetupEventRepository.findAllById(meetupEventIds);
+
+        assertThat(queries).hasValue(4);
+        assertThat(meetupEvents.keySet()).containsExactlyElementsOf(meetupEventIds);
+        assertThat(meetupEvents.get(lastMeetupEvent.getId()).getParticipantIds()).containsExactly("Alice");
+        assertThat(meetupEvents.get(lastMeetupEvent.getId()).getWaitingListIds()).containsExactly("Bob");
+        assertThat(meetupEvents.get(meetupEventIds.get(0)).getSubscriptions()).isEmpty();
+    }
+}
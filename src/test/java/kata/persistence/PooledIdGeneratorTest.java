@@ -0,0 +1,118 @@
+package kata.persistence;
+
+import kata.dbtestutil.MemoryDbTestContext;
+import org.jdbi.v3.core.Jdbi;
+import org.jdbi.v3.core.statement.SqlLogger;
+import org.jdbi.v3.core.statement.StatementContext;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class PooledIdGeneratorTest {
+
+    private MemoryDbTestContext memoryDbTestContext;
+    private Jdbi jdbi;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        memoryDbTestContext = MemoryDbTestContext.openWithSql("/setup.sql");
+        jdbi = memoryDbTestContext.getJdbi();
+    }
+
+    @AfterEach
+    void tearDown() {
+        memoryDbTestContext.close();
+    }
+
+    @Test
+    void should_hit_the_sequence_once_per_block() {
+        AtomicInteger sequenceCalls = new AtomicInteger();
+        jdbi.setSqlLogger(new SqlLogger() {
+            @Override
+            public void logBeforeExecution(StatementContext context) {
+                if (context.getRenderedSql().contains("NEXTVAL")) {
+                    sequenceCalls.incrementAndGet();
+                }
+            }
+        });
+        PooledIdGenerator idGenerator = new PooledIdGenerator(jdbi, "MEETUP_EVENT_ID_SEQ", MeetupEventDao.ID_BLOCK_SIZE);
+
+        List<Long> ids = new ArrayList<>();
+        for (int i = 0; i < 60; i++) {
+            ids.add(idGenerator.nextId());
+        }
+        ids.addAll(idGenerator.nextIds(45));
+
+        assertThat(ids).doesNotHaveDuplicates().hasSize(105);
+        assertThat(ids.subList(0, 50)).containsExactlyElementsOf(consecutive(1, 50));
+        assertThat(sequenceCalls).hasValue(3);
+    }
+
+    @Test
+    void should_reserve_consecutive_blocks_from_consecutive_sequence_values() {
+        PooledIdGenerator idGenerator = new PooledIdGenerator(jdbi, "MEETUP_EVENT_ID_SEQ", 10);
+
+        List<Long> ids = idGenerator.nextIds(25);
+        long nextNodeId = new PooledIdGenerator(jdbi, "MEETUP_EVENT_ID_SEQ", 10).nextId();
+
+        assertThat(ids).containsExactlyElementsOf(consecutive(1, 25));
+        assertThat(nextNodeId).isEqualTo(31);
+    }
+
+    @Test
+    void should_not_hand_out_the_same_id_twice_across_generators_sharing_the_sequence() throws Exception {
+        List<PooledIdGenerator> nodes = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            nodes.add(new PooledIdGenerator(jdbi, "MEETUP_EVENT_ID_SEQ", MeetupEventDao.ID_BLOCK_SIZE));
+        }
+        Set<Long> ids = ConcurrentHashMap.newKeySet();
+        AtomicInteger duplicates = new AtomicInteger();
+
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int thread = 0; thread < 8; thread++) {
+                PooledIdGenerator node = nodes.get(thread % nodes.size());
+                boolean bulk = thread % 2 == 0;
+                futures.add(executor.submit(() -> {
+                    for (int i = 0; i < 100; i++) {
+                        List<Long> generated = bulk ? node.nextIds(7) : Collections.singletonList(node.nextId());
+                        generated.forEach(id -> {
+                            if (!ids.add(id)) {
+                                duplicates.incrementAndGet();
+                            }
+                        });
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        assertThat(duplicates).hasValue(0);
+        assertThat(ids).hasSize(4 * 100 * 7 + 4 * 100);
+    }
+
+    private static List<Long> consecutive(long from, int count) {
+        List<Long> ids = new ArrayList<>();
+        for (long id = from; id < from + count; id++) {
+            ids.add(id);
+        }
+        return ids;
+    }
+}
@@ -0,0 +1,155 @@
+package kata.persistence;
+
+import kata.MeetupEvent;
+import kata.Subscription;
+import kata.SubscriptionCursor;
+import kata.dbtestutil.MemoryDbTestContext;
+import org.jdbi.v3.core.Jdbi;
+import org.jdbi.v3.core.argument.Argument;
+import org.jdbi.v3.core.statement.SqlLogger;
+import org.jdbi.v3.core.statement.StatementContext;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static java.util.Arrays.asList;
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Runs every DAO and repository statement on USER_SUBSCRIPTION, asks H2 for the plan of each of them with the
+ * same parameters, and fails on any table scan.
+ */
+public class QueryPlanTest {
+
+    private MemoryDbTestContext memoryDbTestContext;
+    private MeetupEventDao meetupEventDao;
+    private MeetupSubscriptionDao meetupSubscriptionDao;
+    private MeetupEventRepository meetupEventRepository;
+    private final Map<String, String> plansBySql = new LinkedHashMap<>();
+
+    @BeforeEach
+    void setUp() throws Exception {
+        memoryDbTestContext = MemoryDbTestContext.openWithSql("/setup.sql");
+        Jdbi jdbi = memoryDbTestContext.getJdbi();
+        meetupEventDao = new MeetupEventDao(jdbi);
+        meetupSubscriptionDao = new MeetupSubscriptionDao(jdbi);
+        meetupEventRepository = new MeetupEventRepository(jdbi);
+    }
+
+    @AfterEach
+    void tearDown() {
+        memoryDbTestContext.close();
+    }
+
+    private Long createMeetupEventWithSubscriptions(int capacity, String... userIds) {
+        MeetupEvent meetupEvent = new MeetupEvent(meetupEventDao.generateId(), capacity, "Coding dojo session 1",
+                LocalDateTime.of(2019, 6, 15, 20, 0));
+        meetupEventDao.create(meetupEvent);
+        Instant registrationTime = Instant.parse("2019-06-01T10:00:00Z");
+        for (int i = 0; i < userIds.length; i++) {
+            meetupEvent.subscribe(userIds[i], registrationTime.plusSeconds(i));
+        }
+        meetupEventRepository.save(meetupEvent);
+        return meetupEvent.getId();
+    }
+
+    @Test
+    void should_not_scan_user_subscription_table_in_any_query() {
+        createMeetupEventWithSubscriptions(2, "Alice", "Bob", "Charles", "David");
+        Long meetupEventId = createMeetupEventWithSubscriptions(2, "Alice", "Bob", "Charles", "David", "Emily");
+        memoryDbTestContext.getJdbi().setSqlLogger(new ExplainingSqlLogger());
+
+        meetupSubscriptionDao.findById("Alice", meetupEventId);
+        meetupSubscriptionDao.isUserSubscriptionInWaitingList("Alice", meetupEventId);
+        meetupSubscriptionDao.findSubscriptionsParticipants(meetupEventId);
+        meetupSubscriptionDao.findSubscriptionsInWaitingList(meetupEventId);
+        meetupSubscriptionDao.findSubscriptionsPage(meetupEventId, true, null, 10);
+        meetupSubscriptionDao.findSubscriptionsPage(meetupEventId, false,
+                new SubscriptionCursor(Instant.parse("2019-06-01T10:00:00Z"), "Alice"), 10);
+        meetupSubscriptionDao.useSubscriptionsStream(meetupEventId, true, stream -> stream.forEach(subscription -> {
+        }));
+        meetupSubscriptionDao.findWaitingListPosition(meetupSubscriptionDao.findById("Emily", meetupEventId), meetupEventId);
+        meetupEventRepository.findById(meetupEventId);
+        meetupEventRepository.findByIdForUser(meetupEventId, "Alice");
+        MeetupEvent meetupEvent = meetupEventRepository.findByIdForUsers(meetupEventId, asList("Alice", "Bob"));
+        meetupEvent.cancelSubscription("Alice");
+        meetupEventRepository.save(meetupEvent);
+
+        assertThat(plansBySql).isNotEmpty();
+        plansBySql.forEach((sql, plan) -> assertThat(plan)
+                .as("Plan of %s", sql)
+                .doesNotContain("tableScan"));
+    }
+
+    @Test
+    void should_read_participants_and_waiting_list_through_event_list_index() {
+        Long meetupEventId = createMeetupEventWithSubscriptions(2, "Alice", "Bob", "Charles");
+        memoryDbTestContext.getJdbi().setSqlLogger(new ExplainingSqlLogger());
+
+        meetupSubscriptionDao.findSubscriptionsParticipants(meetupEventId);
+        meetupSubscriptionDao.findSubscriptionsInWaitingList(meetupEventId);
+        meetupSubscriptionDao.findSubscriptionsPage(meetupEventId, true, null, 10);
+        meetupSubscriptionDao.findWaitingListPosition(
+                new Subscription("Charles", Instant.parse("2019-06-01T10:00:02Z"), true), meetupEventId);
+
+        assertThat(plansBySql).isNotEmpty();
+        plansBySql.forEach((sql, plan) -> assertThat(plan)
+                .as("Plan of %s", sql)
+                .contains("USER_SUBSCRIPTION_EVENT_LIST_IDX"));
+    }
+
+    @Test
+    void should_read_archived_subscriptions_through_archive_event_list_index() {
+        Long meetupEventId = createMeetupEventWithSubscriptions(2, "Alice", "Bob", "Charles");
+        MeetupEventArchive archive = new MeetupEventArchive(memoryDbTestContext.getJdbi());
+        archive.archiveMeetupEventsStartedBefore(LocalDateTime.of(2019, 6, 16, 0, 0));
+        Subscription charlesSubscription = archive.findSubscription("Charles", meetupEventId);
+        memoryDbTestContext.getJdbi().setSqlLogger(new ExplainingSqlLogger());
+
+        archive.findSubscriptionsPage(meetupEventId, true, null, 10);
+        archive.findSubscriptionsPage(meetupEventId, false,
+                new SubscriptionCursor(Instant.parse("2019-06-01T10:00:00Z"), "Alice"), 10);
+        archive.useSubscriptionsStream(meetupEventId, false, stream -> stream.forEach(subscription -> {
+        }));
+        archive.findWaitingListPosition(charlesSubscription, meetupEventId);
+
+        assertThat(plansBySql).hasSize(4);
+        plansBySql.forEach((sql, plan) -> assertThat(plan)
+                .as("Plan of %s", sql)
+                .contains("USER_SUBSCRIPTION_ARCHIVE_EVENT_LIST_IDX"));
+    }
+
+    private class ExplainingSqlLogger implements SqlLogger {
+
+        @Override
+        public void logBeforeExecution(StatementContext ctx) {
+            String sql = ctx.getParsedSql().getSql();
+            if (!sql.contains("USER_SUBSCRIPTION") || sql.startsWith("INSERT") || sql.startsWith("MERGE")) {
+                return;
+            }
+            try (PreparedStatement explain = ctx.getConnection().prepareStatement("EXPLAIN " + sql)) {
+                List<String> parameterNames = ctx.getParsedSql().getParameters().getParameterNames();
+                for (int i = 0; i < parameterNames.size(); i++) {
+                    Argument argument = ctx.getBinding().findForName(parameterNames.get(i), ctx)
+                            .orElseThrow(IllegalStateException::new);
+                    argument.apply(i + 1, explain, ctx);
+                }
+                try (ResultSet rs = explain.executeQuery()) {
+                    rs.next();
+                    plansBySql.put(sql, rs.getString(1));
+                }
+            } catch (SQLException e) {
+                throw new IllegalStateException("Cannot explain " + sql, e);
+            }
+        }
+    }
+}
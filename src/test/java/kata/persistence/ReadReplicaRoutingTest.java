@@ -0,0 +1,131 @@
+package kata.persistence;
+
+import kata.MeetupEvent;
+import kata.MeetupEventStatusDto;
+import kata.MeetupSubscribe;
+import kata.dbtestutil.LaggingReplica;
+import kata.dbtestutil.MemoryDbTestContext;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+
+import static java.util.Collections.singletonList;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class ReadReplicaRoutingTest {
+
+    private MemoryDbTestContext primaryContext;
+    private MemoryDbTestContext replicaContext;
+    private LaggingReplica laggingReplica;
+    private ShardRouter shardRouter;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        primaryContext = MemoryDbTestContext.openWithSql("/setup.sql", "primary");
+        replicaContext = MemoryDbTestContext.openWithSql("/setup.sql", "replica");
+        laggingReplica = new LaggingReplica(primaryContext.getJdbi(), replicaContext.getJdbi());
+    }
+
+    @AfterEach
+    void tearDown() {
+        if (shardRouter != null) {
+            shardRouter.close();
+        }
+        primaryContext.close();
+        replicaContext.close();
+    }
+
+    private MeetupSubscribe meetupSubscribeWithPrimaryPin(Duration primaryPin) {
+        shardRouter = new ShardRouter(singletonList(primaryContext.getJdbi()), singletonList(replicaContext.getJdbi()), primaryPin);
+        return new MeetupSubscribe(new MeetupSubscriptionDao(shardRouter), new MeetupEventDao(shardRouter),
+                new MeetupEventRepository(shardRouter));
+    }
+
+    private Long registerAMeetupWithSubscriptions(MeetupSubscribe meetupSubscribe, String... userIds) {
+        Long meetupEventId = meetupSubscribe.registerMeetupEvent("Coding dojo session 1", 2, LocalDateTime.of(2019, 6, 15, 20, 0));
+        for (String userId : userIds) {
+            meetupSubscribe.subscribeUserToMeetupEvent(userId, meetupEventId);
+        }
+        return meetupEventId;
+    }
+
+    @Test
+    void should_read_its_own_writes_from_the_primary_while_the_replica_lags() {
+        MeetupSubscribe meetupSubscribe = meetupSubscribeWithPrimaryPin(Duration.ofMinutes(1));
+
+        Long meetupEventId = registerAMeetupWithSubscriptions(meetupSubscribe, "Alice");
+
+        assertThat(shardRouter.readShardOf(meetupEventId)).isSameAs(primaryContext.getJdbi());
+        MeetupEventStatusDto meetupEventStatus = meetupSubscribe.getMeetupEventStatus(meetupEventId);
+        assertThat(meetupEventStatus.participants).containsExactly("Alice");
+        assertThat(meetupSubscribe.getMeetupEventCounts(meetupEventId).participantCount).isEqualTo(1);
+    }
+
+    @Test
+    void should_read_from_the_replica_once_the_pin_expired() {
+        MeetupSubscribe meetupSubscribe = meetupSubscribeWithPrimaryPin(Duration.ZERO);
+        Long meetupEventId = registerAMeetupWithSubscriptions(meetupSubscribe, "Alice");
+        laggingReplica.catchUp();
+
+        meetupSubscribe.subscribeUserToMeetupEvent("Bob", meetupEventId);
+
+        assertThat(shardRouter.readShardOf(meetupEventId)).isSameAs(replicaContext.getJdbi());
+        assertThat(meetupSubscribe.getMeetupEventStatus(meetupEventId).participants).containsExactly("Alice");
+
+        laggingReplica.catchUp();
+
+        assertThat(meetupSubscribe.getMeetupEventStatus(meetupEventId).participants).containsExactly("Alice", "Bob");
+    }
+
+    @Test
+    void should_load_events_to_save_from_the_primary() {
+        MeetupSubscribe meetupSubscribe = meetupSubscribeWithPrimaryPin(Duration.ZERO);
+        Long meetupEventId = registerAMeetupWithSubscriptions(meetupSubscribe, "Alice");
+        laggingReplica.catchUp();
+        meetupSubscribe.subscribeUserToMeetupEvent("Bob", meetupEventId);
+
+        meetupSubscribe.subscribeUserToMeetupEvent("Charles", meetupEventId);
+        laggingReplica.catchUp();
+
+        MeetupEventStatusDto meetupEventStatus = meetupSubscribe.getMeetupEventStatus(meetupEventId);
+        assertThat(meetupEventStatus.participants).containsExactly("Alice", "Bob");
+        assertThat(meetupEventStatus.waitingList).containsExactly("Charles");
+    }
+
+    @Test
+    void should_read_its_own_writes_through_meetup_subscribe_built_on_write_and_read_instances() {
+        try (MeetupSubscribe meetupSubscribe = MeetupSubscribe.builder(primaryContext.getJdbi(), replicaContext.getJdbi()).build()) {
+            Long meetupEventId = registerAMeetupWithSubscriptions(meetupSubscribe, "Alice", "Bob");
+
+            MeetupEventStatusDto meetupEventStatus = meetupSubscribe.getMeetupEventStatus(meetupEventId);
+            assertThat(meetupEventStatus.participants).containsExactly("Alice", "Bob");
+        }
+    }
+
+    @Test
+    void should_sweep_expired_pins_as_events_are_written() {
+        meetupSubscribeWithPrimaryPin(Duration.ZERO);
+
+        for (long meetupEventId = 1; meetupEventId <= 1000; meetupEventId++) {
+            shardRouter.writeShardOf(meetupEventId);
+        }
+
+        assertThat(shardRouter.pinnedEventCount()).isLessThanOrEqualTo(1);
+    }
+
+    @Test
+    void should_not_save_through_a_read_only_repository() {
+        MeetupSubscribe meetupSubscribe = meetupSubscribeWithPrimaryPin(Duration.ZERO);
+        Long meetupEventId = registerAMeetupWithSubscriptions(meetupSubscribe, "Alice");
+        laggingReplica.catchUp();
+        MeetupEventRepository readOnlyRepository = new MeetupEventRepository(shardRouter).readOnly();
+        MeetupEvent meetupEvent = readOnlyRepository.findById(meetupEventId);
+
+        assertThatThrownBy(() -> readOnlyRepository.save(meetupEvent))
+                .isInstanceOf(IllegalStateException.class);
+    }
+}
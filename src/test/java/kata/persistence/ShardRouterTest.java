@@ -0,0 +1,114 @@
+package kata.persistence;
+
+import kata.MeetupEventStatusDto;
+import kata.MeetupSubscribe;
+import kata.dbtestutil.MemoryDbTestContext;
+import org.jdbi.v3.core.Jdbi;
+import org.jdbi.v3.core.statement.SqlLogger;
+import org.jdbi.v3.core.statement.StatementContext;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static java.util.Arrays.asList;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ShardRouterTest {
+
+    private static final int SHARD_COUNT = 3;
+
+    private final List<MemoryDbTestContext> memoryDbTestContexts = new ArrayList<>();
+    private ShardRouter shardRouter;
+    private MeetupSubscribe meetupSubscribe;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        List<Jdbi> shards = new ArrayList<>();
+        for (int i = 0; i < SHARD_COUNT; i++) {
+            MemoryDbTestContext memoryDbTestContext = MemoryDbTestContext.openWithSql("/setup.sql", "shard" + i);
+            memoryDbTestContexts.add(memoryDbTestContext);
+            shards.add(memoryDbTestContext.getJdbi());
+        }
+        shardRouter = new ShardRouter(shards);
+        meetupSubscribe = new MeetupSubscribe(new MeetupSubscriptionDao(shardRouter), new MeetupEventDao(shardRouter),
+                new MeetupEventRepository(shardRouter));
+    }
+
+    @AfterEach
+    void tearDown() {
+        shardRouter.close();
+        memoryDbTestContexts.forEach(MemoryDbTestContext::close);
+    }
+
+    private Long registerAMeetupWithSubscriptions(String... userIds) {
+        Long meetupEventId = meetupSubscribe.registerMeetupEvent("Coding dojo session 1", 1, LocalDateTime.of(2019, 6, 15, 20, 0));
+        for (String userId : userIds) {
+            meetupSubscribe.subscribeUserToMeetupEvent(userId, meetupEventId);
+        }
+        return meetupEventId;
+    }
+
+    private List<Long> meetupEventIdsIn(Jdbi shard) {
+        return shard.withHandle(handle -> handle.createQuery("SELECT id FROM MEETUP_EVENT ORDER BY id")
+                .mapTo(Long.class)
+                .list());
+    }
+
+    @Test
+    void should_store_each_meetup_event_in_the_shard_encoded_in_its_id() {
+        List<Long> meetupEventIds = new ArrayList<>();
+        for (int i = 0; i < 2 * SHARD_COUNT; i++) {
+            meetupEventIds.add(registerAMeetupWithSubscriptions("Alice", "Bob"));
+        }
+
+        for (int shardIndex = 0; shardIndex < SHARD_COUNT; shardIndex++) {
+            List<Long> storedIds = meetupEventIdsIn(shardRouter.getShards().get(shardIndex));
+            assertThat(storedIds).hasSize(2);
+            for (Long storedId : storedIds) {
+                assertThat(shardRouter.shardIndexOf(storedId)).isEqualTo(shardIndex);
+            }
+        }
+        assertThat(meetupEventIds).doesNotHaveDuplicates();
+        for (Long meetupEventId : meetupEventIds) {
+            MeetupEventStatusDto meetupEventStatus = meetupSubscribe.getMeetupEventStatus(meetupEventId);
+            assertThat(meetupEventStatus.participants).containsExactly("Alice");
+            assertThat(meetupEventStatus.waitingList).containsExactly("Bob");
+        }
+    }
+
+    @Test
+    void should_keep_a_series_of_meetup_events_in_one_shard() {
+        List<Long> meetupEventIds = meetupSubscribe.registerMeetupEvents("Coding dojo", 10,
+                asList(LocalDateTime.of(2019, 6, 15, 20, 0), LocalDateTime.of(2019, 6, 22, 20, 0)));
+
+        assertThat(shardRouter.shardIndexOf(meetupEventIds.get(0))).isEqualTo(shardRouter.shardIndexOf(meetupEventIds.get(1)));
+        assertThat(meetupEventIdsIn(shardRouter.shardOf(meetupEventIds.get(0)))).containsExactlyElementsOf(meetupEventIds);
+    }
+
+    @Test
+    void should_query_the_shards_of_many_meetup_events_in_parallel() {
+        List<Long> meetupEventIds = new ArrayList<>();
+        for (int i = 0; i < SHARD_COUNT; i++) {
+            meetupEventIds.add(registerAMeetupWithSubscriptions("Alice"));
+        }
+        Set<String> queryingThreads = ConcurrentHashMap.newKeySet();
+        shardRouter.getShards().forEach(shard -> shard.setSqlLogger(new SqlLogger() {
+            @Override
+            public void logBeforeExecution(StatementContext context) {
+                queryingThreads.add(Thread.currentThread().getName());
+            }
+        }));
+
+        Map<Long, MeetupEventStatusDto> statuses = meetupSubscribe.getMeetupEventStatuses(meetupEventIds);
+
+        assertThat(statuses.keySet()).containsExactlyElementsOf(meetupEventIds);
+        assertThat(queryingThreads).contains(Thread.currentThread().getName(), "shard-fan-out-1", "shard-fan-out-2");
+    }
+}
@@ -0,0 +1,151 @@
+package kata.persistence;
+
+import kata.InMemoryInstrumentation;
+import kata.InstrumentationSnapshotDto;
+import kata.MeetupEvent;
+import kata.MeetupSubscribe;
+import kata.dbtestutil.MemoryDbTestContext;
+import org.jdbi.v3.core.Jdbi;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.util.stream.Collectors.toList;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class UnitOfWorkTest {
+
+    private MemoryDbTestContext memoryDbTestContext;
+    private InMemoryInstrumentation instrumentation;
+    private StatementCachePlugin statementCache;
+    private MeetupSubscribe meetupSubscribe;
+    private MeetupEventRepository meetupEventRepository;
+    private Jdbi jdbi;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        memoryDbTestContext = MemoryDbTestContext.openWithSql("/setup.sql");
+        jdbi = memoryDbTestContext.getJdbi();
+        instrumentation = new InMemoryInstrumentation();
+        statementCache = new StatementCachePlugin();
+        jdbi.installPlugin(new InstrumentationPlugin(instrumentation));
+        jdbi.installPlugin(statementCache);
+        meetupEventRepository = new MeetupEventRepository(jdbi);
+        meetupSubscribe = MeetupSubscribe.builder(new MeetupSubscriptionDao(jdbi), new MeetupEventDao(jdbi), meetupEventRepository)
+                .instrumentation(instrumentation)
+                .build();
+    }
+
+    @AfterEach
+    void tearDown() {
+        memoryDbTestContext.close();
+    }
+
+    @Test
+    void should_open_a_single_handle_per_operation() {
+        Long meetupEventId = meetupSubscribe.registerMeetupEvent("Coding dojo session 1", 1, LocalDateTime.of(2019, 6, 15, 20, 0));
+        meetupSubscribe.subscribeUserToMeetupEvent("Alice", meetupEventId);
+        meetupSubscribe.subscribeUserToMeetupEvent("Bob", meetupEventId);
+        instrumentation.reset();
+        long missesBefore = statementCache.getMissCount();
+        long hitsBefore = statementCache.getHitCount();
+
+        meetupSubscribe.cancelUserSubscription("Alice", meetupEventId);
+
+        InstrumentationSnapshotDto snapshot = instrumentation.snapshot();
+        assertThat(snapshot.handlesOpened).isEqualTo(1);
+        assertPreparedOncePerDistinctStatement(snapshot, missesBefore, hitsBefore);
+        assertThat(meetupSubscribe.getMeetupEventStatus(meetupEventId).participants).containsExactly("Bob");
+    }
+
+    @Test
+    void should_release_the_handle_before_waiting_to_retry() {
+        AtomicInteger saves = new AtomicInteger();
+        MeetupEventRepository conflictingRepository = new MeetupEventRepository(jdbi) {
+            @Override
+            public long save(MeetupEvent meetupEvent) {
+                if (saves.incrementAndGet() == 1) {
+                    throw new ConcurrentMeetupEventUpdateException(meetupEvent.getId(), meetupEvent.getVersion());
+                }
+                return super.save(meetupEvent);
+            }
+        };
+        MeetupSubscribe conflictingMeetupSubscribe = MeetupSubscribe.builder(new MeetupSubscriptionDao(jdbi), new MeetupEventDao(jdbi), conflictingRepository)
+                .instrumentation(instrumentation)
+                .build();
+        Long meetupEventId = meetupSubscribe.registerMeetupEvent("Coding dojo session 1", 1, LocalDateTime.of(2019, 6, 15, 20, 0));
+        instrumentation.reset();
+
+        conflictingMeetupSubscribe.subscribeUserToMeetupEvent("Alice", meetupEventId);
+
+        InstrumentationSnapshotDto snapshot = instrumentation.snapshot();
+        assertThat(snapshot.retries).containsEntry("subscribeUserToMeetupEvent", 1L);
+        assertThat(snapshot.handlesOpened).isEqualTo(2);
+        assertThat(meetupSubscribe.getMeetupEventStatus(meetupEventId).participants).containsExactly("Alice");
+    }
+
+    @Test
+    void should_open_a_handle_per_call_outside_of_a_unit_of_work() {
+        Long meetupEventId = meetupSubscribe.registerMeetupEvent("Coding dojo session 1", 1, LocalDateTime.of(2019, 6, 15, 20, 0));
+        instrumentation.reset();
+
+        meetupEventRepository.findById(meetupEventId);
+        meetupEventRepository.findById(meetupEventId);
+
+        assertThat(instrumentation.snapshot().handlesOpened).isEqualTo(2);
+        assertThat(statementCache.getHitCount()).isZero();
+    }
+
+    @Test
+    void should_reuse_the_prepared_statements_of_the_handle_in_a_unit_of_work() {
+        Long meetupEventId = meetupSubscribe.registerMeetupEvent("Coding dojo session 1", 100, LocalDateTime.of(2019, 6, 15, 20, 0));
+        instrumentation.reset();
+        long missesBefore = statementCache.getMissCount();
+        long hitsBefore = statementCache.getHitCount();
+
+        UnitOfWork.run(() -> {
+            for (int i = 0; i < 20; i++) {
+                meetupSubscribe.subscribeUserToMeetupEvent("user-" + i, meetupEventId);
+            }
+            return null;
+        });
+
+        InstrumentationSnapshotDto snapshot = instrumentation.snapshot();
+        assertThat(snapshot.handlesOpened).isEqualTo(1);
+        assertPreparedOncePerDistinctStatement(snapshot, missesBefore, hitsBefore);
+        assertThat(statementCache.getHitRate()).isGreaterThan(0.9);
+        assertThat(meetupSubscribe.getMeetupEventStatus(meetupEventId).participants).hasSize(20);
+    }
+
+    @Test
+    void should_not_share_a_statement_still_in_use() {
+        Long meetupEventId = meetupSubscribe.registerMeetupEvent("Coding dojo session 1", 100, LocalDateTime.of(2019, 6, 15, 20, 0));
+        meetupSubscribe.subscribeUserToMeetupEvent("Alice", meetupEventId);
+        meetupSubscribe.subscribeUserToMeetupEvent("Bob", meetupEventId);
+
+        List<String> pairs = new ArrayList<>();
+        UnitOfWork.run(() -> {
+            meetupSubscribe.useParticipantsStream(meetupEventId, outer -> outer.forEach(first ->
+                    meetupSubscribe.useParticipantsStream(meetupEventId, inner ->
+                            pairs.addAll(inner.map(second -> first + "-" + second).collect(toList())))));
+            return null;
+        });
+
+        assertThat(pairs).containsExactly("Alice-Alice", "Alice-Bob", "Bob-Alice", "Bob-Bob");
+    }
+
+    /**
+     * With a single handle, each distinct SQL is prepared once and every other execution reuses its statement.
+     */
+    private void assertPreparedOncePerDistinctStatement(InstrumentationSnapshotDto snapshot, long missesBefore, long hitsBefore) {
+        long executedStatements = snapshot.statements.values().stream().mapToLong(timing -> timing.count).sum();
+        long misses = statementCache.getMissCount() - missesBefore;
+        assertThat(misses).isEqualTo(snapshot.statements.size());
+        assertThat(statementCache.getHitCount() - hitsBefore).isEqualTo(executedStatements - misses);
+    }
+}